@@ -1,281 +1,653 @@
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.function.Consumer;
+import javax.management.JMException;
 
 class AgricultureManagementSystem {
 
-    private static final String USER_DATA_FILE = "user.txt";
-    private static String[] CROPS = {"Wheat", "Corn", "Bajra", "Jute", "Cotton"};
-    private static double[] PRICES = {2000.0, 1800.0, 2200.0, 2500.0, 3000.0};
-    private static String[] SUBSIDIES = {
-        "Subsidy 1: 50% subsidy on fertilizers.",
-        "Subsidy 2: Interest-free loans for small farmers.",
-        "Subsidy 3: Free seeds for organic farming."
-    };
-    private static String[] SUBSIDY_DETAILS = {
-        "Details for Subsidy 1: This subsidy provides a 50% discount on fertilizers for all registered farmers. Valid until December 2023.",
-        "Details for Subsidy 2: Small farmers can avail interest-free loans up to ₹1,00,000. Contact your nearest agriculture office for more details.",
-        "Details for Subsidy 3: Free seeds for organic farming are available for farmers practicing sustainable agriculture. Apply online at www.agri-subsidy.gov.in."
-    };
-    private static String[][] CROP_STEPS = {
-        {"Wheat Steps: 1. Prepare well-drained soil. 2. Sow seeds in November. 3. Irrigate regularly. 4. Harvest in March-April."},
-        {"Corn Steps: 1. Choose fertile soil. 2. Sow seeds in May-June. 3. Provide adequate water. 4. Harvest after 90-120 days."},
-        {"Bajra Steps: 1. Use sandy loam soil. 2. Sow seeds in July. 3. Ensure proper drainage. 4. Harvest after 60-90 days."},
-        {"Jute Steps: 1. Use alluvial soil. 2. Sow seeds in March-April. 3. Keep soil moist. 4. Harvest after 120-150 days."},
-        {"Cotton Steps: 1. Use black soil. 2. Sow seeds in May-June. 3. Provide regular irrigation. 4. Harvest after 150-180 days."}
-    };
-
-    private static HashMap<String, User> users = new HashMap<>();
-    private static User currentUser = null;
-    private static Scanner scanner = new Scanner(System.in);
+    // -Dagri.snapshot.format=binary keeps users in the columnar user.dat instead of user.txt,
+    // =sharded in per-district files under users/ that load on demand
+    static final boolean BINARY_SNAPSHOT = "binary".equalsIgnoreCase(System.getProperty("agri.snapshot.format"));
+    static final boolean SHARDED = "sharded".equalsIgnoreCase(System.getProperty("agri.snapshot.format"));
+    private static final String USER_SHARD_DIR = "users";
+    private static final String USER_DATA_FILE = BINARY_SNAPSHOT ? "user.dat"
+            : SHARDED ? USER_SHARD_DIR + "/" + ShardedUserStore.MANIFEST : "user.txt";
+    // -Dagri.users.cache=N keeps only N users in memory and reads the rest from user.txt on demand
+    private static final int USER_CACHE_SIZE = Integer.getInteger("agri.users.cache", 0);
+    static final boolean LAZY_USERS = USER_CACHE_SIZE > 0 && !BINARY_SNAPSHOT && !SHARDED;
+    private static final String CATALOG_FILE = "catalog.txt";
+    private static final String PRICE_HISTORY_FILE = "prices.dat";
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int MAX_REPORTED_ERRORS = 20;
+    private static final int APPLICANTS_PAGE_SIZE = 20;
+    private static final int USERS_PAGE_SIZE = 20;
+    // Shared by every session
+    private static final UserRegistry users = new UserRegistry();
+    private static AgricultureService service;
+    private static UserWriteAheadLog userLog;
+    private static ShardedUserStore shards;
+    private static LazyUserStore lazyUsers;
+    private static UserFileAppender userFile;
+    private static long snapshotCheckpoint;
+    private static BackgroundFlusher flusher;
+    private static boolean shutDown;
+    private static final CropPriceHistory priceHistory = new CropPriceHistory(Paths.get(PRICE_HISTORY_FILE));
+
+    // Per-session state
+    private final Scanner scanner;
+    private final PrintStream out;
+    private User currentUser = null;
 
     public static void main(String[] args) {
+        loadCatalog();
+        openPriceHistory();
         loadUserData();
+        openUserLog();
+        users.rebuildIndexes();
+        service = new AgricultureService(users, userLog, new CredentialVerifier(), shards);
+        SubsidySweeper.start(users);
+        try {
+            OperationMetrics.registerMBeans();
+        } catch (JMException e) {
+            System.out.println("Error registering metrics with JMX: " + e.getMessage());
+        }
 
         // Add default admin user if not exists
-        if (!users.containsKey("admin")) {
-            users.put("admin", new User("admin", "admin123", "Administrator", true));
+        if (service.findUser("admin") == null) {
+            User admin = new User("admin", PasswordHasher.hash("admin123"), "Administrator", true);
+            users.register(admin);
+            if (userLog.isWritable()) {
+                userLog.logRegister(admin);
+            }
+        }
+
+        flusher = new BackgroundFlusher(userLog, Paths.get(CATALOG_FILE));
+        flusher.start();
+        // Covers kill and Ctrl-C as well as the normal exits below
+        Runtime.getRuntime().addShutdownHook(new Thread(AgricultureManagementSystem::shutdown, "final-flush"));
+
+        // --ingest <file|dir> loads a price feed and exits
+        if (args.length > 1 && args[0].equals("--ingest")) {
+            try {
+                printFeedReport(PriceFeedIngester.ingest(Paths.get(args[1]), priceHistory), System.out);
+            } catch (IOException e) {
+                System.out.println("Error reading price feed: " + e.getMessage());
+            }
+            shutdown();
+            System.exit(0);
+        }
+
+        // --export users|applications <file> [filter=value ...] writes an export and exits
+        if (args.length > 2 && args[0].equals("--export")) {
+            boolean exported = exportFromCommandLine(args);
+            shutdown();
+            System.exit(exported ? 0 : 1);
+        }
+
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : AgricultureServer.DEFAULT_PORT;
+            AgricultureServer.serve(port);
+            return;
         }
 
-        System.out.println("==============================================");
-        System.out.println("    AGRICULTURE MANAGEMENT SYSTEM");
-        System.out.println("==============================================");
+        new AgricultureManagementSystem(System.in, System.out).run();
+        shutdown();
+        System.out.println("\nThank you for using the Agriculture Management System!");
+        System.exit(0);
+    }
+
+    AgricultureManagementSystem(InputStream in, PrintStream out) {
+        this.scanner = new Scanner(in, StandardCharsets.UTF_8);
+        this.out = out;
+    }
+
+    // Runs one session of the main menu until the user picks Exit
+    void run() {
+        out.println("==============================================");
+        out.println("    AGRICULTURE MANAGEMENT SYSTEM");
+        out.println("==============================================");
 
         while (true) {
-            System.out.println("\nMain Options:");
-            System.out.println("1. Login");
-            System.out.println("2. Register");
-            System.out.println("3. Exit");
-            System.out.print("Enter your choice: ");
+            out.println("\nMain Options:");
+            out.println("1. Login");
+            out.println("2. Register");
+            out.println("3. Exit");
+            out.print("Enter your choice: ");
 
             int choice = getIntInput(1, 3);
 
-            switch (choice) {
-                case 1:
-                    login();
-                    if (currentUser != null) {
-                        if (currentUser.isAdmin()) {
-                            showAdminMenu();
-                        } else {
-                            showMainMenu();
+            try {
+                switch (choice) {
+                    case 1:
+                        login();
+                        if (currentUser != null) {
+                            if (currentUser.isAdmin()) {
+                                showAdminMenu();
+                            } else {
+                                showMainMenu();
+                            }
                         }
-                    }
-                    break;
-                case 2:
-                    register();
-                    break;
-                case 3:
-                    saveUserData();
-                    System.out.println("\nThank you for using the Agriculture Management System!");
-                    System.exit(0);
+                        break;
+                    case 2:
+                        register();
+                        break;
+                    case 3:
+                        return;
+                }
+            } catch (UncheckedIOException e) {
+                reportNotSaved(e);
+            }
+        }
+    }
+
+    private static void loadCatalog() {
+        try {
+            if (CropCatalog.load(Paths.get(CATALOG_FILE))) {
+                System.out.println("Crop and subsidy catalog loaded (version " + CropCatalog.current().version() + ").");
+            }
+        } catch (Exception e) {
+            System.out.println("Error loading catalog, using defaults: " + e.getMessage());
+        }
+    }
+
+    private static void openPriceHistory() {
+        try {
+            int ticks = priceHistory.open();
+            if (ticks > 0) {
+                System.out.println("Loaded " + ticks + " price tick(s) of history.");
+            }
+        } catch (IOException e) {
+            System.out.println("Error loading price history: " + e.getMessage());
+        }
+        // Crops without history start from their catalog price, dated at the epoch so
+        // it reads as "in effect before anything we recorded" and older feeds still fit
+        CropCatalog catalog = CropCatalog.current();
+        for (int i = 0; i < catalog.cropCount(); i++) {
+            if (!priceHistory.hasHistory(catalog.crop(i))) {
+                priceHistory.record(catalog.crop(i), 0, catalog.price(i));
             }
         }
     }
 
     private static void loadUserData() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(USER_DATA_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length >= 4) {
-                    User user = new User(
-                        parts[0].trim(), // username
-                        parts[1].trim(), // password
-                        parts[2].trim(), // fullName
-                        Boolean.parseBoolean(parts[3].trim()) // isAdmin
-                    );
-                    
-                    // Land details (if available)
-                    if (parts.length >= 7) {
-                        user.setLandDetails(
-                            Double.parseDouble(parts[4].trim()), // landSize
-                            parts[5].trim(), // location
-                            parts[6].trim()  // soilType
-                        );
-                    }
-                    
-                    // Subsidy applications (if available)
-                    if (parts.length >= 8 && !parts[7].trim().isEmpty()) {
-                        for (String app : parts[7].trim().split(",")) {
-                            user.addSubsidyApplication(Integer.parseInt(app.trim()));
-                        }
-                    }
-                    
-                    // Approved subsidies (if available)
-                    if (parts.length >= 9 && !parts[8].trim().isEmpty()) {
-                        for (String approved : parts[8].trim().split(",")) {
-                            user.getApprovedSubsidies().add(Integer.parseInt(approved.trim()));
-                        }
-                    }
-                    
-                    users.put(user.getUsername(), user);
+        long start = System.nanoTime();
+        boolean loaded = false;
+        try {
+            if (SHARDED) {
+                Files.createDirectories(Paths.get(USER_SHARD_DIR));
+                shards = new ShardedUserStore(Paths.get(USER_SHARD_DIR), users);
+                snapshotCheckpoint = shards.open(Paths.get("user.txt"));
+                // Changes still in the log are replayed by name, so their users must be in memory
+                if (new UserWriteAheadLog(Paths.get(USER_DATA_FILE)).hasSegmentsAfter(snapshotCheckpoint)) {
+                    shards.loadAll();
+                }
+                loaded = true;
+                System.out.printf("User data: %d farmer(s) in %d district shard(s), %d loaded, in %.1f ms.%n",
+                        shards.userCount(), shards.shardCount(), shards.loadedShardCount(),
+                        (System.nanoTime() - start) / 1_000_000.0);
+                return;
+            }
+            if (USER_CACHE_SIZE > 0 && !LAZY_USERS) {
+                System.out.println("agri.users.cache applies to the text format only and is ignored.");
+            }
+            if (LAZY_USERS) {
+                lazyUsers = new LazyUserStore(Paths.get(USER_DATA_FILE), USER_CACHE_SIZE, users);
+                snapshotCheckpoint = lazyUsers.open();
+                users.attach(lazyUsers);
+                loaded = true;
+                System.out.printf("User data: %d farmer(s) indexed on disk, up to %d cached, in %.1f ms.%n",
+                        lazyUsers.size(), USER_CACHE_SIZE, (System.nanoTime() - start) / 1_000_000.0);
+                return;
+            }
+            if (BINARY_SNAPSHOT) {
+                snapshotCheckpoint = UserSnapshotFormat.read(Paths.get(USER_DATA_FILE), users.asMap());
+                loaded = true;
+                System.out.println("User data loaded successfully from binary snapshot.");
+                System.out.printf("Loaded %d records in %.1f ms.%n", users.size(), (System.nanoTime() - start) / 1_000_000.0);
+                return;
+            }
+
+            // If the load fails, saves only append what changes, leaving the file's records in place
+            userFile = new UserFileAppender(Paths.get(USER_DATA_FILE), 0);
+            UserDataLoader.LoadReport report = UserDataLoader.load(Paths.get(USER_DATA_FILE), users.asMap());
+            snapshotCheckpoint = UserWriteAheadLog.readCheckpoint(Paths.get(USER_DATA_FILE));
+            // Everyone loaded matches the file; log replay and later changes mark users to append
+            for (User user : users.all()) {
+                synchronized (user) {
+                    user.markSaved(-1);
                 }
             }
+            userFile = new UserFileAppender(Paths.get(USER_DATA_FILE), report.records);
+            loaded = true;
             System.out.println("User data loaded successfully from text file.");
-        } catch (FileNotFoundException e) { // if file does not exists
+            System.out.printf("Loaded %d records in %.1f ms (%.0f records/sec).%n",
+                    report.records, report.elapsedNanos / 1_000_000.0, report.recordsPerSecond());
+
+            if (!report.errors.isEmpty()) {
+                System.out.println(report.errors.size() + " line(s) could not be parsed:");
+                for (int i = 0; i < Math.min(report.errors.size(), MAX_REPORTED_ERRORS); i++) {
+                    System.out.println("  " + report.errors.get(i));
+                }
+                if (report.errors.size() > MAX_REPORTED_ERRORS) {
+                    System.out.println("  ... and " + (report.errors.size() - MAX_REPORTED_ERRORS) + " more");
+                }
+            }
+        } catch (NoSuchFileException e) { // if file does not exists
+            loaded = true;
             System.out.println("No existing user data found. Starting with empty database.");
-        } catch (Exception e) { //if currpted file or security issues 
+        } catch (Exception e) { //if currpted file or security issues
             System.out.println("Error loading user data: " + e.getMessage());
+        } finally {
+            OperationMetrics.LOAD_USERS.record(start, loaded);
+        }
+    }
+
+    private static void openUserLog() {
+        userLog = new UserWriteAheadLog(Paths.get(USER_DATA_FILE));
+        try {
+            int replayed = userLog.open(LAZY_USERS ? lazyUsers.replayView() : users.asMap(), snapshotCheckpoint);
+            if (replayed > 0) {
+                System.out.println("Recovered " + replayed + " unsaved change(s) from the user log.");
+            }
+        } catch (IOException e) {
+            System.out.println("Error opening user log, refusing changes until a restart: " + e.getMessage());
+        }
+    }
+
+    // Final flush, once, on every way out including kill and Ctrl-C
+    private static synchronized void shutdown() {
+        if (shutDown) {
+            return;
         }
+        shutDown = true;
+        flusher.close();
+        saveUserData();
     }
 
     private static void saveUserData() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(USER_DATA_FILE))) {
-            for (User user : users.values()) {
-                StringBuilder sb = new StringBuilder();
-                sb.append(user.getUsername()).append("|");
-                sb.append(user.getPassword()).append("|");
-                sb.append(user.getFullName()).append("|");
-                sb.append(user.isAdmin()).append("|");
-                sb.append(user.getLandSize()).append("|");
-                sb.append(user.getLocation()).append("|");
-                sb.append(user.getSoilType()).append("|");
-                
-                // Subsidy applications
-                sb.append(String.join(",", 
-                    user.getSubsidyApplications().stream()
-                        .map(String::valueOf)
-                        .toArray(String[]::new))).append("|");
-                
-                // Approved subsidies
-                sb.append(String.join(",", 
-                    user.getApprovedSubsidies().stream()
-                        .map(String::valueOf)
-                        .toArray(String[]::new)));
-                
-                writer.write(sb.toString());
-                writer.newLine();
+        long start = System.nanoTime();
+        boolean saved = false;
+        try {
+            // Everything logged so far is part of this snapshot
+            long checkpoint = userLog.close();
+            if (!userLog.isOpen()) {
+                // Changes were refused, and the log may hold records not replayed; leave the files as they are
+                System.out.println("User data left as it is on disk, as the user log could not be opened.");
+                return;
             }
-            System.out.println("User data saved successfully in text format.");
+            if (SHARDED) {
+                int written = shards.save(checkpoint);
+                userLog.deleteSegmentsUpTo(checkpoint);
+                saved = true;
+                System.out.println(written == 0 ? "User data is up to date."
+                        : "User data saved: " + written + " district shard(s) rewritten.");
+                return;
+            }
+            if (LAZY_USERS) {
+                int written = lazyUsers.close(checkpoint);
+                userLog.deleteSegmentsUpTo(checkpoint);
+                saved = true;
+                System.out.println(written == 0 ? "User data is up to date."
+                        : "User data saved: " + written + " changed farmer(s) written.");
+                return;
+            }
+            if (!userLog.hasUnsavedChanges()) {
+                saved = true;
+                System.out.println("User data is up to date.");
+                return;
+            }
+            if (BINARY_SNAPSHOT) {
+                writeSnapshot(Paths.get(USER_DATA_FILE), users.all(), checkpoint);
+                userLog.deleteSegmentsUpTo(checkpoint);
+                saved = true;
+                System.out.println("User data saved successfully in binary format.");
+                return;
+            }
+            int written = userFile.save(users.all(), checkpoint);
+            userLog.deleteSegmentsUpTo(checkpoint);
+            saved = true;
+            System.out.println(written == 0 ? "User data is up to date."
+                    : "User data saved successfully in text format: " + written + " user record(s) written.");
         } catch (Exception e) {
             System.out.println("Error saving user data: " + e.getMessage());
+        } finally {
+            OperationMetrics.SAVE_USERS.record(start, saved);
+        }
+    }
+
+    // Log compaction for the sharded and on-demand layouts: writes the changed users from memory
+    static void saveChangedUsers(long logCheckpoint) throws IOException {
+        if (SHARDED) {
+            shards.save(logCheckpoint);
+        } else if (LAZY_USERS) {
+            lazyUsers.save(logCheckpoint);
+        } else {
+            userFile.save(users.all(), logCheckpoint);
+        }
+    }
+
+    // Loads a snapshot in the configured format and returns its log checkpoint
+    static long readSnapshot(Path file, Map<String, User> into) throws IOException {
+        if (BINARY_SNAPSHOT) {
+            return UserSnapshotFormat.read(file, into);
         }
+        UserDataLoader.load(file, into);
+        return UserWriteAheadLog.readCheckpoint(file);
     }
 
-    private static void login() {
-        System.out.println("\n=== Login ===");
-        System.out.print("Username: ");
+    static void writeSnapshot(Path file, Collection<User> snapshot, long logCheckpoint) throws IOException {
+        if (BINARY_SNAPSHOT) {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            UserSnapshotFormat.write(temp, snapshot, logCheckpoint);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            writeUserFile(file, snapshot, logCheckpoint);
+        }
+    }
+
+    // Writes a full text snapshot to a temp file and renames it over the old one
+    static void writeUserFile(Path file, Collection<User> users, long logCheckpoint) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(UserWriteAheadLog.checkpointLine(logCheckpoint));
+            writer.newLine();
+            for (User user : users) {
+                writer.write(formatUserRecord(user));
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static String formatUserRecord(User user) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(user.getUsername()).append("|");
+        sb.append(user.getPassword()).append("|");
+        sb.append(user.getFullName()).append("|");
+        sb.append(user.isAdmin()).append("|");
+        sb.append(user.getLandSize()).append("|");
+        sb.append(user.getLocation()).append("|");
+        sb.append(user.getSoilType()).append("|");
+
+        // Subsidy applications
+        int mark = sb.length();
+        user.forEachSubsidyApplication(app -> sb.append(app).append(","));
+        if (sb.length() > mark) {
+            sb.setLength(sb.length() - 1);
+        }
+        sb.append("|");
+
+        // Approved subsidies
+        mark = sb.length();
+        user.forEachApprovedSubsidy(approved -> sb.append(approved).append(","));
+        if (sb.length() > mark) {
+            sb.setLength(sb.length() - 1);
+        }
+
+        // Price alerts, only for users that have any
+        List<PriceAlert> alerts = user.getPriceAlerts();
+        if (!alerts.isEmpty()) {
+            sb.append("|").append(PriceAlert.format(alerts));
+        }
+        return sb.toString();
+    }
+
+    private void login() {
+        out.println("\n=== Login ===");
+        out.print("Username: ");
         String username = scanner.nextLine();
-        System.out.print("Password: ");
+        out.print("Password: ");
         String password = scanner.nextLine();
 
-        if (users.containsKey(username)) {
-            User user = users.get(username);
-            if (user.authenticate(password)) {
-                currentUser = user;
-                System.out.println("\nLogin successful! Welcome, " + username + "!");
-            } else {
-                System.out.println("\nIncorrect password!");
-            }
-        } else {
-            System.out.println("\nUsername not found!");
+        AgricultureService.LoginResult result = service.login(username, password);
+        switch (result.status) {
+            case OK:
+                currentUser = result.user;
+                out.println("\nLogin successful! Welcome, " + username + "!");
+                if (!currentUser.isAdmin()) {
+                    showFiredPriceAlerts();
+                }
+                break;
+            case WRONG_PASSWORD:
+                out.println("\nIncorrect password!");
+                break;
+            case BUSY:
+                out.println("\nToo many logins right now, please try again.");
+                break;
+            case UNKNOWN_USER:
+                out.println("\nUsername not found!");
+                break;
         }
     }
 
-    private static void register() {
-        System.out.println("\n=== Register ===");
-        System.out.print("Choose a username: ");
+    private void showFiredPriceAlerts() {
+        List<PriceAlert> fired = service.takeFiredPriceAlerts(currentUser);
+        if (fired.isEmpty()) {
+            return;
+        }
+        out.println("\nPrice alerts since your last visit:");
+        for (PriceAlert alert : fired) {
+            out.printf("  %s - reached ₹%.2f%n", alert.describe(), alert.firedAt);
+        }
+    }
+
+    private void register() {
+        out.println("\n=== Register ===");
+        out.print("Choose a username: ");
         String username = scanner.nextLine();
 
-        if (users.containsKey(username)) {
-            System.out.println("\nUsername already exists!");
+        if (service.findUser(username) != null) {
+            out.println("\nUsername already exists!");
             return;
         }
 
-        System.out.print("Choose a password: ");
+        out.print("Choose a password: ");
         String password = scanner.nextLine();
-        System.out.print("Enter your full name: ");
+        out.print("Enter your full name: ");
         String fullName = scanner.nextLine();
 
-        users.put(username, new User(username, password, fullName, false));
-        System.out.println("\nRegistration successful! You can now login.");
+        // Another session may have taken the name while this one was typing
+        switch (service.register(username, password, fullName)) {
+            case OK:
+                out.println("\nRegistration successful! You can now login.");
+                break;
+            case NAME_TAKEN:
+                out.println("\nUsername already exists!");
+                break;
+            case BUSY:
+                out.println("\nToo many requests right now, please try again.");
+                break;
+        }
     }
 
-    private static void showMainMenu() {
-        while (currentUser != null) {
-            System.out.println("\n==============================================");
-            System.out.println("    MAIN MENU - Welcome, " + currentUser.getFullName());
-            System.out.println("==============================================");
-            System.out.println("1. View/Update Land Details");
-            System.out.println("2. View Crop Prices");
-            System.out.println("3. View Government Subsidies");
-            System.out.println("4. View Crop Growing Steps");
-            System.out.println("5. Logout");
-            System.out.print("Enter your choice: ");
+    // The user log could not record a change, so it was refused; the session goes on
+    private void reportNotSaved(UncheckedIOException e) {
+        out.println("\nThe change was not saved: " + e.getMessage());
+    }
 
-            int choice = getIntInput(1, 5);
+    private void showMainMenu() {
+        while (currentUser != null) {
+            out.println("\n==============================================");
+            out.println("    MAIN MENU - Welcome, " + currentUser.getFullName());
+            out.println("==============================================");
+            out.println("1. View/Update Land Details");
+            out.println("2. View Crop Prices");
+            out.println("3. View Government Subsidies");
+            out.println("4. View Crop Growing Steps");
+            out.println("5. Crop Recommendations");
+            out.println("6. Price Alerts");
+            out.println("7. Logout");
+            out.print("Enter your choice: ");
+
+            int choice = getIntInput(1, 7);
 
-            switch (choice) {
-                case 1:
-                    manageLandDetails();
-                    break;
-                case 2:
-                    displayCropPrices();
-                    break;
-                case 3:
-                    manageSubsidies();
-                    break;
-                case 4:
-                    viewCropSteps();
-                    break;
-                case 5:
-                    currentUser = null;
-                    System.out.println("\nLogged out successfully!");
-                    return;
+            try {
+                switch (choice) {
+                    case 1:
+                        manageLandDetails();
+                        break;
+                    case 2:
+                        displayCropPrices();
+                        break;
+                    case 3:
+                        manageSubsidies();
+                        break;
+                    case 4:
+                        viewCropSteps();
+                        break;
+                    case 5:
+                        viewCropRecommendations();
+                        break;
+                    case 6:
+                        managePriceAlerts();
+                        break;
+                    case 7:
+                        currentUser = null;
+                        out.println("\nLogged out successfully!");
+                        return;
+                }
+            } catch (UncheckedIOException e) {
+                reportNotSaved(e);
             }
         }
     }
 
-    private static void showAdminMenu() {
+    private void showAdminMenu() {
         while (currentUser != null) {
-            System.out.println("\n==============================================");
-            System.out.println("    ADMIN MENU - Welcome, " + currentUser.getFullName());
-            System.out.println("==============================================");
-            System.out.println("1. Manage Crop Prices");
-            System.out.println("2. Manage Subsidies");
-            System.out.println("3. View All Users");
-            System.out.println("4. Manage Subsidy Applications");
-            System.out.println("5. Logout");
-            System.out.print("Enter your choice: ");
+            out.println("\n==============================================");
+            out.println("    ADMIN MENU - Welcome, " + currentUser.getFullName());
+            out.println("==============================================");
+            out.println("1. Manage Crop Prices");
+            out.println("2. Manage Subsidies");
+            out.println("3. View All Users");
+            out.println("4. Manage Subsidy Applications");
+            out.println("5. Crop Recommendation Report");
+            out.println("6. Export Data");
+            out.println("7. System Metrics");
+            out.println("8. Logout");
+            out.print("Enter your choice: ");
+
+            int choice = getIntInput(1, 8);
 
-            int choice = getIntInput(1, 5);
+            try {
+                switch (choice) {
+                    case 1:
+                        manageCropPrices();
+                        break;
+                    case 2:
+                        manageSubsidyData();
+                        break;
+                    case 3:
+                        viewAllUsers();
+                        break;
+                    case 4:
+                        manageApplications();
+                        break;
+                    case 5:
+                        viewRecommendationReport();
+                        break;
+                    case 6:
+                        exportData();
+                        break;
+                    case 7:
+                        showSystemMetrics();
+                        break;
+                    case 8:
+                        currentUser = null;
+                        out.println("\nLogged out successfully!");
+                        return;
+                }
+            } catch (UncheckedIOException e) {
+                reportNotSaved(e);
+            }
+        }
+    }
 
-            switch (choice) {
-                case 1:
-                    manageCropPrices();
-                    break;
-                case 2:
-                    manageSubsidyData();
-                    break;
-                case 3:
-                    viewAllUsers();
-                    break;
-                case 4:
-                    manageApplications();
-                    break;
-                case 5:
-                    currentUser = null;
-                    System.out.println("\nLogged out successfully!");
-                    return;
+    private void viewRecommendationReport() {
+        out.println("\n=== Crop Recommendation Report by Region ===");
+        long start = System.nanoTime();
+        Map<String, CropRecommender.RegionSummary> report = service.regionReport();
+        for (Map.Entry<String, CropRecommender.RegionSummary> entry : report.entrySet()) {
+            CropRecommender.RegionSummary region = entry.getValue();
+            out.printf("%n%s: %d farmers, %.1f acres%n", entry.getKey(), region.farmers, region.acres);
+            // Crops ranked first for the most land in the region
+            Integer[] order = new Integer[region.crops.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(region.topCropAcres[b], region.topCropAcres[a]));
+            for (int i = 0; i < Math.min(3, order.length) && region.topCropFarmers[order[i]] > 0; i++) {
+                int crop = order[i];
+                out.printf("   %-12s best for %d farmers (%.1f acres, %.0f%% of land)%n", region.crops[crop],
+                        region.topCropFarmers[crop], region.topCropAcres[crop],
+                        region.acres > 0 ? region.topCropAcres[crop] * 100 / region.acres : 0);
             }
         }
+        if (report.isEmpty()) {
+            out.println("No farmers have entered their land details yet.");
+        }
+        out.printf("%nReport computed in %.1f ms.%n", (System.nanoTime() - start) / 1e6);
+
+        out.println("\nPress Enter to continue...");
+        scanner.nextLine();
+    }
+
+    private void showSystemMetrics() {
+        out.println("\n=== System Metrics ===");
+        Runtime runtime = Runtime.getRuntime();
+        out.printf("Uptime: %d s   Users: %d   Heap used: %d MB of %d MB   Threads: %d%n",
+                ManagementFactory.getRuntimeMXBean().getUptime() / 1000, users.size(),
+                (runtime.totalMemory() - runtime.freeMemory()) >> 20, runtime.maxMemory() >> 20,
+                Thread.activeCount());
+        if (shards != null) {
+            out.printf("District shards loaded: %d of %d (%d farmers on disk or in memory)%n",
+                    shards.loadedShardCount(), shards.shardCount(), shards.userCount());
+        }
+        if (lazyUsers != null) {
+            out.println(lazyUsers.isResident() ? "Users on disk: all loaded for an all-farmer view"
+                    : "Users on disk: " + lazyUsers.cachedCount() + " cached of up to " + USER_CACHE_SIZE);
+        }
+        out.println("Farmers changed since the last snapshot checkpoint: " + userLog.dirtyUsers());
+        out.println("Armed price alerts: " + service.priceAlertCount());
+        out.println("Latencies in ms since startup (also under agri:type=Operation in JMX):");
+        out.printf("%-15s %10s %8s %9s %9s %9s %9s %9s%n",
+                "Operation", "Count", "Failed", "Mean", "p50", "p95", "p99", "Max");
+        for (OperationMetrics metrics : OperationMetrics.all()) {
+            out.printf("%-15s %10d %8d %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                    metrics.getName(), metrics.getCount(), metrics.getFailures(), metrics.getMeanMillis(),
+                    metrics.getP50Millis(), metrics.getP95Millis(), metrics.getP99Millis(), metrics.getMaxMillis());
+        }
+        out.println("\nPress Enter to continue...");
+        scanner.nextLine();
     }
 
-    private static void manageCropPrices() {
+    private void manageCropPrices() {
         while (true) {
-            System.out.println("\n=== Manage Crop Prices ===");
+            out.println("\n=== Manage Crop Prices ===");
             displayCropPrices();
 
-            System.out.println("\nOptions:");
-            System.out.println("1. Update Crop Price");
-            System.out.println("2. Add New Crop");
-            System.out.println("3. Remove Crop");
-            System.out.println("4. Back to Admin Menu");
-            System.out.print("Enter your choice: ");
+            out.println("\nOptions:");
+            out.println("1. Update Crop Price");
+            out.println("2. Add New Crop");
+            out.println("3. Remove Crop");
+            out.println("4. View Price History");
+            out.println("5. Import Price Feed");
+            out.println("6. Back to Admin Menu");
+            out.print("Enter your choice: ");
 
-            int choice = getIntInput(1, 4);
+            int choice = getIntInput(1, 6);
 
             switch (choice) {
                 case 1:
@@ -288,118 +660,170 @@ class AgricultureManagementSystem {
                     removeCrop();
                     break;
                 case 4:
+                    viewPriceHistory();
+                    break;
+                case 5:
+                    importPriceFeed();
+                    break;
+                case 6:
                     return;
             }
         }
     }
 
-    private static void updateCropPrice() {
-        System.out.println("\nSelect crop to update price:");
-        for (int i = 0; i < CROPS.length; i++) {
-            System.out.println((i + 1) + ". " + CROPS[i] + " (Current price: ₹" + PRICES[i] + ")");
+    private void updateCropPrice() {
+        CropCatalog catalog = CropCatalog.current();
+        out.println("\nSelect crop to update price:");
+        for (int i = 0; i < catalog.cropCount(); i++) {
+            out.println((i + 1) + ". " + catalog.crop(i) + " (Current price: ₹" + catalog.price(i) + ")");
         }
-        System.out.print("Enter crop number: ");
-        int cropNum = getIntInput(1, CROPS.length);
+        out.print("Enter crop number: ");
+        int cropNum = getIntInput(1, catalog.cropCount());
+        String crop = catalog.crop(cropNum - 1);
 
-        System.out.print("Enter new price for " + CROPS[cropNum - 1] + ": ");
-        double newPrice = scanner.nextDouble();
-        scanner.nextLine(); // consume newline
+        out.print("Enter new price for " + crop + ": ");
+        double newPrice = getDoubleInput(0);
 
-        PRICES[cropNum - 1] = newPrice;
-        System.out.println("Price updated successfully!");
+        boolean[] updated = new boolean[1];
+        updateCatalog(c -> updated[0] = c.setPrice(crop, newPrice));
+        if (updated[0]) {
+            priceHistory.record(crop, newPrice);
+        }
+        out.println(updated[0] ? "Price updated successfully!" : "Crop was removed by another admin.");
     }
 
-    private static void addNewCrop() {
-        System.out.print("\nEnter new crop name: ");
-        String newCrop = scanner.nextLine();
+    private void importPriceFeed() {
+        out.print("\nEnter feed file or directory (CSV or JSON lines): ");
+        String path = scanner.nextLine().trim();
+        try {
+            printFeedReport(PriceFeedIngester.ingest(Paths.get(path), priceHistory), out);
+        } catch (IOException | java.nio.file.InvalidPathException e) {
+            out.println("Error reading price feed: " + e.getMessage());
+        }
 
-        System.out.print("Enter price for " + newCrop + ": ");
-        double newPrice = scanner.nextDouble();
-        scanner.nextLine(); // consume newline
+        out.println("\nPress Enter to continue...");
+        scanner.nextLine();
+    }
 
-        // Add to crops array
-        String[] newCrops = new String[CROPS.length + 1];
-        System.arraycopy(CROPS, 0, newCrops, 0, CROPS.length);
-        newCrops[CROPS.length] = newCrop;
-        CROPS = newCrops;
+    private static void printFeedReport(PriceFeedIngester.Report report, PrintStream out) {
+        out.printf("Read %d row(s) in %.1f ms (%.0f rows/sec), %d batch(es).%n",
+                report.rows, report.elapsedNanos / 1_000_000.0, report.rowsPerSecond(), report.batches);
+        out.println("Accepted: " + report.accepted + "   Duplicates: " + report.duplicates
+                + "   Rejected: " + report.rejected);
+        if (!report.cropsAdded.isEmpty()) {
+            out.println("New crops: " + String.join(", ", report.cropsAdded));
+        }
+        for (String reject : report.rejects) {
+            out.println("  " + reject);
+        }
+        if (report.rejected > report.rejects.size()) {
+            out.println("  ... and " + (report.rejected - report.rejects.size()) + " more");
+        }
+    }
 
-        // Add to prices array
-        double[] newPrices = new double[PRICES.length + 1];
-        System.arraycopy(PRICES, 0, newPrices, 0, PRICES.length);
-        newPrices[PRICES.length] = newPrice;
-        PRICES = newPrices;
+    private void viewPriceHistory() {
+        CropCatalog catalog = CropCatalog.current();
+        out.println("\nSelect crop:");
+        for (int i = 0; i < catalog.cropCount(); i++) {
+            out.println((i + 1) + ". " + catalog.crop(i));
+        }
+        out.print("Enter crop number: ");
+        String crop = catalog.crop(getIntInput(1, catalog.cropCount()) - 1);
+        out.print("Number of days to show (1-365): ");
+        int days = getIntInput(1, 365);
+
+        long to = System.currentTimeMillis();
+        long from = to - days * DAY_MILLIS + 1;
+        CropPriceHistory.Stats stats = priceHistory.stats(crop, from, to);
+        out.println("\n=== " + crop + " prices, last " + days + " day(s) ===");
+        if (stats.count == 0) {
+            out.println("No price changes in this period.");
+        } else {
+            out.printf("Ticks: %d   Min: %.2f   Max: %.2f   Avg: %.2f   Last: %.2f%n",
+                    stats.count, stats.min, stats.max, stats.average(), stats.last);
+            // One average per day, oldest first
+            double[] daily = priceHistory.downsample(crop, from, to, days);
+            for (int d = 0; d < days; d++) {
+                if (!Double.isNaN(daily[d])) {
+                    out.printf("  %3d day(s) ago: %10.2f%n", days - 1 - d, daily[d]);
+                }
+            }
+        }
 
-        // Add default growing steps
-        String[][] newCropSteps = new String[CROP_STEPS.length + 1][];
-        System.arraycopy(CROP_STEPS, 0, newCropSteps, 0, CROP_STEPS.length);
-        newCropSteps[CROP_STEPS.length] = new String[]{newCrop + " Steps: 1. Default step 1. 2. Default step 2. 3. Default step 3."};
-        CROP_STEPS = newCropSteps;
+        out.println("\nPress Enter to continue...");
+        scanner.nextLine();
+    }
+
+    private void addNewCrop() {
+        out.print("\nEnter new crop name: ");
+        String newCrop = scanner.nextLine();
+
+        out.print("Enter price for " + newCrop + ": ");
+        double newPrice = getDoubleInput(0);
+
+        // Add crop, price and default growing steps in one update
+        updateCatalog(c -> c.addCrop(newCrop, newPrice, defaultCropSteps(newCrop)));
+        priceHistory.record(newCrop, newPrice);
 
-        System.out.println("New crop added successfully!");
+        out.println("New crop added successfully!");
     }
 
-    private static void removeCrop() {
-        System.out.println("\nSelect crop to remove:");
-        for (int i = 0; i < CROPS.length; i++) {
-            System.out.println((i + 1) + ". " + CROPS[i]);
+    private void removeCrop() {
+        CropCatalog catalog = CropCatalog.current();
+        out.println("\nSelect crop to remove:");
+        for (int i = 0; i < catalog.cropCount(); i++) {
+            out.println((i + 1) + ". " + catalog.crop(i));
         }
-        System.out.print("Enter crop number: ");
-        int cropNum = getIntInput(1, CROPS.length);
+        out.print("Enter crop number: ");
+        int cropNum = getIntInput(1, catalog.cropCount());
+        String crop = catalog.crop(cropNum - 1);
 
         // Confirm deletion
-        System.out.print("Are you sure you want to remove " + CROPS[cropNum - 1] + "? (yes/no): ");
+        out.print("Are you sure you want to remove " + crop + "? (yes/no): ");
         String confirm = scanner.nextLine();
 
         if (confirm.equalsIgnoreCase("yes")) {
-            // Remove from crops array
-            String[] newCrops = new String[CROPS.length - 1];
-            for (int i = 0, j = 0; i < CROPS.length; i++) {
-                if (i != cropNum - 1) {
-                    newCrops[j++] = CROPS[i];
-                }
-            }
-            CROPS = newCrops;
-
-            // Remove from prices array
-            double[] newPrices = new double[PRICES.length - 1];
-            for (int i = 0, j = 0; i < PRICES.length; i++) {
-                if (i != cropNum - 1) {
-                    newPrices[j++] = PRICES[i];
-                }
-            }
-            PRICES = newPrices;
-
-            // Remove from crop steps
-            String[][] newCropSteps = new String[CROP_STEPS.length - 1][];
-            for (int i = 0, j = 0; i < CROP_STEPS.length; i++) {
-                if (i != cropNum - 1) {
-                    newCropSteps[j++] = CROP_STEPS[i];
-                }
-            }
-            CROP_STEPS = newCropSteps;
-
-            System.out.println("Crop removed successfully!");
+            // Crop, price and steps go together
+            boolean[] removed = new boolean[1];
+            updateCatalog(c -> removed[0] = c.removeCrop(crop));
+            out.println(removed[0] ? "Crop removed successfully!" : "Crop was already removed by another admin.");
         } else {
-            System.out.println("Operation cancelled.");
+            out.println("Operation cancelled.");
         }
     }
 
-    private static void manageSubsidyData() {
+    static String defaultCropSteps(String crop) {
+        return crop + " Steps: 1. Default step 1. 2. Default step 2. 3. Default step 3.";
+    }
+
+    // Publishes a batch of catalog changes; the flusher saves the new version and any price alerts
+    // the new prices reach fire
+    static void updateCatalog(Consumer<CropCatalog.Builder> changes) {
+        long start = System.nanoTime();
+        CropCatalog published = CropCatalog.update(changes);
+        flusher.wakeUp();
+        OperationMetrics.CATALOG_UPDATE.record(start);
+        service.checkPriceAlerts(published);
+    }
+
+    private void manageSubsidyData() {
         while (true) {
-            System.out.println("\n=== Manage Subsidies ===");
-            System.out.println("Current Subsidies:");
-            for (int i = 0; i < SUBSIDIES.length; i++) {
-                System.out.println((i + 1) + ". " + SUBSIDIES[i]);
+            CropCatalog catalog = CropCatalog.current();
+            out.println("\n=== Manage Subsidies ===");
+            out.println("Current Subsidies:");
+            for (int i = 0; i < catalog.subsidyCount(); i++) {
+                out.println((i + 1) + ". " + catalog.subsidy(i));
             }
 
-            System.out.println("\nOptions:");
-            System.out.println("1. Update Subsidy");
-            System.out.println("2. Add New Subsidy");
-            System.out.println("3. Remove Subsidy");
-            System.out.println("4. Back to Admin Menu");
-            System.out.print("Enter your choice: ");
+            out.println("\nOptions:");
+            out.println("1. Update Subsidy");
+            out.println("2. Add New Subsidy");
+            out.println("3. Remove Subsidy");
+            out.println("4. Budgets and District Quotas");
+            out.println("5. Back to Admin Menu");
+            out.print("Enter your choice: ");
 
-            int choice = getIntInput(1, 4);
+            int choice = getIntInput(1, 5);
 
             switch (choice) {
                 case 1:
@@ -412,293 +836,622 @@ class AgricultureManagementSystem {
                     removeSubsidy();
                     break;
                 case 4:
+                    manageBudgets();
+                    break;
+                case 5:
                     return;
             }
         }
     }
 
-    private static void updateSubsidy() {
-        System.out.println("\nSelect subsidy to update:");
-        for (int i = 0; i < SUBSIDIES.length; i++) {
-            System.out.println((i + 1) + ". " + SUBSIDIES[i]);
+    private void updateSubsidy() {
+        CropCatalog catalog = CropCatalog.current();
+        out.println("\nSelect subsidy to update:");
+        for (int i = 0; i < catalog.subsidyCount(); i++) {
+            out.println((i + 1) + ". " + catalog.subsidy(i));
         }
-        System.out.print("Enter subsidy number: ");
-        int subNum = getIntInput(1, SUBSIDIES.length);
+        out.print("Enter subsidy number: ");
+        int subNum = getIntInput(1, catalog.subsidyCount());
+        int subsidyId = catalog.subsidyId(subNum - 1);
 
-        System.out.println("Current subsidy: " + SUBSIDIES[subNum - 1]);
-        System.out.println("Current details: " + SUBSIDY_DETAILS[subNum - 1]);
+        out.println("Current subsidy: " + catalog.subsidy(subNum - 1));
+        out.println("Current details: " + catalog.subsidyDetails(subNum - 1));
 
-        System.out.print("\nEnter new subsidy description: ");
+        out.print("\nEnter new subsidy description: ");
         String newSub = scanner.nextLine();
-        System.out.print("Enter new subsidy details: ");
+        out.print("Enter new subsidy details: ");
         String newDetails = scanner.nextLine();
 
-        SUBSIDIES[subNum - 1] = newSub;
-        SUBSIDY_DETAILS[subNum - 1] = newDetails;
+        boolean[] updated = new boolean[1];
+        updateCatalog(c -> updated[0] = c.setSubsidy(subsidyId, newSub, newDetails));
 
-        System.out.println("Subsidy updated successfully!");
+        out.println(updated[0] ? "Subsidy updated successfully!" : "Subsidy was removed by another admin.");
     }
 
-    private static void addNewSubsidy() {
-        System.out.print("\nEnter new subsidy description: ");
+    private void manageBudgets() {
+        while (true) {
+            List<AgricultureService.BudgetSummary> summary = service.budgetSummary();
+            out.println("\n=== Subsidy Budgets and District Quotas ===");
+            for (AgricultureService.BudgetSummary row : summary) {
+                printBudget(row);
+            }
+
+            out.println("\nOptions:");
+            out.println("1. Set Budget");
+            out.println("2. Set District Quota");
+            out.println("3. Refresh");
+            out.println("4. Back");
+            out.print("Enter your choice: ");
+
+            int choice = getIntInput(1, 4);
+            if (choice == 4) {
+                return;
+            }
+            if (choice == 3 || summary.isEmpty()) {
+                continue;
+            }
+            out.print("Enter subsidy number: ");
+            int subsidyId = summary.get(getIntInput(1, summary.size()) - 1).subsidy.id;
+            boolean updated;
+            if (choice == 1) {
+                out.print("Amount paid per approved farmer (₹): ");
+                long amount = getLongInput(0);
+                out.print("Total budget (₹, 0 for no limit): ");
+                long budget = getLongInput(0);
+                boolean[] set = new boolean[1];
+                updateCatalog(c -> set[0] = c.setSubsidyBudget(subsidyId, amount, budget));
+                updated = set[0];
+            } else {
+                out.print("District (location): ");
+                String location = scanner.nextLine();
+                out.print("Approvals allowed in " + location.trim() + " (-1 to remove the quota): ");
+                int quota = getIntInput(-1, Integer.MAX_VALUE);
+                boolean[] set = new boolean[1];
+                updateCatalog(c -> set[0] = c.setSubsidyQuota(subsidyId, location, quota));
+                updated = set[0];
+            }
+            // Approvals already made stand; a lower limit only holds back new ones
+            out.println(updated ? "Limits updated." : "Not updated: the subsidy was removed, or the values are invalid.");
+        }
+    }
+
+    private void printBudget(AgricultureService.BudgetSummary row) {
+        CropCatalog.Subsidy subsidy = row.subsidy;
+        out.println(row.position + ". " + subsidy.description);
+        String approved = String.format("   Approved: %,d", row.approved);
+        if (subsidy.budget > 0) {
+            long spent = row.approved * subsidy.amount;
+            out.printf("%s   Budget: ₹%,d of ₹%,d (%.1f%%), room for %,d more%n", approved, spent, subsidy.budget,
+                    spent * 100.0 / subsidy.budget, Math.max(0, subsidy.approvalLimit() - row.approved));
+        } else if (subsidy.amount > 0) {
+            out.printf("%s   Paid: ₹%,d   No budget limit%n", approved, row.approved * subsidy.amount);
+        } else {
+            out.println(approved + "   No budget limit");
+        }
+        for (int q = 0; q < subsidy.quotas.length; q++) {
+            int quota = subsidy.quotas[q];
+            out.printf("     %-20s %,d of %,d%s%n", subsidy.quotaLocations[q], row.approvedByQuota[q], quota,
+                    quota == 0 ? "" : String.format(" (%.1f%%)", row.approvedByQuota[q] * 100.0 / quota));
+        }
+    }
+
+    private void addNewSubsidy() {
+        out.print("\nEnter new subsidy description: ");
         String newSub = scanner.nextLine();
 
-        System.out.print("Enter subsidy details: ");
+        out.print("Enter subsidy details: ");
         String newDetails = scanner.nextLine();
 
-        // Add to subsidies array
-        String[] newSubs = new String[SUBSIDIES.length + 1];
-        System.arraycopy(SUBSIDIES, 0, newSubs, 0, SUBSIDIES.length);
-        newSubs[SUBSIDIES.length] = newSub;
-        SUBSIDIES = newSubs;
-
-        // Add to details array
-        String[] newDetailsArr = new String[SUBSIDY_DETAILS.length + 1];
-        System.arraycopy(SUBSIDY_DETAILS, 0, newDetailsArr, 0, SUBSIDY_DETAILS.length);
-        newDetailsArr[SUBSIDY_DETAILS.length] = newDetails;
-        SUBSIDY_DETAILS = newDetailsArr;
+        updateCatalog(c -> c.addSubsidy(newSub, newDetails));
 
-        System.out.println("New subsidy added successfully!");
+        out.println("New subsidy added successfully!");
     }
 
-    private static void removeSubsidy() {
-        System.out.println("\nSelect subsidy to remove:");
-        for (int i = 0; i < SUBSIDIES.length; i++) {
-            System.out.println((i + 1) + ". " + SUBSIDIES[i]);
+    private void removeSubsidy() {
+        CropCatalog catalog = CropCatalog.current();
+        out.println("\nSelect subsidy to remove:");
+        for (int i = 0; i < catalog.subsidyCount(); i++) {
+            out.println((i + 1) + ". " + catalog.subsidy(i));
         }
-        System.out.print("Enter subsidy number: ");
-        int subNum = getIntInput(1, SUBSIDIES.length);
+        out.print("Enter subsidy number: ");
+        int subsidyId = catalog.subsidyId(getIntInput(1, catalog.subsidyCount()) - 1);
 
         // Confirm deletion
-        System.out.print("Are you sure you want to remove this subsidy? (yes/no): ");
+        out.print("Are you sure you want to remove this subsidy? (yes/no): ");
         String confirm = scanner.nextLine();
 
         if (confirm.equalsIgnoreCase("yes")) {
-            // Remove from subsidies array
-            String[] newSubs = new String[SUBSIDIES.length - 1];
-            for (int i = 0, j = 0; i < SUBSIDIES.length; i++) {
-                if (i != subNum - 1) {
-                    newSubs[j++] = SUBSIDIES[i];
-                }
-            }
-            SUBSIDIES = newSubs;
-
-            // Remove from details array
-            String[] newDetails = new String[SUBSIDY_DETAILS.length - 1];
-            for (int i = 0, j = 0; i < SUBSIDY_DETAILS.length; i++) {
-                if (i != subNum - 1) {
-                    newDetails[j++] = SUBSIDY_DETAILS[i];
-                }
-            }
-            SUBSIDY_DETAILS = newDetails;
-
-            // Remove from all users' applications
-            for (User user : users.values()) {
-                List<Integer> apps = user.getSubsidyApplications();
-                for (int i = 0; i < apps.size(); i++) {
-                    if (apps.get(i) == subNum) {
-                        apps.remove(i);
-                        i--;
-                    } else if (apps.get(i) > subNum) {
-                        apps.set(i, apps.get(i) - 1);
-                    }
-                }
+            // Tombstone the id; other subsidies keep their ids and users are swept in the background
+            if (service.removeSubsidy(subsidyId)) {
+                flusher.wakeUp();
+                out.println("Subsidy removed successfully!");
+            } else {
+                out.println("Subsidy was already removed by another admin.");
             }
-
-            System.out.println("Subsidy removed successfully!");
         } else {
-            System.out.println("Operation cancelled.");
+            out.println("Operation cancelled.");
+        }
+    }
+
+    // Only for replaying logs written before subsidies had stable ids
+    static void removeSubsidyFromUsers(Iterable<User> allUsers, int subNum) {
+        for (User user : allUsers) {
+            user.removeSubsidy(subNum);
         }
     }
 
-    private static void viewAllUsers() {
-        System.out.println("\n=== All Registered Users ===");
- 
-        for (User user : users.values()) {
-            if (!user.isAdmin()) {
-                System.out.printf("%-15s %-20s %-10.2f %-15s %-15s%n",
+    private void viewAllUsers() {
+        out.println("\n=== All Registered Users ===");
+        // Filters are answered from the farmer index, a page at a time
+        FarmerIndex.Query query = readFarmerQuery();
+
+        FarmerIndex.Cursor cursor = null;
+        do {
+            FarmerIndex.Page page = service.findFarmers(query, cursor, USERS_PAGE_SIZE);
+            if (cursor == null) {
+                out.println("\nMatching farmers: " + page.total);
+            }
+            for (User user : page.users) {
+                out.printf("%-15s %-20s %-10.2f %-15s %-15s%n",
                         user.getUsername(),
                         user.getFullName(),
                         user.getLandSize(),
                         user.getLocation(),
                         user.getSoilType());
             }
-        }
+            cursor = page.next;
+            if (cursor != null) {
+                out.print("Press Enter for more, or type q to stop: ");
+                if (scanner.nextLine().equalsIgnoreCase("q")) {
+                    return;
+                }
+            }
+        } while (cursor != null);
 
-        System.out.println("\nPress Enter to continue...");
+        out.println("\nPress Enter to continue...");
         scanner.nextLine();
     }
 
-    private static void manageApplications() {
+    private void exportData() {
+        out.println("\n=== Export Data ===");
+        out.println("1. Farmers");
+        out.println("2. Subsidy Applications");
+        out.println("3. Back to Admin Menu");
+        out.print("Enter your choice: ");
+        int choice = getIntInput(1, 3);
+        if (choice == 3) {
+            return;
+        }
+
+        FarmerIndex.Query query = null;
+        DataExporter.ApplicationFilter filter = new DataExporter.ApplicationFilter();
+        if (choice == 1) {
+            query = readFarmerQuery();
+        } else {
+            CropCatalog catalog = CropCatalog.current();
+            out.println("Subsidy:");
+            out.println("0. All subsidies");
+            for (int i = 0; i < catalog.subsidyCount(); i++) {
+                out.println((i + 1) + ". " + catalog.subsidy(i));
+            }
+            out.print("Enter subsidy number: ");
+            int subNum = getIntInput(0, catalog.subsidyCount());
+            filter.subsidyId = subNum == 0 ? null : catalog.subsidyId(subNum - 1);
+            out.println("Status: 1. All  2. Pending  3. Approved");
+            out.print("Enter your choice: ");
+            int status = getIntInput(1, 3);
+            filter.status = status == 1 ? null : SubsidyApplicationIndex.Status.values()[status - 2];
+        }
+
+        String defaultFile = choice == 1 ? "farmers.csv" : "applications.csv";
+        out.print("File (.csv or .jsonl, add .gz to compress) [" + defaultFile + "]: ");
+        String file = blankToNull(scanner.nextLine());
+        try {
+            DataExporter.Report report = choice == 1
+                    ? service.exportUsers(query, Paths.get(file == null ? defaultFile : file))
+                    : service.exportApplications(filter, Paths.get(file == null ? defaultFile : file));
+            printExportReport(report, file == null ? defaultFile : file, out);
+        } catch (IOException e) {
+            out.println("Error exporting data: " + e.getMessage());
+        }
+    }
+
+    // Filters: location, soil, minLand, maxLand, sort=registration|land|land-desc for users;
+    // subsidy=<id>, status=pending|approved for applications
+    private static boolean exportFromCommandLine(String[] args) {
+        FarmerIndex.Query query = new FarmerIndex.Query();
+        DataExporter.ApplicationFilter filter = new DataExporter.ApplicationFilter();
+        try {
+            for (int i = 3; i < args.length; i++) {
+                String[] pair = args[i].split("=", 2);
+                String value = pair.length == 2 ? pair[1] : "";
+                switch (pair[0]) {
+                    case "location":
+                        query.location = value;
+                        break;
+                    case "soil":
+                        query.soilType = value;
+                        break;
+                    case "minLand":
+                        query.minLandSize = Double.parseDouble(value);
+                        break;
+                    case "maxLand":
+                        query.maxLandSize = Double.parseDouble(value);
+                        break;
+                    case "sort":
+                        query.sort = value.equals("land") ? FarmerIndex.Sort.LAND_ASCENDING
+                                : value.equals("land-desc") ? FarmerIndex.Sort.LAND_DESCENDING
+                                : FarmerIndex.Sort.REGISTRATION;
+                        break;
+                    case "subsidy":
+                        filter.subsidyId = Integer.parseInt(value);
+                        break;
+                    case "status":
+                        filter.status = SubsidyApplicationIndex.Status.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown filter '" + pair[0] + "'");
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid export filter: " + e.getMessage());
+            return false;
+        }
+
+        try {
+            DataExporter.Report report;
+            if (args[1].equals("users")) {
+                report = service.exportUsers(query, Paths.get(args[2]));
+            } else if (args[1].equals("applications")) {
+                report = service.exportApplications(filter, Paths.get(args[2]));
+            } else {
+                System.out.println("Export users or applications, not '" + args[1] + "'.");
+                return false;
+            }
+            printExportReport(report, args[2], System.out);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error exporting data: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void printExportReport(DataExporter.Report report, String file, PrintStream out) {
+        out.printf("Exported %d row(s) to %s (%.1f KB) in %.1f ms.%n",
+                report.rows, file, report.bytes / 1024.0, report.elapsedNanos / 1e6);
+    }
+
+    // Prompts for the same filters as View All Users
+    private FarmerIndex.Query readFarmerQuery() {
+        out.println("Leave a filter blank to match everyone.");
+        FarmerIndex.Query query = new FarmerIndex.Query();
+        out.print("Location: ");
+        query.location = blankToNull(scanner.nextLine());
+        out.print("Soil type: ");
+        query.soilType = blankToNull(scanner.nextLine());
+        out.print("Minimum land size (acres): ");
+        query.minLandSize = getOptionalDouble();
+        out.print("Maximum land size (acres): ");
+        query.maxLandSize = getOptionalDouble();
+        out.println("Sort by: 1. Registration  2. Land size (smallest first)  3. Land size (largest first)");
+        out.print("Enter your choice: ");
+        query.sort = FarmerIndex.Sort.values()[getIntInput(1, 3) - 1];
+        return query;
+    }
+
+    private static String blankToNull(String value) {
+        return value.trim().isEmpty() ? null : value.trim();
+    }
+
+    // A number, or NaN if left blank
+    private double getOptionalDouble() {
         while (true) {
-            System.out.println("\n=== Manage Subsidy Applications ===");
-            System.out.println("1. View All Applications");
-            System.out.println("2. Update Application Status");
-            System.out.println("3. Back to Admin Menu");
-            System.out.print("Enter your choice: ");
+            String line = scanner.nextLine().trim();
+            if (line.isEmpty()) {
+                return Double.NaN;
+            }
+            try {
+                return Double.parseDouble(line);
+            } catch (NumberFormatException e) {
+                out.print("Please enter a number or leave blank: ");
+            }
+        }
+    }
 
-            int choice = getIntInput(1, 3);
+    private void manageApplications() {
+        while (true) {
+            out.println("\n=== Manage Subsidy Applications ===");
+            out.println("1. View All Applications");
+            out.println("2. View Applicants for a Subsidy");
+            out.println("3. Update Application Status");
+            out.println("4. Bulk Approve by Rules");
+            out.println("5. Back to Admin Menu");
+            out.print("Enter your choice: ");
+
+            int choice = getIntInput(1, 5);
 
             switch (choice) {
                 case 1:
                     viewAllApplications();
                     break;
                 case 2:
-                    updateApplicationStatus();
+                    viewSubsidyApplicants();
                     break;
                 case 3:
+                    updateApplicationStatus();
+                    break;
+                case 4:
+                    bulkApprove();
+                    break;
+                case 5:
                     return;
             }
         }
     }
 
-    private static void viewAllApplications() {
-        System.out.println("\n=== All Subsidy Applications ===");
-        boolean found = false;
+    private void viewAllApplications() {
+        out.println("\n=== All Subsidy Applications ===");
+        // Counts come straight from the application index
+        List<AgricultureService.SubsidySummary> summary = service.applicationSummary();
+        for (AgricultureService.SubsidySummary subsidy : summary) {
+            out.println("\n" + subsidy.position + ". " + subsidy.description);
+            out.println("   Pending: " + subsidy.pending + "   Approved: " + subsidy.approved);
+        }
 
-        for (User user : users.values()) {
-            if (!user.isAdmin() && !user.getSubsidyApplications().isEmpty()) {
-                found = true;
-                System.out.println("\nUser: " + user.getUsername() + " (" + user.getFullName() + ")");
-                System.out.println("Land Size: " + user.getLandSize() + " acres");
-                System.out.println("Location: " + user.getLocation());
-                System.out.println("Applications:");
+        if (summary.isEmpty()) {
+            out.println("No applications found.");
+        }
 
-                for (int appNum : user.getSubsidyApplications()) {
-                    System.out.println("- " + SUBSIDIES[appNum - 1]);
-                    System.out.println("  Status: " + (user.getApprovedSubsidies().contains(appNum) ? "Approved" : "Pending"));
+        out.println("\nPress Enter to continue...");
+        scanner.nextLine();
+    }
+
+    private void viewSubsidyApplicants() {
+        CropCatalog catalog = CropCatalog.current();
+        out.println("\nSelect subsidy:");
+        for (int i = 0; i < catalog.subsidyCount(); i++) {
+            out.println((i + 1) + ". " + catalog.subsidy(i));
+        }
+        out.print("Enter subsidy number: ");
+        int subNum = getIntInput(1, catalog.subsidyCount());
+        int subsidyId = catalog.subsidyId(subNum - 1);
+
+        out.println("1. Pending Applications");
+        out.println("2. Approved Applications");
+        out.print("Enter your choice: ");
+        SubsidyApplicationIndex.Status status = getIntInput(1, 2) == 1
+                ? SubsidyApplicationIndex.Status.PENDING
+                : SubsidyApplicationIndex.Status.APPROVED;
+
+        out.println("\n=== " + (status == SubsidyApplicationIndex.Status.PENDING ? "Pending" : "Approved")
+                + " applications for " + catalog.subsidy(subNum - 1) + " ===");
+        out.println("Total: " + service.applicantCount(subsidyId, status));
+
+        int cursor = -1;
+        do {
+            SubsidyApplicationIndex.Page page = service.applicants(subsidyId, status, cursor, APPLICANTS_PAGE_SIZE);
+            for (User user : page.users) {
+                out.printf("%-15s %-20s %-10.2f %-15s%n",
+                        user.getUsername(),
+                        user.getFullName(),
+                        user.getLandSize(),
+                        user.getLocation());
+            }
+            cursor = page.nextCursor;
+            if (cursor >= 0) {
+                out.print("Press Enter for more, or type q to stop: ");
+                if (scanner.nextLine().equalsIgnoreCase("q")) {
+                    return;
                 }
             }
+        } while (cursor >= 0);
+
+        out.println("\nPress Enter to continue...");
+        scanner.nextLine();
+    }
+
+    private void bulkApprove() {
+        CropCatalog catalog = CropCatalog.current();
+        out.println("\nSelect subsidy:");
+        for (int i = 0; i < catalog.subsidyCount(); i++) {
+            out.println((i + 1) + ". " + catalog.subsidy(i) + " (pending: "
+                    + service.applicantCount(catalog.subsidyId(i), SubsidyApplicationIndex.Status.PENDING) + ")");
+        }
+        out.print("Enter subsidy number: ");
+        int subNum = getIntInput(1, catalog.subsidyCount());
+        int subsidyId = catalog.subsidyId(subNum - 1);
+
+        out.println("\nConditions on landSize (<, <=, >, >=, =, !=), location and soilType (=, !=, in, not in),");
+        out.println("joined by 'and', e.g.: landSize <= 5 and location in Pune, Nashik and soilType = Black");
+        ApprovalRule rule = null;
+        while (rule == null) {
+            out.print("Rule: ");
+            try {
+                rule = ApprovalRule.parse(scanner.nextLine());
+            } catch (IllegalArgumentException e) {
+                out.println("Invalid rule: " + e.getMessage());
+            }
         }
 
-        if (!found) {
-            System.out.println("No applications found.");
+        // Dry run first; nothing changes until the admin confirms
+        BulkApproval.Plan plan = service.planBulkApproval(subsidyId, rule);
+        out.println("\n=== Dry run: " + catalog.subsidy(subNum - 1) + " ===");
+        out.println("Rule: " + rule);
+        out.printf("Pending applications checked: %d in %.1f ms%n", plan.scanned, plan.elapsedNanos / 1e6);
+        out.println("Would approve: " + plan.matches.length);
+        for (int i = 0; i < rule.conditionCount(); i++) {
+            out.println("  Not met '" + rule.condition(i) + "': " + plan.failedBy[i]);
+        }
+        if (plan.notPending > 0) {
+            out.println("  No longer pending: " + plan.notPending);
+        }
+        for (int i = 0; i < Math.min(plan.matches.length, APPLICANTS_PAGE_SIZE); i++) {
+            User user = users.byOrdinal(plan.matches[i]);
+            out.printf("  %-15s %-20s %-10.2f %-15s %-15s%n", user.getUsername(), user.getFullName(),
+                    user.getLandSize(), user.getLocation(), user.getSoilType());
+        }
+        if (plan.matches.length > APPLICANTS_PAGE_SIZE) {
+            out.println("  ... and " + (plan.matches.length - APPLICANTS_PAGE_SIZE) + " more");
+        }
+        if (plan.matches.length == 0) {
+            return;
         }
 
-        System.out.println("\nPress Enter to continue...");
-        scanner.nextLine();
+        out.print("\nApprove these " + plan.matches.length + " applications? (yes/no): ");
+        if (!scanner.nextLine().equalsIgnoreCase("yes")) {
+            out.println("Operation cancelled.");
+            return;
+        }
+        BulkApproval.Result result = service.applyBulkApproval(plan, done ->
+                out.printf("  %d of %d processed%n", done, plan.matches.length));
+        if (result.subsidyRemoved) {
+            out.println("The subsidy was removed by another admin; stopped early.");
+        }
+        out.printf("Approved %d application(s) in %.1f ms; %d skipped as no longer pending or matching.%n",
+                result.approved, result.elapsedNanos / 1e6, result.skipped);
+        if (result.overBudget + result.overQuota > 0) {
+            out.printf("Left pending: %d over the subsidy's budget, %d over a district quota.%n",
+                    result.overBudget, result.overQuota);
+        }
     }
 
-    private static void updateApplicationStatus() {
-        System.out.print("\nEnter username to manage applications: ");
+    private void updateApplicationStatus() {
+        out.print("\nEnter username to manage applications: ");
         String username = scanner.nextLine();
 
-        if (!users.containsKey(username) || users.get(username).isAdmin()) {
-            System.out.println("User not found or is an admin!");
+        User user = service.findUser(username);
+        if (user == null || user.isAdmin()) {
+            out.println("User not found or is an admin!");
             return;
         }
 
-        User user = users.get(username);
-        if (user.getSubsidyApplications().isEmpty()) {
-            System.out.println("This user has no applications.");
+        // Applications for removed subsidies are hidden until the sweep clears them
+        CropCatalog catalog = CropCatalog.current();
+        List<Integer> apps = user.getSubsidyApplications();
+        apps.removeIf(id -> !catalog.isActiveSubsidy(id));
+        if (apps.isEmpty()) {
+            out.println("This user has no applications.");
             return;
         }
 
-        System.out.println("\nApplications for " + username + ":");
-        List<Integer> apps = user.getSubsidyApplications();
+        out.println("\nApplications for " + username + ":");
         for (int i = 0; i < apps.size(); i++) {
-            System.out.println((i + 1) + ". " + SUBSIDIES[apps.get(i) - 1]);
-            System.out.println("   Status: " + (user.getApprovedSubsidies().contains(apps.get(i)) ? "Approved" : "Pending"));
+            out.println((i + 1) + ". " + catalog.subsidyById(apps.get(i)));
+            out.println("   Status: " + (user.isSubsidyApproved(apps.get(i)) ? "Approved" : "Pending"));
         }
 
-        System.out.print("Select application to update (1-" + apps.size() + "): ");
+        out.print("Select application to update (1-" + apps.size() + "): ");
         int appIndex = getIntInput(1, apps.size());
         int appNum = apps.get(appIndex - 1);
 
-        System.out.println("\nSelected application: " + SUBSIDIES[appNum - 1]);
-        System.out.println("Current status: " + (user.getApprovedSubsidies().contains(appNum) ? "Approved" : "Pending"));
+        out.println("\nSelected application: " + catalog.subsidyById(appNum));
+        out.println("Current status: " + (user.isSubsidyApproved(appNum) ? "Approved" : "Pending"));
 
-        System.out.println("\nOptions:");
-        System.out.println("1. Approve Application");
-        System.out.println("2. Reject Application");
-        System.out.println("3. Cancel");
-        System.out.print("Enter your choice: ");
+        out.println("\nOptions:");
+        out.println("1. Approve Application");
+        out.println("2. Reject Application");
+        out.println("3. Cancel");
+        out.print("Enter your choice: ");
 
         int choice = getIntInput(1, 3);
 
         switch (choice) {
             case 1:
-                if (!user.getApprovedSubsidies().contains(appNum)) {
-                    user.getApprovedSubsidies().add(appNum);
-                    System.out.println("Application approved!");
-                } else {
-                    System.out.println("Application is already approved.");
+                switch (service.approveSubsidy(user, appNum)) {
+                    case APPROVED:
+                        out.println("Application approved!");
+                        break;
+                    case ALREADY_APPROVED:
+                        out.println("Application is already approved.");
+                        break;
+                    case OVER_BUDGET:
+                        out.println("The subsidy's budget is used up; the application stays pending.");
+                        break;
+                    case OVER_QUOTA:
+                        out.println("The quota for " + user.getLocation() + " is used up; the application stays pending.");
+                        break;
                 }
                 break;
             case 2:
-                if (user.getApprovedSubsidies().contains(appNum)) {
-                    user.getApprovedSubsidies().remove((Integer) appNum);
-                    System.out.println("Application rejected!");
+                if (service.rejectSubsidy(user, appNum)) {
+                    out.println("Application rejected!");
                 } else {
-                    System.out.println("Application is already pending.");
+                    out.println("Application is already pending.");
                 }
                 break;
             case 3:
-                System.out.println("Operation cancelled.");
+                out.println("Operation cancelled.");
                 break;
         }
     }
 
-    private static void manageLandDetails() {
-        System.out.println("\n=== Land Details ===");
+    private void manageLandDetails() {
+        out.println("\n=== Land Details ===");
         if (currentUser.getLandSize() == 0) {
-            System.out.println("No land details entered yet.");
+            out.println("No land details entered yet.");
         } else {
-            System.out.println("Current Land Details:");
-            System.out.println("Size: " + currentUser.getLandSize() + " acres");
-            System.out.println("Location: " + currentUser.getLocation());
-            System.out.println("Soil Type: " + currentUser.getSoilType());
+            out.println("Current Land Details:");
+            out.println("Size: " + currentUser.getLandSize() + " acres");
+            out.println("Location: " + currentUser.getLocation());
+            out.println("Soil Type: " + currentUser.getSoilType());
         }
 
-        System.out.println("\nOptions:");
-        System.out.println("1. Enter/Update Land Details");
-        System.out.println("2. Back to Main Menu");
-        System.out.print("Enter your choice: ");
+        out.println("\nOptions:");
+        out.println("1. Enter/Update Land Details");
+        out.println("2. Back to Main Menu");
+        out.print("Enter your choice: ");
 
         int choice = getIntInput(1, 2);
 
         if (choice == 1) {
-            System.out.print("\nEnter land size (in acres): ");
-            double landSize = scanner.nextDouble();
-            scanner.nextLine(); // consume newline
-            System.out.print("Enter location: ");
+            out.print("\nEnter land size (in acres): ");
+            double landSize = getDoubleInput(0);
+            out.print("Enter location: ");
             String location = scanner.nextLine();
-            System.out.print("Enter soil type: ");
+            out.print("Enter soil type: ");
             String soilType = scanner.nextLine();
 
-            currentUser.setLandDetails(landSize, location, soilType);
-            System.out.println("\nLand details saved successfully!");
+            service.setLandDetails(currentUser, landSize, location, soilType);
+            out.println("\nLand details saved successfully!");
         }
     }
 
-    private static void displayCropPrices() {
-        System.out.println("\n=== Current Crop Prices (per quintal) ===");
-        System.out.println("+--------+------------+");
-        System.out.println("| Crop   | Price (₹) |");
-        System.out.println("+--------+------------+");
-        for (int i = 0; i < CROPS.length; i++) {
-            System.out.printf("| %-6s | %10.2f |\n", CROPS[i], PRICES[i]);
+    private void displayCropPrices() {
+        out.println("\n=== Current Crop Prices (per quintal) ===");
+        out.println("+--------+------------+-------------+");
+        out.println("| Crop   | Price (₹) | 24h change  |");
+        out.println("+--------+------------+-------------+");
+        CropCatalog catalog = CropCatalog.current();
+        long dayAgo = System.currentTimeMillis() - DAY_MILLIS;
+        for (int i = 0; i < catalog.cropCount(); i++) {
+            // Day-over-day change against the last price recorded a day ago
+            double previous = priceHistory.priceAt(catalog.crop(i), dayAgo);
+            String change = Double.isNaN(previous) || previous == 0
+                    ? "-"
+                    : String.format("%+.2f%%", (catalog.price(i) - previous) * 100 / previous);
+            out.printf("| %-6s | %10.2f | %11s |\n", catalog.crop(i), catalog.price(i), change);
         }
-        System.out.println("+--------+------------+");
+        out.println("+--------+------------+-------------+");
 
-        System.out.println("\nPress Enter to continue...");
+        out.println("\nPress Enter to continue...");
         scanner.nextLine();
     }
 
-    private static void manageSubsidies() {
+    private void manageSubsidies() {
         while (true) {
-            System.out.println("\n=== Government Subsidies ===");
-            System.out.println("Available Subsidies:");
-            for (int i = 0; i < SUBSIDIES.length; i++) {
-                System.out.println((i + 1) + ". " + SUBSIDIES[i]);
+            CropCatalog catalog = CropCatalog.current();
+            out.println("\n=== Government Subsidies ===");
+            out.println("Available Subsidies:");
+            for (int i = 0; i < catalog.subsidyCount(); i++) {
+                out.println((i + 1) + ". " + catalog.subsidy(i));
             }
 
-            System.out.println("\nOptions:");
-            System.out.println("1. View Subsidy Details");
-            System.out.println("2. Apply for Subsidy");
-            System.out.println("3. View My Subsidy Applications");
-            System.out.println("4. Back to Main Menu");
-            System.out.print("Enter your choice: ");
+            out.println("\nOptions:");
+            out.println("1. View Subsidy Details");
+            out.println("2. Apply for Subsidy");
+            out.println("3. View My Subsidy Applications");
+            out.println("4. Back to Main Menu");
+            out.print("Enter your choice: ");
 
             int choice = getIntInput(1, 4);
 
@@ -718,162 +1471,221 @@ class AgricultureManagementSystem {
         }
     }
 
-    private static void viewSubsidyDetails() {
-        System.out.print("\nEnter the subsidy number to view details: ");
-        int subsidyNum = getIntInput(1, SUBSIDY_DETAILS.length);
+    private void viewSubsidyDetails() {
+        CropCatalog catalog = CropCatalog.current();
+        out.print("\nEnter the subsidy number to view details: ");
+        int subsidyNum = getIntInput(1, catalog.subsidyCount());
 
-        System.out.println("\n=== Subsidy Details ===");
-        System.out.println(SUBSIDY_DETAILS[subsidyNum - 1]);
+        out.println("\n=== Subsidy Details ===");
+        out.println(catalog.subsidyDetails(subsidyNum - 1));
 
-        System.out.println("\nPress Enter to continue...");
+        out.println("\nPress Enter to continue...");
         scanner.nextLine();
     }
 
-    private static void applyForSubsidy() {
-        System.out.print("\nEnter the subsidy number you want to apply for: ");
-        int subsidyNum = getIntInput(1, SUBSIDIES.length);
+    private void applyForSubsidy() {
+        CropCatalog catalog = CropCatalog.current();
+        out.print("\nEnter the subsidy number you want to apply for: ");
+        int position = getIntInput(1, catalog.subsidyCount());
+        int subsidyNum = catalog.subsidyId(position - 1);
 
         if (currentUser.hasAppliedForSubsidy(subsidyNum)) {
-            System.out.println("\nYou have already applied for this subsidy!");
+            out.println("\nYou have already applied for this subsidy!");
             return;
         }
 
-        System.out.println("\nYou are applying for: " + SUBSIDIES[subsidyNum - 1]);
-        System.out.print("Do you confirm? (yes/no): ");
+        out.println("\nYou are applying for: " + catalog.subsidy(position - 1));
+        out.print("Do you confirm? (yes/no): ");
         String confirm = scanner.nextLine();
 
-        if (confirm.equalsIgnoreCase("yes")) {
-            currentUser.addSubsidyApplication(subsidyNum);
-            System.out.println("\nApplication submitted successfully!");
+        if (confirm.equalsIgnoreCase("yes") && service.applyForSubsidy(currentUser, subsidyNum)) {
+            out.println("\nApplication submitted successfully!");
         } else {
-            System.out.println("\nApplication cancelled.");
+            out.println("\nApplication cancelled.");
         }
     }
 
-    private static void viewMyApplications() {
-        System.out.println("\n=== My Subsidy Applications ===");
-        if (currentUser.getSubsidyApplications().isEmpty()) {
-            System.out.println("You have no active applications.");
+    private void viewMyApplications() {
+        out.println("\n=== My Subsidy Applications ===");
+        CropCatalog catalog = CropCatalog.current();
+        List<Integer> apps = currentUser.getSubsidyApplications();
+        apps.removeIf(id -> !catalog.isActiveSubsidy(id));
+        if (apps.isEmpty()) {
+            out.println("You have no active applications.");
         } else {
-            for (int app : currentUser.getSubsidyApplications()) {
-                System.out.println("- " + SUBSIDIES[app - 1]);
-                System.out.println("  Status: " + (currentUser.getApprovedSubsidies().contains(app) ? "Approved" : "Pending"));
+            for (int app : apps) {
+                out.println("- " + catalog.subsidyById(app));
+                out.println("  Status: " + (currentUser.isSubsidyApproved(app) ? "Approved" : "Pending"));
             }
         }
 
-        System.out.println("\nPress Enter to continue...");
+        out.println("\nPress Enter to continue...");
         scanner.nextLine();
     }
 
-    private static void viewCropSteps() {
-        System.out.println("\n=== Crop Growing Steps ===");
-        System.out.println("Select a crop:");
-        for (int i = 0; i < CROPS.length; i++) {
-            System.out.println((i + 1) + ". " + CROPS[i]);
+    private void viewCropRecommendations() {
+        out.println("\n=== Crop Recommendations ===");
+        if (currentUser.getLandSize() == 0) {
+            out.println("Please enter your land details first (option 1).");
+            return;
         }
-        System.out.println((CROPS.length + 1) + ". Back to Main Menu");
-        System.out.print("Enter your choice: ");
-
-        int choice = getIntInput(1, CROPS.length + 1);
-
-        if (choice <= CROPS.length) {
-            System.out.println("\n=== Growing Steps for " + CROPS[choice - 1] + " ===");
-            System.out.println(CROP_STEPS[choice - 1][0]);
-
-            System.out.println("\nPress Enter to continue...");
-            scanner.nextLine();
+        String location = currentUser.getLocation();
+        String soilType = currentUser.getSoilType();
+        String region = CropRecommender.region(location);
+        out.println("For " + soilType + " soil in " + location + (region.equalsIgnoreCase(String.valueOf(location).trim()) ? "" : ", " + region)
+                + ", by suitability and current price:");
+        CropRecommender.Recommendation[] ranked = service.recommendCrops(currentUser);
+        for (int i = 0; i < ranked.length; i++) {
+            CropRecommender.Recommendation crop = ranked[i];
+            out.printf("%d. %-10s  soil fit %3.0f%%  price ₹%.2f%s%n", i + 1, crop.crop, crop.soilFit * 100, crop.price,
+                    crop.preferredRegion ? "  (widely grown in your region)" : "");
         }
+
+        out.println("\nPress Enter to continue...");
+        scanner.nextLine();
     }
 
-    private static int getIntInput(int min, int max) {
+    private void managePriceAlerts() {
         while (true) {
-            try {
-                int input = Integer.parseInt(scanner.nextLine());
-                if (input >= min && input <= max) {
-                    return input;
-                }
-                System.out.printf("Please enter a number between %d and %d: ", min, max);
-            } catch (NumberFormatException e) {
-                System.out.print("Invalid input. Please enter a number: ");
+            List<PriceAlert> alerts = currentUser.getPriceAlerts();
+            alerts.removeIf(alert -> !alert.isArmed());
+            out.println("\n=== Price Alerts ===");
+            if (alerts.isEmpty()) {
+                out.println("You have no price alerts.");
             }
-        }
-    }
-}
-
-class User implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private String username;
-    private String password;
-    private String fullName;
-    private double landSize;
-    private String location;
-    private String soilType;
-    private List<Integer> subsidyApplications = new ArrayList<>();
-    private List<Integer> approvedSubsidies = new ArrayList<>();
-    private boolean isAdmin;
-
-    public User(String username, String password, String fullName) {
-        this(username, password, fullName, false);
-    }
-
-    public User(String username, String password, String fullName, boolean isAdmin) {
-        this.username = username;
-        this.password = password;
-        this.fullName = fullName;
-        this.isAdmin = isAdmin;
-    }
-
-    public boolean authenticate(String password) {
-        return this.password.equals(password);
-    }
-
-    public void setLandDetails(double landSize, String location, String soilType) {
-        this.landSize = landSize;
-        this.location = location;
-        this.soilType = soilType;
-    }
+            for (int i = 0; i < alerts.size(); i++) {
+                out.println((i + 1) + ". " + alerts.get(i).describe());
+            }
+            out.println("You will see an alert at your next login after a price reaches it.");
 
-    public void addSubsidyApplication(int subsidyNumber) {
-        subsidyApplications.add(subsidyNumber);
-    }
+            out.println("\nOptions:");
+            out.println("1. Add Alert");
+            out.println("2. Remove Alert");
+            out.println("3. Back to Main Menu");
+            out.print("Enter your choice: ");
 
-    public boolean hasAppliedForSubsidy(int subsidyNumber) {
-        return subsidyApplications.contains(subsidyNumber);
-    }
+            int choice = getIntInput(1, 3);
 
-    public String getUsername() {
-        return username;
+            switch (choice) {
+                case 1:
+                    addPriceAlert();
+                    break;
+                case 2:
+                    if (alerts.isEmpty()) {
+                        out.println("No alerts to remove.");
+                        break;
+                    }
+                    out.print("Enter the alert number to remove: ");
+                    PriceAlert alert = alerts.get(getIntInput(1, alerts.size()) - 1);
+                    out.println(service.removePriceAlert(currentUser, alert)
+                            ? "Alert removed." : "That alert has just fired; you will see it at your next login.");
+                    break;
+                case 3:
+                    return;
+            }
+        }
     }
 
-    public String getPassword() {
-        return password;
+    private void addPriceAlert() {
+        CropCatalog catalog = CropCatalog.current();
+        out.println("\nSelect crop:");
+        for (int i = 0; i < catalog.cropCount(); i++) {
+            out.println((i + 1) + ". " + catalog.crop(i) + " (Current price: ₹" + catalog.price(i) + ")");
+        }
+        out.print("Enter crop number: ");
+        int index = getIntInput(1, catalog.cropCount()) - 1;
+        String crop = catalog.crop(index);
+
+        out.println("Alert me when the price is:");
+        out.println("1. At or above a price");
+        out.println("2. At or below a price");
+        out.print("Enter your choice: ");
+        boolean above = getIntInput(1, 2) == 1;
+
+        out.print("Enter the price: ");
+        double threshold = getDoubleInput(0);
+
+        switch (service.addPriceAlert(currentUser, crop, above, threshold)) {
+            case ADDED:
+                out.println("Alert added.");
+                break;
+            case ALREADY_MET:
+                out.println("The price of " + crop + " already meets that alert.");
+                break;
+            case DUPLICATE:
+                out.println("You already have that alert.");
+                break;
+            case UNKNOWN_CROP:
+                out.println("Crop was removed by another admin.");
+                break;
+            case TOO_MANY:
+                out.println("You can keep up to " + AgricultureService.MAX_PRICE_ALERTS
+                        + " alerts; remove one first.");
+                break;
+        }
     }
 
-    public String getFullName() {
-        return fullName;
-    }
+    private void viewCropSteps() {
+        CropCatalog catalog = CropCatalog.current();
+        out.println("\n=== Crop Growing Steps ===");
+        out.println("Select a crop:");
+        for (int i = 0; i < catalog.cropCount(); i++) {
+            out.println((i + 1) + ". " + catalog.crop(i));
+        }
+        out.println((catalog.cropCount() + 1) + ". Back to Main Menu");
+        out.print("Enter your choice: ");
 
-    public double getLandSize() {
-        return landSize;
-    }
+        int choice = getIntInput(1, catalog.cropCount() + 1);
 
-    public String getLocation() {
-        return location;
-    }
+        if (choice <= catalog.cropCount()) {
+            out.println("\n=== Growing Steps for " + catalog.crop(choice - 1) + " ===");
+            out.println(catalog.cropSteps(choice - 1));
 
-    public String getSoilType() {
-        return soilType;
+            out.println("\nPress Enter to continue...");
+            scanner.nextLine();
+        }
     }
 
-    public List<Integer> getSubsidyApplications() {
-        return subsidyApplications;
+    private int getIntInput(int min, int max) {
+        while (true) {
+            try {
+                int input = Integer.parseInt(scanner.nextLine());
+                if (input >= min && input <= max) {
+                    return input;
+                }
+                out.printf("Please enter a number between %d and %d: ", min, max);
+            } catch (NumberFormatException e) {
+                out.print("Invalid input. Please enter a number: ");
+            }
+        }
     }
 
-    public List<Integer> getApprovedSubsidies() {
-        return approvedSubsidies;
+    // Reads whole lines, so bad input re-prompts instead of ending the session
+    private double getDoubleInput(double min) {
+        while (true) {
+            try {
+                double input = Double.parseDouble(scanner.nextLine().trim());
+                if (input >= min && !Double.isInfinite(input)) {
+                    return input;
+                }
+                out.printf("Please enter a number of at least %s: ", min);
+            } catch (NumberFormatException e) {
+                out.print("Invalid input. Please enter a number: ");
+            }
+        }
     }
 
-    public boolean isAdmin() {
-        return isAdmin;
+    private long getLongInput(long min) {
+        while (true) {
+            try {
+                long input = Long.parseLong(scanner.nextLine().trim());
+                if (input >= min) {
+                    return input;
+                }
+                out.printf("Please enter a number of at least %d: ", min);
+            } catch (NumberFormatException e) {
+                out.print("Invalid input. Please enter a whole number: ");
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,72 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the menu over TCP on the loopback interface, one session per
+ * connection, so many kiosk terminals can share one JVM and one registry.
+ *
+ * Each session runs on its own virtual thread when the JVM provides them
+ * (Java 21+) and on a platform thread otherwise.
+ */
+class AgricultureServer {
+
+    static final int DEFAULT_PORT = 7070;
+
+    private static final AtomicInteger sessionIds = new AtomicInteger();
+    private static boolean usesVirtualThreads;
+
+    static void serve(int port) {
+        ExecutorService sessions = sessionExecutor();
+        try (ServerSocket server = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress())) {
+            System.out.println("Serving sessions on " + server.getLocalSocketAddress()
+                    + (usesVirtualThreads ? " (virtual threads)" : " (platform threads)"));
+            while (true) {
+                Socket socket = server.accept();
+                sessions.execute(() -> handle(socket));
+            }
+        } catch (IOException e) {
+            System.out.println("Server stopped: " + e.getMessage());
+        } finally {
+            sessions.shutdown();
+        }
+    }
+
+    private static void handle(Socket socket) {
+        int id = sessionIds.incrementAndGet();
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()), true, StandardCharsets.UTF_8);
+            new AgricultureManagementSystem(s.getInputStream(), out).run();
+            out.println("\nThank you for using the Agriculture Management System!");
+        } catch (NoSuchElementException e) {
+            // terminal disconnected mid-menu
+        } catch (IOException e) {
+            System.out.println("Session " + id + " failed: " + e.getMessage());
+        }
+    }
+
+    private static ExecutorService sessionExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            usesVirtualThreads = true;
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            // Older JVM: fall back to one platform thread per session
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "session-" + sessionIds.get());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
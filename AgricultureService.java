@@ -0,0 +1,474 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * The farmer and admin operations behind the console menus, without any
+ * console I/O, so sessions, benchmarks and load drivers all run the same
+ * code. Every change is applied to the registry and written to the user log,
+ * if there is one, under the user's lock, so the log has each user's changes
+ * in the order they were made. A change a user asked for is confirmed only
+ * once its record is on disk; if the log can no longer be written, such
+ * changes throw {@link java.io.UncheckedIOException} and are not made, while
+ * those the system makes itself (fired alerts, rehashed passwords) stay in
+ * memory only. With sharded user data, each operation first loads
+ * the shards it needs; with users kept on disk, the first view over all
+ * farmers loads everyone. Each operation is timed into {@link OperationMetrics};
+ * one that changes nothing (a wrong password, a repeated approval) counts as
+ * failed.
+ */
+class AgricultureService {
+
+    enum LoginStatus { OK, UNKNOWN_USER, WRONG_PASSWORD, BUSY }
+
+    enum RegisterStatus { OK, NAME_TAKEN, BUSY }
+
+    enum AlertStatus { ADDED, ALREADY_MET, DUPLICATE, UNKNOWN_CROP, TOO_MANY }
+
+    // Armed alerts one farmer may keep
+    static final int MAX_PRICE_ALERTS = Integer.getInteger("agri.priceAlerts.max", 10);
+
+    static class LoginResult {
+        final LoginStatus status;
+        final User user;        // set when status is OK
+
+        LoginResult(LoginStatus status, User user) {
+            this.status = status;
+            this.user = user;
+        }
+    }
+
+    // Budget and quota use of one active subsidy
+    static class BudgetSummary {
+        final int position;     // 1-based, as numbered in the menus
+        final CropCatalog.Subsidy subsidy;
+        final int approved;
+        final int[] approvedByQuota;    // per subsidy.quotaLocations
+
+        BudgetSummary(int position, CropCatalog.Subsidy subsidy, int approved, int[] approvedByQuota) {
+            this.position = position;
+            this.subsidy = subsidy;
+            this.approved = approved;
+            this.approvedByQuota = approvedByQuota;
+        }
+    }
+
+    // Application counts for one active subsidy
+    static class SubsidySummary {
+        final int position;     // 1-based, as numbered in the menus
+        final int subsidyId;
+        final String description;
+        final int pending;
+        final int approved;
+
+        SubsidySummary(int position, int subsidyId, String description, int pending, int approved) {
+            this.position = position;
+            this.subsidyId = subsidyId;
+            this.description = description;
+            this.pending = pending;
+            this.approved = approved;
+        }
+    }
+
+    private final UserRegistry users;
+    private final UserWriteAheadLog log;
+    private final CredentialVerifier credentials;
+    private final ShardedUserStore shards;
+
+    /** {@code log} may be null to run without durability, e.g. in benchmarks. */
+    AgricultureService(UserRegistry users, UserWriteAheadLog log, CredentialVerifier credentials) {
+        this(users, log, credentials, null);
+    }
+
+    /** {@code shards} is null unless users are kept in district shards loaded on demand. */
+    AgricultureService(UserRegistry users, UserWriteAheadLog log, CredentialVerifier credentials,
+                       ShardedUserStore shards) {
+        this.users = users;
+        this.log = log;
+        this.credentials = credentials;
+        this.shards = shards;
+    }
+
+    UserRegistry users() {
+        return users;
+    }
+
+    /** The user with the name, or null; for admin lookups. */
+    User findUser(String username) {
+        if (shards != null) {
+            shards.loadUser(username);
+        }
+        return users.get(username);
+    }
+
+    LoginResult login(String username, String password) {
+        long start = System.nanoTime();
+        if (shards != null) {
+            shards.loadUser(username);
+        }
+        LoginResult result = authenticate(username, password);
+        OperationMetrics.LOGIN.record(start, result.status == LoginStatus.OK);
+        return result;
+    }
+
+    private LoginResult authenticate(String username, String password) {
+        User user = users.get(username);
+        if (user == null) {
+            return new LoginResult(LoginStatus.UNKNOWN_USER, null);
+        }
+        // Plaintext passwords from older data files are hashed on their first login
+        switch (credentials.verify(user, password, this::logPassword)) {
+            case OK:
+                return new LoginResult(LoginStatus.OK, user);
+            case WRONG_PASSWORD:
+                return new LoginResult(LoginStatus.WRONG_PASSWORD, null);
+            default:
+                return new LoginResult(LoginStatus.BUSY, null);
+        }
+    }
+
+    RegisterStatus register(String username, String password, String fullName) {
+        long start = System.nanoTime();
+        if (shards != null) {
+            shards.loadUser(username);
+        }
+        RegisterStatus status = addUser(username, password, fullName);
+        OperationMetrics.REGISTER.record(start, status == RegisterStatus.OK);
+        return status;
+    }
+
+    private RegisterStatus addUser(String username, String password, String fullName) {
+        checkWritable();
+        if (users.contains(username)) {
+            return RegisterStatus.NAME_TAKEN;
+        }
+        String stored = credentials.hash(password);
+        if (stored == null) {
+            return RegisterStatus.BUSY;
+        }
+        // Another session may have taken the name while this one was hashing
+        User user = new User(username, stored, fullName, false);
+        if (!users.register(user, logged(u -> log.logRegister(u)))) {
+            return RegisterStatus.NAME_TAKEN;
+        }
+        awaitLogged();
+        return RegisterStatus.OK;
+    }
+
+    void setLandDetails(User user, double landSize, String location, String soilType) {
+        long start = System.nanoTime();
+        checkWritable();
+        users.setLandDetails(user, landSize, location, soilType, logged(u -> log.logLandDetails(u)));
+        awaitLogged();
+        OperationMetrics.LAND_DETAILS.record(start);
+    }
+
+    /** Returns false if the user already applied or the subsidy is no longer offered. */
+    boolean applyForSubsidy(User user, int subsidyId) {
+        long start = System.nanoTime();
+        checkWritable();
+        boolean applied = CropCatalog.current().isActiveSubsidy(subsidyId)
+                && users.applyForSubsidy(user, subsidyId, logged(u -> log.logApply(u, subsidyId)));
+        if (applied) {
+            awaitLogged();
+        }
+        OperationMetrics.APPLY.record(start, applied);
+        return applied;
+    }
+
+    /** Approves unless already approved or over the subsidy's budget or the farmer's district quota. */
+    SubsidyBudgets.Approval approveSubsidy(User user, int subsidyId) {
+        SubsidyBudgets.Approval approval = approveInBatch(user, subsidyId);
+        if (approval == SubsidyBudgets.Approval.APPROVED) {
+            awaitLogged();
+        }
+        return approval;
+    }
+
+    /** As {@link #approveSubsidy}, without waiting for the log; call {@link #awaitLogged} before reporting the batch. */
+    SubsidyBudgets.Approval approveInBatch(User user, int subsidyId) {
+        long start = System.nanoTime();
+        checkWritable();
+        CropCatalog.Subsidy subsidy = CropCatalog.current().subsidyRecord(subsidyId);
+        if (subsidy != null && subsidy.hasLimits()) {
+            // Limits are checked against counts of every approval, so everyone must be indexed
+            loadEveryone();
+        }
+        SubsidyBudgets.Approval approval = users.approveSubsidy(user, subsidyId,
+                logged(u -> log.logApprove(u, subsidyId)));
+        boolean approved = approval == SubsidyBudgets.Approval.APPROVED;
+        OperationMetrics.APPROVE.record(start, approved);
+        return approval;
+    }
+
+    /** Returns false if the application was already pending. */
+    boolean rejectSubsidy(User user, int subsidyId) {
+        long start = System.nanoTime();
+        checkWritable();
+        boolean rejected = users.rejectSubsidy(user, subsidyId, logged(u -> log.logReject(u, subsidyId)));
+        if (rejected) {
+            awaitLogged();
+        }
+        OperationMetrics.REJECT.record(start, rejected);
+        return rejected;
+    }
+
+    /**
+     * Arms an alert on a catalog crop. One the current price already meets is
+     * not added, as it would fire at once; the caller shows the price instead.
+     */
+    AlertStatus addPriceAlert(User user, String crop, boolean above, double threshold) {
+        CropCatalog catalog = CropCatalog.current();
+        int index = catalog.indexOfCrop(crop);
+        if (index < 0 || !PriceAlert.isStorableCrop(catalog.crop(index))) {
+            return AlertStatus.UNKNOWN_CROP;
+        }
+        PriceAlert alert = new PriceAlert(catalog.crop(index), above, threshold);
+        if (alert.isMetBy(catalog.price(index))) {
+            return AlertStatus.ALREADY_MET;
+        }
+        int armed = 0;
+        for (PriceAlert existing : user.getPriceAlerts()) {
+            armed += existing.isArmed() ? 1 : 0;
+        }
+        if (armed >= MAX_PRICE_ALERTS) {
+            return AlertStatus.TOO_MANY;
+        }
+        checkWritable();
+        if (!users.addPriceAlert(user, alert)) {
+            return AlertStatus.DUPLICATE;
+        }
+        if (log != null) {
+            log.logPriceAlerts(user);
+            log.awaitDurable();
+        }
+        // A price published while this was being added has not seen the alert; check it now
+        CropCatalog latest = CropCatalog.current();
+        int latestIndex = latest.indexOfCrop(alert.crop);
+        if (latest != catalog && latestIndex >= 0 && alert.isMetBy(latest.price(latestIndex))) {
+            firePriceAlerts(alert.crop, latest.price(latestIndex));
+        }
+        return AlertStatus.ADDED;
+    }
+
+    /** Returns false if the user has no such alert. */
+    boolean removePriceAlert(User user, PriceAlert alert) {
+        checkWritable();
+        boolean removed = users.removePriceAlert(user, alert);
+        if (removed && log != null) {
+            log.logPriceAlerts(user);
+            log.awaitDurable();
+        }
+        return removed;
+    }
+
+    /** The user's fired alerts, removed so they are shown once. */
+    List<PriceAlert> takeFiredPriceAlerts(User user) {
+        List<PriceAlert> fired = users.takeFiredPriceAlerts(user);
+        if (!fired.isEmpty() && logWritable()) {
+            log.logPriceAlerts(user);
+        }
+        return fired;
+    }
+
+    /**
+     * Fires the alerts that the catalog's prices reach; call after publishing
+     * a catalog. Only alerts whose threshold a price crosses are touched.
+     * Returns the number of farmers alerted.
+     */
+    int checkPriceAlerts(CropCatalog catalog) {
+        long start = System.nanoTime();
+        int alerted = 0;
+        for (int i = 0; i < catalog.cropCount(); i++) {
+            alerted += firePriceAlerts(catalog.crop(i), catalog.price(i));
+        }
+        OperationMetrics.PRICE_ALERT_CHECK.record(start);
+        return alerted;
+    }
+
+    int priceAlertCount() {
+        return users.priceAlertCount();
+    }
+
+    private int firePriceAlerts(String crop, double price) {
+        List<User> fired = users.firePriceAlerts(crop, price);
+        if (logWritable()) {
+            for (User user : fired) {
+                log.logPriceAlerts(user);
+            }
+        }
+        return fired.size();
+    }
+
+    /** Dry run of a bulk approval: the pending applications for the subsidy that meet the rule. */
+    BulkApproval.Plan planBulkApproval(int subsidyId, ApprovalRule rule) {
+        long start = System.nanoTime();
+        loadEveryone();
+        BulkApproval.Plan plan = BulkApproval.plan(users, subsidyId, rule);
+        OperationMetrics.BULK_APPROVAL_PLAN.record(start);
+        return plan;
+    }
+
+    /** Approves a dry run's matches that still qualify, a batch at a time. */
+    BulkApproval.Result applyBulkApproval(BulkApproval.Plan plan, IntConsumer progress) {
+        long start = System.nanoTime();
+        BulkApproval.Result result = BulkApproval.apply(plan, users, this, progress);
+        OperationMetrics.BULK_APPROVAL.record(start, !result.subsidyRemoved);
+        return result;
+    }
+
+    /**
+     * Tombstones a subsidy and drops its applicants from the index; users are
+     * cleaned up by the background sweep. The caller has the catalog saved.
+     */
+    boolean removeSubsidy(int subsidyId) {
+        long start = System.nanoTime();
+        boolean[] removed = new boolean[1];
+        CropCatalog.update(catalog -> removed[0] = catalog.removeSubsidy(subsidyId));
+        if (removed[0]) {
+            users.removeSubsidy(subsidyId);
+            SubsidySweeper.wakeUp();
+        }
+        OperationMetrics.REMOVE_SUBSIDY.record(start, removed[0]);
+        return removed[0];
+    }
+
+    /** Pending and approved counts for every active subsidy that has applications. */
+    List<SubsidySummary> applicationSummary() {
+        loadEveryone();
+        CropCatalog catalog = CropCatalog.current();
+        List<SubsidySummary> summary = new ArrayList<>();
+        for (int i = 0; i < catalog.subsidyCount(); i++) {
+            int id = catalog.subsidyId(i);
+            int pending = users.applicantCount(id, SubsidyApplicationIndex.Status.PENDING);
+            int approved = users.applicantCount(id, SubsidyApplicationIndex.Status.APPROVED);
+            if (pending + approved > 0) {
+                summary.add(new SubsidySummary(i + 1, id, catalog.subsidy(i), pending, approved));
+            }
+        }
+        return summary;
+    }
+
+    /** Live budget and quota use of every active subsidy. */
+    List<BudgetSummary> budgetSummary() {
+        loadEveryone();
+        CropCatalog catalog = CropCatalog.current();
+        List<BudgetSummary> summary = new ArrayList<>();
+        for (int i = 0; i < catalog.subsidyCount(); i++) {
+            CropCatalog.Subsidy subsidy = catalog.subsidyRecord(catalog.subsidyId(i));
+            int[] byQuota = new int[subsidy.quotas.length];
+            for (int q = 0; q < byQuota.length; q++) {
+                byQuota[q] = users.approvedCount(subsidy.id, subsidy.quotaLocations[q]);
+            }
+            summary.add(new BudgetSummary(i + 1, subsidy, users.approvedCount(subsidy.id), byQuota));
+        }
+        return summary;
+    }
+
+    /** Crops for the user's soil and region, best first. */
+    CropRecommender.Recommendation[] recommendCrops(User user) {
+        String soilType;
+        String location;
+        synchronized (user) {
+            soilType = user.getSoilType();
+            location = user.getLocation();
+        }
+        return CropRecommender.recommend(soilType, location);
+    }
+
+    Map<String, CropRecommender.RegionSummary> regionReport() {
+        long start = System.nanoTime();
+        loadEveryone();
+        Map<String, CropRecommender.RegionSummary> report = CropRecommender.regionReport(users.all());
+        OperationMetrics.RECOMMENDATION_REPORT.record(start);
+        return report;
+    }
+
+    DataExporter.Report exportUsers(FarmerIndex.Query query, Path file) throws IOException {
+        long start = System.nanoTime();
+        boolean exported = false;
+        try {
+            DataExporter.Report report = DataExporter.exportUsers(this, query, file);
+            exported = true;
+            return report;
+        } finally {
+            OperationMetrics.EXPORT.record(start, exported);
+        }
+    }
+
+    DataExporter.Report exportApplications(DataExporter.ApplicationFilter filter, Path file) throws IOException {
+        long start = System.nanoTime();
+        boolean exported = false;
+        try {
+            DataExporter.Report report = DataExporter.exportApplications(this, filter, file);
+            exported = true;
+            return report;
+        } finally {
+            OperationMetrics.EXPORT.record(start, exported);
+        }
+    }
+
+    int applicantCount(int subsidyId, SubsidyApplicationIndex.Status status) {
+        loadEveryone();
+        return users.applicantCount(subsidyId, status);
+    }
+
+    SubsidyApplicationIndex.Page applicants(int subsidyId, SubsidyApplicationIndex.Status status,
+                                            int cursor, int limit) {
+        loadEveryone();
+        return users.applicants(subsidyId, status, cursor, limit);
+    }
+
+    FarmerIndex.Page findFarmers(FarmerIndex.Query query, FarmerIndex.Cursor cursor, int limit) {
+        long start = System.nanoTime();
+        if (shards != null && query.location != null) {
+            shards.loadLocation(query.location);
+        } else {
+            loadEveryone();
+        }
+        FarmerIndex.Page page = users.findFarmers(query, cursor, limit);
+        OperationMetrics.FARMER_QUERY.record(start);
+        return page;
+    }
+
+    // Scans over every farmer need every shard, or every lazily kept user, in memory and indexed
+    private void loadEveryone() {
+        if (shards != null) {
+            shards.loadAll();
+        }
+        users.ensureResident();
+    }
+
+    // The registry's callback that writes a change's log record, or one that does nothing without a log
+    private Consumer<User> logged(Consumer<User> record) {
+        return log == null ? UserRegistry.UNLOGGED : record;
+    }
+
+    private void checkWritable() {
+        if (log != null) {
+            log.checkWritable();
+        }
+    }
+
+    /** Waits until the changes logged so far are on disk. */
+    void awaitLogged() {
+        if (log != null) {
+            log.awaitDurable();
+        }
+    }
+
+    private boolean logWritable() {
+        return log != null && log.isWritable();
+    }
+
+    private void logPassword(User user) {
+        users.touch(user);
+        if (logWritable()) {
+            log.logPassword(user);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Conditions over a farmer's land details that an application must meet to
+ * be approved in bulk, all of which must hold. Written by the admin as text:
+ *
+ *     landSize <= 5 and location in Pune, Nashik and soilType != Sandy
+ *
+ * Fields are {@code landSize}, {@code location} and {@code soilType}.
+ * Land size takes {@code < <= > >= = !=} and a number; location and soil
+ * type take {@code = !=} and a value, or {@code in} / {@code not in} and a
+ * comma-separated list, optionally in parentheses. Text matches ignore case,
+ * as the farmer index does. Conditions are separated by {@code and} or
+ * {@code ;}. A farmer with no land details has land size 0 and an empty
+ * location and soil type.
+ */
+final class ApprovalRule {
+
+    private static final Pattern CONDITION = Pattern.compile(
+            "(\\w+)\\s*(<=|>=|!=|<|>|=|not\\s+in\\b|in\\b)\\s*(.+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SEPARATOR = Pattern.compile("\\s+and\\s+|;", Pattern.CASE_INSENSITIVE);
+
+    private enum Field { LAND_SIZE, LOCATION, SOIL_TYPE }
+
+    private static final class Condition {
+        final String text;
+        final Field field;
+        final String op;
+        final double number;
+        final int[] keyCodes;
+
+        Condition(String text, Field field, String op, double number, int[] keyCodes) {
+            this.text = text;
+            this.field = field;
+            this.op = op;
+            this.number = number;
+            this.keyCodes = keyCodes;
+        }
+
+        boolean test(double landSize, int locationKey, int soilKey) {
+            if (field == Field.LAND_SIZE) {
+                switch (op) {
+                    case "<": return landSize < number;
+                    case "<=": return landSize <= number;
+                    case ">": return landSize > number;
+                    case ">=": return landSize >= number;
+                    case "=": return landSize == number;
+                    default: return landSize != number;
+                }
+            }
+            int key = field == Field.LOCATION ? locationKey : soilKey;
+            boolean listed = false;
+            for (int listedKey : keyCodes) {
+                listed |= listedKey == key;
+            }
+            return op.equals("=") || op.equals("in") ? listed : !listed;
+        }
+    }
+
+    private final List<Condition> conditions;
+
+    private ApprovalRule(List<Condition> conditions) {
+        this.conditions = conditions;
+    }
+
+    /** Parses a rule; throws IllegalArgumentException with a message for the admin if it is malformed. */
+    static ApprovalRule parse(String text) {
+        List<Condition> conditions = new ArrayList<>();
+        for (String part : SEPARATOR.split(text.trim())) {
+            if (part.trim().isEmpty()) {
+                continue;
+            }
+            Matcher m = CONDITION.matcher(part.trim());
+            if (!m.matches()) {
+                throw new IllegalArgumentException("cannot read '" + part.trim() + "', expected field, operator and value");
+            }
+            conditions.add(condition(part.trim(), m.group(1), m.group(2).toLowerCase(Locale.ROOT).replaceAll("\\s+", " "),
+                    m.group(3).trim()));
+        }
+        if (conditions.isEmpty()) {
+            throw new IllegalArgumentException("a rule needs at least one condition");
+        }
+        return new ApprovalRule(conditions);
+    }
+
+    private static Condition condition(String text, String fieldName, String op, String value) {
+        Field field;
+        switch (fieldName.toLowerCase(Locale.ROOT)) {
+            case "landsize":
+            case "land":
+                field = Field.LAND_SIZE;
+                break;
+            case "location":
+            case "district":
+                field = Field.LOCATION;
+                break;
+            case "soiltype":
+            case "soil":
+                field = Field.SOIL_TYPE;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown field '" + fieldName + "', use landSize, location or soilType");
+        }
+
+        if (field == Field.LAND_SIZE) {
+            if (op.endsWith("in")) {
+                throw new IllegalArgumentException("landSize takes <, <=, >, >=, = or !=");
+            }
+            try {
+                return new Condition(text, field, op, Double.parseDouble(value), null);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("landSize needs a number, not '" + value + "'");
+            }
+        }
+
+        if (op.startsWith("<") || op.startsWith(">")) {
+            throw new IllegalArgumentException(fieldName + " takes =, !=, in or not in");
+        }
+        if (value.startsWith("(") && value.endsWith(")")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        AttributeDictionary dictionary = field == Field.LOCATION ? AttributeDictionary.LOCATIONS : AttributeDictionary.SOIL_TYPES;
+        Set<Integer> keyCodes = new LinkedHashSet<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                keyCodes.add(dictionary.keyCode(item));
+            }
+        }
+        if (keyCodes.isEmpty() || (keyCodes.size() > 1 && !op.endsWith("in"))) {
+            throw new IllegalArgumentException(fieldName + " " + op + " needs " + (op.endsWith("in") ? "a list of values" : "one value"));
+        }
+        return new Condition(text, field, op, Double.NaN, keyCodes.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    int conditionCount() {
+        return conditions.size();
+    }
+
+    String condition(int index) {
+        return conditions.get(index).text;
+    }
+
+    /**
+     * The index of the first condition the land details fail, or -1 if they
+     * meet them all. Location and soil type are key codes in
+     * {@link AttributeDictionary}.
+     */
+    int firstFailure(double landSize, int locationKey, int soilKey) {
+        for (int i = 0; i < conditions.size(); i++) {
+            if (!conditions.get(i).test(landSize, locationKey, soilKey)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Condition condition : conditions) {
+            sb.append(sb.length() == 0 ? "" : " and ").append(condition.text);
+        }
+        return sb.toString();
+    }
+}
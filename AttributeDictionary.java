@@ -0,0 +1,195 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Small integer codes for the few hundred distinct locations and soil types,
+ * so each user holds two ints instead of its own two strings.
+ *
+ * A value keeps its exact text for display and saving; its key, the value
+ * trimmed and lower-cased, is what filters and rules match on, so "Pune" and
+ * "pune " share a key code and an equality filter is one int compare. Code 0
+ * is "no value" (null, or the text "null" that user.txt holds for users
+ * without land details); key code 0 is the blank key it shares with "".
+ *
+ * Lookups of known values never lock. Codes are never reused or removed, so
+ * a code read from a user stays valid; new values take the dictionary lock.
+ * The loader looks values up straight from a line's bytes, so a known value
+ * costs no string per user.
+ */
+final class AttributeDictionary {
+
+    static final AttributeDictionary LOCATIONS = new AttributeDictionary();
+    static final AttributeDictionary SOIL_TYPES = new AttributeDictionary();
+
+    static final int NONE = 0;
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> keyCodes = new ConcurrentHashMap<>();
+    // By code, written before the code is published through the maps above
+    private volatile String[] values = new String[64];
+    private volatile int[] keyOfCode = new int[64];
+    // Codes of ASCII values by a hash of their bytes, linear probing; 0 is an empty slot
+    private volatile int[] asciiCodes = new int[128];
+    private int size = 1;
+    private int keyCount = 1;
+
+    private AttributeDictionary() {
+        keyCodes.put("", NONE);
+    }
+
+    /** The code of the value, added if new. */
+    int code(String value) {
+        if (value == null || value.equals("null")) {
+            return NONE;
+        }
+        Integer code = codes.get(value);
+        return code != null ? code : add(value);
+    }
+
+    /** The code of the UTF-8 text {@code bytes[from, to)}, added if new. */
+    int code(byte[] bytes, int from, int to) {
+        if (to - from == 4 && bytes[from] == 'n' && bytes[from + 1] == 'u' && bytes[from + 2] == 'l' && bytes[from + 3] == 'l') {
+            return NONE;
+        }
+        int[] table = asciiCodes;
+        String[] known = values;
+        int mask = table.length - 1;
+        for (int i = hash(bytes, from, to) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int code = table[i];
+            // A slot can be seen before the value it points to; that only sends us the slow way
+            String value = code < known.length ? known[code] : null;
+            if (value != null && sameAscii(value, bytes, from, to)) {
+                return code;
+            }
+        }
+        return code(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+    }
+
+    /** The value with the code; null for {@link #NONE}. */
+    String value(int code) {
+        return values[code];
+    }
+
+    /** The key code of a value's code. */
+    int keyOf(int code) {
+        return keyOfCode[code];
+    }
+
+    /** The key code a value matches on, or -1 if no value with that key was ever added. */
+    int findKey(String value) {
+        Integer keyCode = keyCodes.get(key(value));
+        return keyCode == null ? -1 : keyCode;
+    }
+
+    /** The key code a value matches on, added if new, so rules can name values no user has yet. */
+    int keyCode(String value) {
+        String key = key(value);
+        Integer keyCode = keyCodes.get(key);
+        if (keyCode != null) {
+            return keyCode;
+        }
+        synchronized (this) {
+            return addKey(key);
+        }
+    }
+
+    /** Distinct values, "no value" included. */
+    synchronized int size() {
+        return size;
+    }
+
+    /** Locations and soil types match case-insensitively; no value keys as "". */
+    static String key(String value) {
+        return value == null || value.equals("null") ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private synchronized int add(String value) {
+        Integer existing = codes.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        int code = size++;
+        String[] grownValues = values;
+        int[] grownKeys = keyOfCode;
+        if (code == grownValues.length) {
+            grownValues = Arrays.copyOf(grownValues, code * 2);
+            grownKeys = Arrays.copyOf(grownKeys, code * 2);
+        }
+        grownValues[code] = value;
+        grownKeys[code] = addKey(key(value));
+        values = grownValues;
+        keyOfCode = grownKeys;
+        if (isAscii(value)) {
+            addAscii(value, code);
+        }
+        codes.put(value, code);
+        return code;
+    }
+
+    // Call holding the dictionary lock; the table is copied when it passes half full
+    private void addAscii(String value, int code) {
+        int[] table = asciiCodes;
+        if (code * 2 >= table.length) {
+            table = new int[table.length * 2];
+            for (int known = 1; known < code; known++) {
+                if (values[known] != null && isAscii(values[known])) {
+                    place(table, values[known], known);
+                }
+            }
+        }
+        place(table, value, code);
+        asciiCodes = table;
+    }
+
+    private static void place(int[] table, String value, int code) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        int mask = table.length - 1;
+        int i = hash(bytes, 0, bytes.length) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = code;
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean sameAscii(String value, byte[] bytes, int from, int to) {
+        if (value.length() != to - from) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) != bytes[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Call holding the dictionary lock
+    private int addKey(String key) {
+        Integer existing = keyCodes.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        int keyCode = keyCount++;
+        keyCodes.put(key, keyCode);
+        return keyCode;
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logins per second through the credential verifier for a range of PBKDF2
+ * costs and pool sizes. Each run keeps twice as many client threads as pool
+ * workers busy logging in, so the pool is always saturated; logins turned
+ * away as busy are counted separately.
+ *
+ * Usage: java AuthBenchmark [seconds per run] [iterations,iterations,...]
+ */
+class AuthBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+        String[] costs = (args.length > 1 ? args[1] : "10000,60000,120000,310000").split(",");
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("Cores: " + cores);
+        System.out.printf("%10s %8s %12s %12s %12s%n", "iterations", "threads", "logins/s", "busy/s", "ms/login");
+        for (String cost : costs) {
+            int iterations = Integer.parseInt(cost.trim());
+            String stored = PasswordHasher.hash("secret", iterations);
+            run(stored, iterations, 1, seconds / 4, false); // warm up
+            for (int threads = 1; threads <= Math.max(1, cores * 2); threads *= 2) {
+                run(stored, iterations, threads, seconds, true);
+            }
+        }
+    }
+
+    private static void run(String stored, int iterations, int threads, double seconds, boolean print)
+            throws InterruptedException {
+        CredentialVerifier verifier = new CredentialVerifier(threads, threads * 4);
+        LongAdder ok = new LongAdder();
+        LongAdder busy = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        Thread[] clients = new Thread[threads * 2];
+
+        for (int c = 0; c < clients.length; c++) {
+            clients[c] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < deadline) {
+                    switch (verifier.check(stored, "secret")) {
+                        case OK:
+                            ok.increment();
+                            break;
+                        case BUSY:
+                            busy.increment();
+                            Thread.yield();
+                            break;
+                        default:
+                            throw new IllegalStateException("wrong password");
+                    }
+                }
+            });
+            clients[c].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread client : clients) {
+            client.join();
+        }
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        verifier.shutdown();
+        if (!print) {
+            return;
+        }
+        System.out.printf("%10d %8d %12.1f %12.1f %12.2f%n", iterations, threads,
+                ok.sum() / elapsed, busy.sum() / elapsed, threads * elapsed * 1000 / Math.max(1, ok.sum()));
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread that keeps the files on disk close behind memory, so no
+ * menu waits on a save.
+ *
+ * User changes reach the write-ahead log as they happen; the flusher decides
+ * when to fold them into a new snapshot. Once {@code agri.flush.dirtyUsers}
+ * farmers have changed, or {@code agri.flush.millis} ms after the last
+ * checkpoint if any have, it asks the log for a checkpoint and the log's
+ * compactor writes the snapshot (temp file and rename) from the previous one
+ * plus the sealed segments, never from the live users.
+ *
+ * The catalog has no log, so a new catalog version is saved on the next
+ * check, within a second, or straight away after {@link #wakeUp}.
+ */
+final class BackgroundFlusher {
+
+    private static final long FLUSH_MILLIS = Long.getLong("agri.flush.millis", 60_000);
+    private static final int FLUSH_DIRTY_USERS = Integer.getInteger("agri.flush.dirtyUsers", 10_000);
+    private static final long CHECK_MILLIS = 1_000;
+
+    private final UserWriteAheadLog userLog;
+    private final Path catalogFile;
+    private final Thread thread;
+    private boolean wakeRequested;
+    private boolean stopped;
+    // A version that failed to save is retried by close() or once a newer one is published, not every second
+    private long failedCatalogVersion = -1;
+
+    BackgroundFlusher(UserWriteAheadLog userLog, Path catalogFile) {
+        this.userLog = userLog;
+        this.catalogFile = catalogFile;
+        this.thread = new Thread(this::run, "background-flusher");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /** Requests a check now, e.g. after the catalog changed. */
+    synchronized void wakeUp() {
+        wakeRequested = true;
+        notifyAll();
+    }
+
+    /** Stops the thread once any check in progress is done and saves the catalog a last time. */
+    void close() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failedCatalogVersion = -1;
+        saveCatalog();
+    }
+
+    private void run() {
+        long lastCheckpoint = System.nanoTime();
+        while (true) {
+            synchronized (this) {
+                try {
+                    if (!stopped && !wakeRequested) {
+                        wait(CHECK_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (stopped) {
+                    return;
+                }
+                wakeRequested = false;
+            }
+
+            saveCatalog();
+            int dirty = userLog.dirtyUsers();
+            if (dirty >= FLUSH_DIRTY_USERS || (dirty > 0
+                    && System.nanoTime() - lastCheckpoint >= TimeUnit.MILLISECONDS.toNanos(FLUSH_MILLIS))) {
+                userLog.checkpoint();
+                lastCheckpoint = System.nanoTime();
+            }
+        }
+    }
+
+    private void saveCatalog() {
+        long version = CropCatalog.current().version();
+        if (version == failedCatalogVersion) {
+            return;
+        }
+        try {
+            CropCatalog.save(catalogFile);
+        } catch (IOException e) {
+            failedCatalogVersion = version;
+            System.out.println("Error saving catalog: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks for the persistence and admin hot paths, each run against a
+ * generated dataset of every requested size: text and binary snapshot save
+ * and load, the admin application summary and farmer queries, the bulk
+ * approval dry run, the crop recommendation report, removing a subsidy
+ * (tombstone plus the user sweep), and subsidy membership checks.
+ *
+ * Each benchmark runs {@code agri.bench.warmup} untimed iterations and then
+ * {@code agri.bench.iterations} timed ones. Results are printed and written
+ * as JSON (benchmark, params, primaryMetric with score, scoreError, scoreUnit
+ * and rawData) for comparing runs of this harness. The error is a 99.9%
+ * confidence half-width.
+ *
+ * This is a plain timing harness, not JMH: every benchmark runs in this one
+ * JVM with no forks, so JIT and GC state carry over from one to the next, and
+ * the volatile sink only makes it harder for the JIT to drop measured work,
+ * it does not rule it out. Treat the numbers as a guide to where time goes
+ * rather than as precise per-operation costs.
+ *
+ * Usage: java Benchmarks [sizes, default 10000,1000000] [output, default benchmark-results.json] [name filter]
+ * 10M users needs a large heap, e.g. java -Xmx8g Benchmarks 10000000
+ */
+class Benchmarks {
+
+    private static final int WARMUP = Integer.getInteger("agri.bench.warmup", 3);
+    private static final int ITERATIONS = Integer.getInteger("agri.bench.iterations", 5);
+    private static final long SEED = 42;
+
+    // Results are folded in here so the JIT cannot drop the measured work
+    static volatile long sink;
+
+    private interface Step {
+        long run() throws Exception;
+    }
+
+    private static final class Benchmark {
+        final String name;
+        final String unit;
+        final double nanosPerUnit;
+        final int opsPerIteration;
+        final Step setup;       // untimed, before every iteration; may be null
+        final Step body;
+
+        Benchmark(String name, String unit, int opsPerIteration, Step setup, Step body) {
+            this.name = name;
+            this.unit = unit;
+            this.nanosPerUnit = unit.equals("ms/op") ? 1e6 : unit.equals("us/op") ? 1e3 : 1;
+            this.opsPerIteration = opsPerIteration;
+            this.setup = setup;
+            this.body = body;
+        }
+    }
+
+    private static final class Result {
+        final String name;
+        final int size;
+        final String unit;
+        final double[] samples;
+
+        Result(String name, int size, String unit, double[] samples) {
+            this.name = name;
+            this.size = size;
+            this.unit = unit;
+            this.samples = samples;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (double sample : samples) {
+                sum += sample;
+            }
+            return sum / samples.length;
+        }
+
+        double error() {
+            if (samples.length < 2) {
+                return Double.NaN;
+            }
+            double mean = mean();
+            double squares = 0;
+            for (double sample : samples) {
+                squares += (sample - mean) * (sample - mean);
+            }
+            // Normal approximation of the 99.9% interval
+            return 3.291 * Math.sqrt(squares / (samples.length - 1)) / Math.sqrt(samples.length);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = (args.length > 0 ? args[0] : "10000,1000000").split(",");
+        Path output = Paths.get(args.length > 1 ? args[1] : "benchmark-results.json");
+        String filter = args.length > 2 ? args[2] : "";
+
+        List<Result> results = new ArrayList<>();
+        Path dir = Files.createTempDirectory("agri-bench");
+        try {
+            System.out.printf("%-28s %10s %14s %12s  %s%n", "benchmark", "users", "score", "error", "unit");
+            for (String size : sizes) {
+                int users = Integer.parseInt(size.trim());
+                for (Benchmark benchmark : benchmarks(generate(users), dir)) {
+                    if (benchmark.name.contains(filter)) {
+                        Result result = measure(benchmark, users);
+                        results.add(result);
+                        System.out.printf("%-28s %10d %14.3f %12.3f  %s%n",
+                                result.name, users, result.mean(), result.error(), result.unit);
+                    }
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+        writeJson(output, results);
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+
+    private static List<Benchmark> benchmarks(AgricultureService service, Path dir) throws IOException {
+        UserRegistry users = service.users();
+        int userCount = users.size();
+        Path text = dir.resolve("users.txt");
+        Path binary = dir.resolve("users.dat");
+        AgricultureManagementSystem.writeUserFile(text, users.all(), 0);
+        UserSnapshotFormat.write(binary, users.all(), 0);
+
+        List<Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.add(new Benchmark("saveUserData.text", "ms/op", 1, null, () -> {
+            AgricultureManagementSystem.writeUserFile(text, users.all(), 0);
+            return Files.size(text);
+        }));
+        benchmarks.add(new Benchmark("loadUserData.text", "ms/op", 1, null, () -> {
+            Map<String, User> loaded = new ConcurrentHashMap<>(userCount * 2);
+            return UserDataLoader.load(text, loaded).records;
+        }));
+        benchmarks.add(new Benchmark("saveUserData.binary", "ms/op", 1, null, () -> {
+            UserSnapshotFormat.write(binary, users.all(), 0);
+            return Files.size(binary);
+        }));
+        benchmarks.add(new Benchmark("loadUserData.binary", "ms/op", 1, null, () -> {
+            Map<String, User> loaded = new ConcurrentHashMap<>(userCount * 2);
+            UserSnapshotFormat.read(binary, loaded);
+            return loaded.size();
+        }));
+
+        benchmarks.add(new Benchmark("viewAllApplications", "us/op", 1000, null, () -> {
+            long total = 0;
+            for (int i = 0; i < 1000; i++) {
+                for (AgricultureService.SubsidySummary subsidy : service.applicationSummary()) {
+                    total += subsidy.pending + subsidy.approved;
+                }
+            }
+            return total;
+        }));
+        FarmerIndex.Query query = new FarmerIndex.Query();
+        query.location = "satara";
+        query.soilType = "black";
+        query.minLandSize = 10;
+        query.sort = FarmerIndex.Sort.LAND_DESCENDING;
+        benchmarks.add(new Benchmark("viewAllUsers.filtered", "us/op", 100, null, () -> {
+            long total = 0;
+            for (int i = 0; i < 100; i++) {
+                total += service.findFarmers(query, null, 20).users.size();
+            }
+            return total;
+        }));
+        benchmarks.add(new Benchmark("viewAllUsers.fullScan", "ms/op", 1, null, () -> {
+            long total = 0;
+            for (User user : users.all()) {
+                if (!user.isAdmin() && user.getLandSize() >= 10) {
+                    total += user.getUsername().length();
+                }
+            }
+            return total;
+        }));
+
+        ApprovalRule rule = ApprovalRule.parse("landSize <= 5 and soilType in Black, Alluvial");
+        benchmarks.add(new Benchmark("bulkApproval.plan", "ms/op", 1, null,
+                () -> service.planBulkApproval(1, rule).matches.length));
+
+        benchmarks.add(new Benchmark("recommendationReport", "ms/op", 1, null,
+                () -> service.regionReport().size()));
+
+        // A fresh subsidy with applicants from 10% of users for every iteration
+        int[] removable = new int[1];
+        benchmarks.add(new Benchmark("removeSubsidy", "ms/op", 1, () -> {
+            int[] id = new int[1];
+            CropCatalog.update(catalog -> id[0] = catalog.addSubsidy("Benchmark subsidy", "Temporary"));
+            removable[0] = id[0];
+            Random random = new Random(SEED);
+            for (User user : users.all()) {
+                if (random.nextInt(10) == 0) {
+                    service.applyForSubsidy(user, id[0]);
+                }
+            }
+            return 0;
+        }, () -> {
+            service.removeSubsidy(removable[0]);
+            return SubsidySweeper.sweep(users);
+        }));
+
+        User[] sample = users.all().stream().limit(100_000).toArray(User[]::new);
+        benchmarks.add(new Benchmark("userSubsidyMembership", "ns/op", 1_000_000, null, () -> {
+            Random random = new Random(SEED);
+            long hits = 0;
+            for (int i = 0; i < 1_000_000; i++) {
+                User user = sample[random.nextInt(sample.length)];
+                int id = 1 + random.nextInt(3);
+                if (user.hasAppliedForSubsidy(id) && user.isSubsidyApproved(id)) {
+                    hits++;
+                }
+            }
+            return hits;
+        }));
+        return benchmarks;
+    }
+
+    private static Result measure(Benchmark benchmark, int size) throws Exception {
+        double[] samples = new double[ITERATIONS];
+        for (int i = -WARMUP; i < ITERATIONS; i++) {
+            if (benchmark.setup != null) {
+                sink += benchmark.setup.run();
+            }
+            long start = System.nanoTime();
+            sink += benchmark.body.run();
+            long elapsed = System.nanoTime() - start;
+            if (i >= 0) {
+                samples[i] = elapsed / benchmark.nanosPerUnit / benchmark.opsPerIteration;
+            }
+        }
+        return new Result(benchmark.name, size, benchmark.unit, samples);
+    }
+
+    /** A registry of generated farmers, the same for every run. */
+    static AgricultureService generate(int userCount) {
+        UserRegistry users = new UserRegistry();
+        DatasetGenerator.populate(users, userCount, SEED);
+        return new AgricultureService(users, null, new CredentialVerifier(1, 1));
+    }
+
+    private static void writeJson(Path output, List<Result> results) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            out.write("[\n");
+            for (int r = 0; r < results.size(); r++) {
+                Result result = results.get(r);
+                StringBuilder raw = new StringBuilder();
+                for (int i = 0; i < result.samples.length; i++) {
+                    raw.append(i == 0 ? "" : ", ").append(number(result.samples[i]));
+                }
+                out.write("  {\n");
+                out.write("    \"benchmark\": \"" + result.name + "\",\n");
+                out.write("    \"mode\": \"avgt\",\n");
+                out.write("    \"warmupIterations\": " + WARMUP + ",\n");
+                out.write("    \"measurementIterations\": " + ITERATIONS + ",\n");
+                out.write("    \"params\": { \"users\": \"" + result.size + "\" },\n");
+                out.write("    \"primaryMetric\": {\n");
+                out.write("      \"score\": " + number(result.mean()) + ",\n");
+                out.write("      \"scoreError\": " + number(result.error()) + ",\n");
+                out.write("      \"scoreUnit\": \"" + result.unit + "\",\n");
+                out.write("      \"rawData\": [[" + raw + "]]\n");
+                out.write("    }\n");
+                out.write(r == results.size() - 1 ? "  }\n" : "  },\n");
+            }
+            out.write("]\n");
+        }
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) ? "\"NaN\"" : String.format(Locale.ROOT, "%.6f", value);
+    }
+}
@@ -0,0 +1,180 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Approves every pending application for a subsidy whose farmer meets an
+ * {@link ApprovalRule}, in two steps so the admin sees what will happen
+ * before anything changes.
+ *
+ * {@link #plan} is the dry run: it snapshots the pending applicants from the
+ * application index and evaluates the rule against all of them in parallel
+ * on the common fork-join pool, each task taking a slice of at least
+ * {@code SPLIT_THRESHOLD} applicants. It changes nothing and returns the
+ * matches together with how many applicants each condition turned away.
+ *
+ * {@link #apply} then approves the matches through the service, so every
+ * approval is indexed and logged like one made by hand, in batches of
+ * {@code agri.bulk.batch}. Each farmer is checked again under their lock
+ * right before approving, so one who changed their land details or was
+ * handled by another admin since the dry run is skipped, not approved.
+ * Matches past the subsidy's budget or their district's quota stay pending.
+ */
+final class BulkApproval {
+
+    private static final int BATCH_SIZE = Integer.getInteger("agri.bulk.batch", 10_000);
+    private static final int SPLIT_THRESHOLD = 4_096;
+
+    // Verdicts besides a failed condition's index
+    private static final int MATCHED = -1;
+    private static final int NOT_PENDING = -2;
+
+    static class Plan {
+        final int subsidyId;
+        final ApprovalRule rule;
+        final int scanned;          // pending applications when the plan was made
+        final int[] matches;        // ordinals of the farmers to approve, ascending
+        final int notPending;       // approved or withdrawn while the plan ran
+        final int[] failedBy;       // per condition, the applicants it was the first to turn away
+        final long elapsedNanos;
+
+        Plan(int subsidyId, ApprovalRule rule, int scanned, int[] matches, int notPending, int[] failedBy,
+             long elapsedNanos) {
+            this.subsidyId = subsidyId;
+            this.rule = rule;
+            this.scanned = scanned;
+            this.matches = matches;
+            this.notPending = notPending;
+            this.failedBy = failedBy;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    static class Result {
+        int approved;
+        int skipped;                // no longer pending or no longer matching
+        int overBudget;             // left pending, the subsidy's budget was spent
+        int overQuota;              // left pending, their district's quota was used up
+        int batches;
+        boolean subsidyRemoved;     // stopped early because the subsidy was removed
+        long elapsedNanos;
+    }
+
+    private BulkApproval() {
+    }
+
+    /** The dry run: which pending applications for the subsidy meet the rule. */
+    static Plan plan(UserRegistry users, int subsidyId, ApprovalRule rule) {
+        long start = System.nanoTime();
+        int[] pending = users.applicantOrdinals(subsidyId, SubsidyApplicationIndex.Status.PENDING);
+        int[] verdicts = new int[pending.length];
+        ForkJoinPool.commonPool().invoke(new Evaluate(users, subsidyId, rule, pending, verdicts, 0, pending.length));
+
+        int[] failedBy = new int[rule.conditionCount()];
+        int matched = 0;
+        int notPending = 0;
+        for (int verdict : verdicts) {
+            if (verdict == MATCHED) {
+                matched++;
+            } else if (verdict == NOT_PENDING) {
+                notPending++;
+            } else {
+                failedBy[verdict]++;
+            }
+        }
+        int[] matches = new int[matched];
+        for (int i = 0, m = 0; i < verdicts.length; i++) {
+            if (verdicts[i] == MATCHED) {
+                matches[m++] = pending[i];
+            }
+        }
+        return new Plan(subsidyId, rule, pending.length, matches, notPending, failedBy, System.nanoTime() - start);
+    }
+
+    /** Approves the plan's matches that still qualify; {@code progress} is told the count done after each batch. */
+    static Result apply(Plan plan, UserRegistry users, AgricultureService service, IntConsumer progress) {
+        long start = System.nanoTime();
+        Result result = new Result();
+        int[] matches = plan.matches;
+        for (int from = 0; from < matches.length; from += BATCH_SIZE) {
+            if (!CropCatalog.current().isActiveSubsidy(plan.subsidyId)) {
+                result.subsidyRemoved = true;
+                break;
+            }
+            int to = Math.min(matches.length, from + BATCH_SIZE);
+            for (int i = from; i < to; i++) {
+                User user = users.byOrdinal(matches[i]);
+                synchronized (user) {
+                    if (verdict(user, plan.subsidyId, plan.rule) != MATCHED) {
+                        result.skipped++;
+                        continue;
+                    }
+                    switch (service.approveInBatch(user, plan.subsidyId)) {
+                        case APPROVED:
+                            result.approved++;
+                            break;
+                        case OVER_BUDGET:
+                            result.overBudget++;
+                            break;
+                        case OVER_QUOTA:
+                            result.overQuota++;
+                            break;
+                        default:
+                            result.skipped++;
+                    }
+                }
+            }
+            // One wait per batch, outside the users' locks, instead of one per approval
+            service.awaitLogged();
+            result.batches++;
+            progress.accept(to);
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static int verdict(User user, int subsidyId, ApprovalRule rule) {
+        synchronized (user) {
+            if (!user.hasAppliedForSubsidy(subsidyId) || user.isSubsidyApproved(subsidyId)) {
+                return NOT_PENDING;
+            }
+            return rule.firstFailure(user.getLandSize(), AttributeDictionary.LOCATIONS.keyOf(user.getLocationCode()),
+                    AttributeDictionary.SOIL_TYPES.keyOf(user.getSoilTypeCode()));
+        }
+    }
+
+    // Writes the verdict for pending[from, to) into the same slots of verdicts
+    private static final class Evaluate extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final UserRegistry users;
+        private final int subsidyId;
+        private final ApprovalRule rule;
+        private final int[] pending;
+        private final int[] verdicts;
+        private final int from;
+        private final int to;
+
+        Evaluate(UserRegistry users, int subsidyId, ApprovalRule rule, int[] pending, int[] verdicts, int from, int to) {
+            this.users = users;
+            this.subsidyId = subsidyId;
+            this.rule = rule;
+            this.pending = pending;
+            this.verdicts = verdicts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    verdicts[i] = verdict(users.byOrdinal(pending[i]), subsidyId, rule);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Evaluate(users, subsidyId, rule, pending, verdicts, from, middle),
+                    new Evaluate(users, subsidyId, rule, pending, verdicts, middle, to));
+        }
+    }
+}
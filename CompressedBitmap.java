@@ -0,0 +1,206 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Compressed set of non-negative ints in the style of a Roaring bitmap.
+ *
+ * Values are grouped by their high 16 bits. Each group is stored either as
+ * a sorted char array (sparse, up to 4096 values) or as a 65536-bit bitmap
+ * (dense), switching representation as it fills or empties. Membership and
+ * updates cost a binary search over the groups plus O(1) or a small
+ * array shift inside one group; iteration visits only populated groups.
+ *
+ * Not thread-safe; callers synchronize.
+ */
+class CompressedBitmap {
+
+    private static final int ARRAY_LIMIT = 4096;
+
+    private int[] keys = new int[4];
+    private Object[] containers = new Object[4];   // char[] (sparse) or long[] (dense)
+    private int[] sizes = new int[4];
+    private int groups;
+    private int cardinality;
+
+    boolean add(int value) {
+        int key = value >>> 16;
+        char low = (char) value;
+        int g = Arrays.binarySearch(keys, 0, groups, key);
+        if (g < 0) {
+            g = insertGroup(-g - 1, key);
+        }
+
+        Object container = containers[g];
+        if (container instanceof long[]) {
+            long[] bits = (long[]) container;
+            long mask = 1L << low;
+            if ((bits[low >>> 6] & mask) != 0) {
+                return false;
+            }
+            bits[low >>> 6] |= mask;
+        } else {
+            char[] values = (char[]) container;
+            int size = sizes[g];
+            int pos = Arrays.binarySearch(values, 0, size, low);
+            if (pos >= 0) {
+                return false;
+            }
+            pos = -pos - 1;
+            if (size == ARRAY_LIMIT) {
+                long[] bits = toBits(values, size);
+                bits[low >>> 6] |= 1L << low;
+                containers[g] = bits;
+            } else {
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, size * 2));
+                    containers[g] = values;
+                }
+                System.arraycopy(values, pos, values, pos + 1, size - pos);
+                values[pos] = low;
+            }
+        }
+        sizes[g]++;
+        cardinality++;
+        return true;
+    }
+
+    boolean remove(int value) {
+        int g = Arrays.binarySearch(keys, 0, groups, value >>> 16);
+        if (g < 0) {
+            return false;
+        }
+        char low = (char) value;
+        Object container = containers[g];
+        if (container instanceof long[]) {
+            long[] bits = (long[]) container;
+            long mask = 1L << low;
+            if ((bits[low >>> 6] & mask) == 0) {
+                return false;
+            }
+            bits[low >>> 6] &= ~mask;
+            if (sizes[g] - 1 <= ARRAY_LIMIT / 2) {
+                containers[g] = toValues(bits, sizes[g] - 1);
+            }
+        } else {
+            char[] values = (char[]) container;
+            int pos = Arrays.binarySearch(values, 0, sizes[g], low);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(values, pos + 1, values, pos, sizes[g] - pos - 1);
+        }
+        cardinality--;
+        if (--sizes[g] == 0) {
+            removeGroup(g);
+        }
+        return true;
+    }
+
+    boolean contains(int value) {
+        int g = Arrays.binarySearch(keys, 0, groups, value >>> 16);
+        if (g < 0) {
+            return false;
+        }
+        char low = (char) value;
+        Object container = containers[g];
+        if (container instanceof long[]) {
+            return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) container, 0, sizes[g], low) >= 0;
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Visits values greater than {@code after} in ascending order until the
+     * visitor returns false. Returns the last value visited, or -1 if none.
+     */
+    int forEachAfter(int after, IntPredicate visitor) {
+        int start = after + 1;
+        int g = Arrays.binarySearch(keys, 0, groups, start >>> 16);
+        if (g < 0) {
+            g = -g - 1;
+        }
+        int last = -1;
+        for (; g < groups; g++) {
+            int high = keys[g] << 16;
+            int from = high >= start ? 0 : start & 0xFFFF;
+            Object container = containers[g];
+            if (container instanceof long[]) {
+                long[] bits = (long[]) container;
+                for (int word = from >>> 6; word < bits.length; word++) {
+                    long w = bits[word];
+                    if (word == from >>> 6) {
+                        w &= -1L << (from & 63);
+                    }
+                    while (w != 0) {
+                        int value = high | (word << 6) | Long.numberOfTrailingZeros(w);
+                        last = value;
+                        if (!visitor.test(value)) {
+                            return last;
+                        }
+                        w &= w - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[]) container;
+                int pos = Arrays.binarySearch(values, 0, sizes[g], (char) from);
+                for (pos = pos < 0 ? -pos - 1 : pos; pos < sizes[g]; pos++) {
+                    int value = high | values[pos];
+                    last = value;
+                    if (!visitor.test(value)) {
+                        return last;
+                    }
+                }
+            }
+        }
+        return last;
+    }
+
+    private int insertGroup(int g, int key) {
+        if (groups == keys.length) {
+            keys = Arrays.copyOf(keys, groups * 2);
+            containers = Arrays.copyOf(containers, groups * 2);
+            sizes = Arrays.copyOf(sizes, groups * 2);
+        }
+        System.arraycopy(keys, g, keys, g + 1, groups - g);
+        System.arraycopy(containers, g, containers, g + 1, groups - g);
+        System.arraycopy(sizes, g, sizes, g + 1, groups - g);
+        keys[g] = key;
+        containers[g] = new char[4];
+        sizes[g] = 0;
+        groups++;
+        return g;
+    }
+
+    private void removeGroup(int g) {
+        System.arraycopy(keys, g + 1, keys, g, groups - g - 1);
+        System.arraycopy(containers, g + 1, containers, g, groups - g - 1);
+        System.arraycopy(sizes, g + 1, sizes, g, groups - g - 1);
+        groups--;
+        containers[groups] = null;
+    }
+
+    private static long[] toBits(char[] values, int size) {
+        long[] bits = new long[1024];
+        for (int i = 0; i < size; i++) {
+            bits[values[i] >>> 6] |= 1L << values[i];
+        }
+        return bits;
+    }
+
+    private static char[] toValues(long[] bits, int size) {
+        char[] values = new char[Math.max(4, size)];
+        int n = 0;
+        for (int word = 0; word < bits.length; word++) {
+            long w = bits[word];
+            while (w != 0) {
+                values[n++] = (char) ((word << 6) | Long.numberOfTrailingZeros(w));
+                w &= w - 1;
+            }
+        }
+        return values;
+    }
+}
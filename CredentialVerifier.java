@@ -0,0 +1,96 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs password hashing on a small fixed pool so a burst of logins cannot
+ * take every core away from the other sessions.
+ *
+ * The pool has {@code agri.auth.threads} workers (default: one per core) and
+ * a queue of {@code agri.auth.queue} waiting requests. When both are full a
+ * request is turned away as {@link Result#BUSY} straight away rather than
+ * piling up; the session thread only waits, it never hashes.
+ */
+class CredentialVerifier {
+
+    enum Result { OK, WRONG_PASSWORD, BUSY }
+
+    private final ThreadPoolExecutor pool;
+
+    CredentialVerifier() {
+        this(Integer.getInteger("agri.auth.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("agri.auth.queue", 64));
+    }
+
+    CredentialVerifier(int threads, int queueSize) {
+        pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, "credential-verifier");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Checks the user's password. On success a plaintext or outdated hash is
+     * replaced with a fresh one and {@code onRehash} is told, so the change
+     * can be logged.
+     */
+    Result verify(User user, String password, Consumer<User> onRehash) {
+        Boolean ok = await(() -> {
+            String stored = user.getPassword();
+            if (!PasswordHasher.matches(stored, password)) {
+                return false;
+            }
+            if (PasswordHasher.needsRehash(stored) && user.replacePassword(stored, PasswordHasher.hash(password))) {
+                onRehash.accept(user);
+            }
+            return true;
+        });
+        if (ok == null) {
+            return Result.BUSY;
+        }
+        return ok ? Result.OK : Result.WRONG_PASSWORD;
+    }
+
+    /** Checks a password against a stored value without changing anything. */
+    Result check(String stored, String password) {
+        Boolean ok = await(() -> PasswordHasher.matches(stored, password));
+        if (ok == null) {
+            return Result.BUSY;
+        }
+        return ok ? Result.OK : Result.WRONG_PASSWORD;
+    }
+
+    /** Hashes a new password, or returns null if the pool is saturated. */
+    String hash(String password) {
+        return await(() -> PasswordHasher.hash(password));
+    }
+
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    private <T> T await(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = pool.submit(task);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,517 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Immutable snapshot of the crops (name, price, growing steps) and subsidies
+ * (description, details). The current snapshot is published through a single
+ * atomic reference: readers call {@link #current()} once and see one
+ * consistent version for as long as they hold it, without locking. Writers
+ * batch their changes in a {@link Builder} and publish with compare-and-set,
+ * retrying on top of whatever another writer published first.
+ *
+ * Subsidies have stable ids that are never reused. Removing one only marks
+ * it as a tombstone, so users keep pointing at the right subsidy and readers
+ * simply skip ids that are no longer active; {@link SubsidySweeper} later
+ * clears the dangling references and purges the tombstone.
+ *
+ * A subsidy may also carry a budget, paid out as a fixed amount per approved
+ * farmer, and quotas of approvals per district; {@link SubsidyBudgets}
+ * enforces them.
+ */
+final class CropCatalog {
+
+    private static final String HEADER = "#catalog";
+    private static final int FORMAT_VERSION = 3;
+
+    private static final AtomicReference<CropCatalog> CURRENT = new AtomicReference<>(defaults());
+    private static long savedVersion = -1;
+
+    private final long version;
+    private final String[] crops;
+    private final double[] prices;
+    private final String[] cropSteps;
+    private final Subsidy[] subsidies;      // every known id, ascending, tombstones included
+    private final Subsidy[] activeSubsidies;
+    private final int nextSubsidyId;
+
+    private CropCatalog(long version, String[] crops, double[] prices, String[] cropSteps,
+                        Subsidy[] subsidies, int nextSubsidyId) {
+        this.version = version;
+        this.crops = crops;
+        this.prices = prices;
+        this.cropSteps = cropSteps;
+        this.subsidies = subsidies;
+        this.activeSubsidies = Arrays.stream(subsidies).filter(sub -> !sub.removed).toArray(Subsidy[]::new);
+        this.nextSubsidyId = nextSubsidyId;
+    }
+
+    static final class Subsidy {
+        final int id;
+        final String description;
+        final String details;
+        final boolean removed;
+        final long amount;              // ₹ per approved farmer, 0 if not set
+        final long budget;              // ₹ for all approvals, 0 for no limit
+        final String[] quotaLocations;  // districts with a quota, as entered
+        final int[] quotas;             // approvals allowed in each
+        private final int[] quotaKeys;  // their location key codes
+
+        Subsidy(int id, String description, String details, boolean removed) {
+            this(id, description, details, removed, 0, 0, new String[0], new int[0]);
+        }
+
+        Subsidy(int id, String description, String details, boolean removed,
+                long amount, long budget, String[] quotaLocations, int[] quotas) {
+            this.id = id;
+            this.description = description;
+            this.details = details;
+            this.removed = removed;
+            this.amount = amount;
+            this.budget = budget;
+            this.quotaLocations = quotaLocations;
+            this.quotas = quotas;
+            quotaKeys = new int[quotaLocations.length];
+            for (int i = 0; i < quotaKeys.length; i++) {
+                quotaKeys[i] = AttributeDictionary.LOCATIONS.keyCode(quotaLocations[i]);
+            }
+        }
+
+        // The same budget and quotas under a new description or status
+        Subsidy with(String description, String details, boolean removed) {
+            return new Subsidy(id, description, details, removed, amount, budget, quotaLocations, quotas);
+        }
+
+        /** Approvals the budget pays for; Integer.MAX_VALUE without a budget. */
+        int approvalLimit() {
+            return budget > 0 && amount > 0 ? (int) Math.min(Integer.MAX_VALUE, budget / amount) : Integer.MAX_VALUE;
+        }
+
+        /** Approvals allowed in the district with the location key code; Integer.MAX_VALUE without a quota. */
+        int quota(int locationKey) {
+            for (int i = 0; i < quotaKeys.length; i++) {
+                if (quotaKeys[i] == locationKey) {
+                    return quotas[i];
+                }
+            }
+            return Integer.MAX_VALUE;
+        }
+
+        boolean hasLimits() {
+            return approvalLimit() != Integer.MAX_VALUE || quotas.length > 0;
+        }
+    }
+
+    static CropCatalog current() {
+        return CURRENT.get();
+    }
+
+    /** Applies a batch of changes atomically and returns the published snapshot. */
+    static CropCatalog update(Consumer<Builder> changes) {
+        while (true) {
+            CropCatalog base = CURRENT.get();
+            Builder builder = new Builder(base);
+            changes.accept(builder);
+            CropCatalog next = builder.build();
+            if (CURRENT.compareAndSet(base, next)) {
+                return next;
+            }
+        }
+    }
+
+    long version() {
+        return version;
+    }
+
+    int cropCount() {
+        return crops.length;
+    }
+
+    String crop(int index) {
+        return crops[index];
+    }
+
+    double price(int index) {
+        return prices[index];
+    }
+
+    String cropSteps(int index) {
+        return cropSteps[index];
+    }
+
+    int indexOfCrop(String name) {
+        for (int i = 0; i < crops.length; i++) {
+            if (crops[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Active subsidies by menu position (0-based)
+    int subsidyCount() {
+        return activeSubsidies.length;
+    }
+
+    int subsidyId(int index) {
+        return activeSubsidies[index].id;
+    }
+
+    String subsidy(int index) {
+        return activeSubsidies[index].description;
+    }
+
+    String subsidyDetails(int index) {
+        return activeSubsidies[index].details;
+    }
+
+    boolean isActiveSubsidy(int id) {
+        Subsidy subsidy = findSubsidy(subsidies, id);
+        return subsidy != null && !subsidy.removed;
+    }
+
+    /** Description of a subsidy by id, including removed ones not yet purged. */
+    String subsidyById(int id) {
+        Subsidy subsidy = findSubsidy(subsidies, id);
+        return subsidy == null ? "Subsidy " + id + " (removed)" : subsidy.description;
+    }
+
+    /** A subsidy by id, removed ones not yet purged included; null if there is none. */
+    Subsidy subsidyRecord(int id) {
+        return findSubsidy(subsidies, id);
+    }
+
+    /** Ids removed but still waiting for the sweep to clear user references. */
+    int[] tombstonedSubsidyIds() {
+        return Arrays.stream(subsidies).filter(sub -> sub.removed).mapToInt(sub -> sub.id).toArray();
+    }
+
+    private static Subsidy findSubsidy(Subsidy[] subsidies, int id) {
+        int low = 0;
+        int high = subsidies.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (subsidies[mid].id < id) {
+                low = mid + 1;
+            } else if (subsidies[mid].id > id) {
+                high = mid - 1;
+            } else {
+                return subsidies[mid];
+            }
+        }
+        return null;
+    }
+
+    static class Builder {
+        private final long baseVersion;
+        private final List<String> crops;
+        private final List<Double> prices = new ArrayList<>();
+        private final List<String> cropSteps;
+        private final List<Subsidy> subsidies;
+        private int nextSubsidyId;
+
+        private Builder(CropCatalog base) {
+            baseVersion = base.version;
+            crops = new ArrayList<>(Arrays.asList(base.crops));
+            for (double price : base.prices) {
+                prices.add(price);
+            }
+            cropSteps = new ArrayList<>(Arrays.asList(base.cropSteps));
+            subsidies = new ArrayList<>(Arrays.asList(base.subsidies));
+            nextSubsidyId = base.nextSubsidyId;
+        }
+
+        boolean setPrice(String crop, double price) {
+            int index = indexOf(crop);
+            if (index < 0) {
+                return false;
+            }
+            prices.set(index, price);
+            return true;
+        }
+
+        Builder addCrop(String crop, double price, String steps) {
+            crops.add(crop);
+            prices.add(price);
+            cropSteps.add(steps);
+            return this;
+        }
+
+        boolean removeCrop(String crop) {
+            int index = indexOf(crop);
+            if (index < 0) {
+                return false;
+            }
+            crops.remove(index);
+            prices.remove(index);
+            cropSteps.remove(index);
+            return true;
+        }
+
+        boolean setSubsidy(int id, String description, String details) {
+            int index = indexOfSubsidy(id);
+            if (index < 0 || subsidies.get(index).removed) {
+                return false;
+            }
+            subsidies.set(index, subsidies.get(index).with(description, details, false));
+            return true;
+        }
+
+        /** Sets what each approval pays and the total budget, 0 for no limit; the amount must be set for a budget. */
+        boolean setSubsidyBudget(int id, long amount, long budget) {
+            int index = indexOfSubsidy(id);
+            if (index < 0 || subsidies.get(index).removed || amount < 0 || budget < 0 || (budget > 0 && amount == 0)) {
+                return false;
+            }
+            Subsidy subsidy = subsidies.get(index);
+            subsidies.set(index, new Subsidy(id, subsidy.description, subsidy.details, false, amount, budget,
+                    subsidy.quotaLocations, subsidy.quotas));
+            return true;
+        }
+
+        /** Sets the approvals allowed in a district, or removes its quota if {@code quota} is negative. */
+        boolean setSubsidyQuota(int id, String location, int quota) {
+            int index = indexOfSubsidy(id);
+            String key = AttributeDictionary.key(location);
+            if (index < 0 || subsidies.get(index).removed || key.isEmpty()) {
+                return false;
+            }
+            Subsidy subsidy = subsidies.get(index);
+            List<String> locations = new ArrayList<>();
+            List<Integer> quotas = new ArrayList<>();
+            for (int i = 0; i < subsidy.quotaLocations.length; i++) {
+                if (!AttributeDictionary.key(subsidy.quotaLocations[i]).equals(key)) {
+                    locations.add(subsidy.quotaLocations[i]);
+                    quotas.add(subsidy.quotas[i]);
+                }
+            }
+            if (quota >= 0) {
+                locations.add(location.trim());
+                quotas.add(quota);
+            }
+            subsidies.set(index, new Subsidy(id, subsidy.description, subsidy.details, false, subsidy.amount,
+                    subsidy.budget, locations.toArray(new String[0]), quotas.stream().mapToInt(Integer::intValue).toArray()));
+            return true;
+        }
+
+        /** Adds a subsidy under a fresh id and returns the id. */
+        int addSubsidy(String description, String details) {
+            int id = nextSubsidyId++;
+            subsidies.add(new Subsidy(id, description, details, false));
+            return id;
+        }
+
+        // Leaves a tombstone; users are cleaned up later by the sweep
+        boolean removeSubsidy(int id) {
+            int index = indexOfSubsidy(id);
+            if (index < 0 || subsidies.get(index).removed) {
+                return false;
+            }
+            Subsidy subsidy = subsidies.get(index);
+            subsidies.set(index, subsidy.with(subsidy.description, subsidy.details, true));
+            return true;
+        }
+
+        // Forgets a tombstone once no user refers to it; the id is still never reused
+        void purgeSubsidy(int id) {
+            int index = indexOfSubsidy(id);
+            if (index >= 0 && subsidies.get(index).removed) {
+                subsidies.remove(index);
+            }
+        }
+
+        private int indexOfSubsidy(int id) {
+            for (int i = 0; i < subsidies.size(); i++) {
+                if (subsidies.get(i).id == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int indexOf(String crop) {
+            for (int i = 0; i < crops.size(); i++) {
+                if (crops.get(i).equalsIgnoreCase(crop)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private CropCatalog build() {
+            double[] priceArray = new double[prices.size()];
+            for (int i = 0; i < priceArray.length; i++) {
+                priceArray[i] = prices.get(i);
+            }
+            return new CropCatalog(baseVersion + 1,
+                    crops.toArray(new String[0]),
+                    priceArray,
+                    cropSteps.toArray(new String[0]),
+                    subsidies.toArray(new Subsidy[0]),
+                    nextSubsidyId);
+        }
+    }
+
+    /**
+     * Saves the current snapshot unless a newer one is already on disk.
+     * Writes go to a temp file that is renamed over the old catalog.
+     */
+    static synchronized void save(Path file) throws IOException {
+        CropCatalog catalog = current();
+        if (catalog.version <= savedVersion) {
+            return;
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER + "|" + FORMAT_VERSION + "|" + catalog.version + "|" + catalog.nextSubsidyId);
+            writer.newLine();
+            for (int i = 0; i < catalog.crops.length; i++) {
+                writer.write("crop|" + escape(catalog.crops[i]) + "|" + catalog.prices[i] + "|" + escape(catalog.cropSteps[i]));
+                writer.newLine();
+            }
+            for (Subsidy subsidy : catalog.subsidies) {
+                writer.write("subsidy|" + subsidy.id + "|" + subsidy.removed + "|"
+                        + escape(subsidy.description) + "|" + escape(subsidy.details)
+                        + "|" + subsidy.amount + "|" + subsidy.budget);
+                writer.newLine();
+                for (int i = 0; i < subsidy.quotas.length; i++) {
+                    writer.write("quota|" + subsidy.id + "|" + subsidy.quotas[i] + "|" + escape(subsidy.quotaLocations[i]));
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        savedVersion = catalog.version;
+    }
+
+    /** Loads a saved catalog and publishes it; returns false if there is no file. */
+    static synchronized boolean load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+
+        List<String> crops = new ArrayList<>();
+        List<Double> prices = new ArrayList<>();
+        List<String> steps = new ArrayList<>();
+        List<Subsidy> subsidies = new ArrayList<>();
+        long version;
+        int nextSubsidyId = 1;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String[] header = split(reader.readLine());
+            if (header.length < 3 || !header[0].equals(HEADER)) {
+                throw new IOException("Not a catalog file: " + file);
+            }
+            int format = Integer.parseInt(header[1]);
+            if (format > FORMAT_VERSION) {
+                throw new IOException("Catalog format version " + format + " is newer than this program");
+            }
+            version = Long.parseLong(header[2]);
+            if (header.length > 3) {
+                nextSubsidyId = Integer.parseInt(header[3]);
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = split(line);
+                if (parts[0].equals("crop") && parts.length == 4) {
+                    crops.add(parts[1]);
+                    prices.add(Double.parseDouble(parts[2]));
+                    steps.add(parts[3]);
+                } else if (parts[0].equals("subsidy") && (parts.length == 5 || parts.length == 7)) {
+                    // Version 2 had no budget
+                    subsidies.add(new Subsidy(Integer.parseInt(parts[1]), parts[3], parts[4], Boolean.parseBoolean(parts[2]),
+                            parts.length == 7 ? Long.parseLong(parts[5]) : 0, parts.length == 7 ? Long.parseLong(parts[6]) : 0,
+                            new String[0], new int[0]));
+                } else if (parts[0].equals("quota") && parts.length == 4 && !subsidies.isEmpty()
+                        && subsidies.get(subsidies.size() - 1).id == Integer.parseInt(parts[1])) {
+                    // Quotas follow their subsidy's line
+                    Subsidy subsidy = subsidies.get(subsidies.size() - 1);
+                    String[] locations = Arrays.copyOf(subsidy.quotaLocations, subsidy.quotaLocations.length + 1);
+                    int[] quotas = Arrays.copyOf(subsidy.quotas, subsidy.quotas.length + 1);
+                    locations[locations.length - 1] = parts[3];
+                    quotas[quotas.length - 1] = Integer.parseInt(parts[2]);
+                    subsidies.set(subsidies.size() - 1, new Subsidy(subsidy.id, subsidy.description, subsidy.details,
+                            subsidy.removed, subsidy.amount, subsidy.budget, locations, quotas));
+                } else if (parts[0].equals("subsidy") && parts.length == 3) {
+                    // Version 1 had no ids; users referred to subsidies by position, which becomes the id
+                    subsidies.add(new Subsidy(subsidies.size() + 1, parts[1], parts[2], false));
+                }
+            }
+        }
+
+        double[] priceArray = new double[prices.size()];
+        for (int i = 0; i < priceArray.length; i++) {
+            priceArray[i] = prices.get(i);
+        }
+        for (Subsidy subsidy : subsidies) {
+            if (subsidy.id < 0 || subsidy.id > SubsidySet.MAX_NUMBER) {
+                throw new IOException("Subsidy id " + subsidy.id + " is out of range");
+            }
+            nextSubsidyId = Math.max(nextSubsidyId, subsidy.id + 1);
+        }
+        CURRENT.set(new CropCatalog(version, crops.toArray(new String[0]), priceArray,
+                steps.toArray(new String[0]), subsidies.toArray(new Subsidy[0]), nextSubsidyId));
+        savedVersion = version;
+        return true;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("|", "\\p").replace("\n", "\\n");
+    }
+
+    // Splits on unescaped '|' and undoes escape()
+    private static String[] split(String line) {
+        if (line == null) {
+            return new String[0];
+        }
+        List<String> parts = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                current.append(next == 'p' ? '|' : next == 'n' ? '\n' : next);
+            } else if (c == '|') {
+                parts.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        parts.add(current.toString());
+        return parts.toArray(new String[0]);
+    }
+
+    private static CropCatalog defaults() {
+        return new CropCatalog(0,
+            new String[]{"Wheat", "Corn", "Bajra", "Jute", "Cotton"},
+            new double[]{2000.0, 1800.0, 2200.0, 2500.0, 3000.0},
+            new String[]{
+                "Wheat Steps: 1. Prepare well-drained soil. 2. Sow seeds in November. 3. Irrigate regularly. 4. Harvest in March-April.",
+                "Corn Steps: 1. Choose fertile soil. 2. Sow seeds in May-June. 3. Provide adequate water. 4. Harvest after 90-120 days.",
+                "Bajra Steps: 1. Use sandy loam soil. 2. Sow seeds in July. 3. Ensure proper drainage. 4. Harvest after 60-90 days.",
+                "Jute Steps: 1. Use alluvial soil. 2. Sow seeds in March-April. 3. Keep soil moist. 4. Harvest after 120-150 days.",
+                "Cotton Steps: 1. Use black soil. 2. Sow seeds in May-June. 3. Provide regular irrigation. 4. Harvest after 150-180 days."
+            },
+            new Subsidy[]{
+                new Subsidy(1, "Subsidy 1: 50% subsidy on fertilizers.",
+                    "Details for Subsidy 1: This subsidy provides a 50% discount on fertilizers for all registered farmers. Valid until December 2023.", false),
+                new Subsidy(2, "Subsidy 2: Interest-free loans for small farmers.",
+                    "Details for Subsidy 2: Small farmers can avail interest-free loans up to ₹1,00,000. Contact your nearest agriculture office for more details.", false),
+                new Subsidy(3, "Subsidy 3: Free seeds for organic farming.",
+                    "Details for Subsidy 3: Free seeds for organic farming are available for farmers practicing sustainable agriculture. Apply online at www.agri-subsidy.gov.in.", false)
+            },
+            4);
+    }
+}
@@ -0,0 +1,413 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every price tick of every crop, kept as an append-only time series.
+ *
+ * Each crop's ticks are stored in fixed-size chunks of parallel long[] times
+ * and double[] prices, in time order, and each chunk keeps its own min, max
+ * and sum. A range query binary-searches the two partial chunks at its ends
+ * and takes the aggregates of the full chunks in between, so
+ * min/max/avg/last over any range never boxes and touches at most two chunks'
+ * worth of ticks.
+ *
+ * Ticks are also appended to a small binary file (crop, time, price per
+ * record) that is read back on startup; a torn record at the tail is
+ * cut off. Ticks older than the crop's latest one are rejected, which keeps
+ * each series sorted.
+ */
+class CropPriceHistory {
+
+    private static final int MAGIC = 0x41475453; // "AGTS"
+    private static final int FORMAT_VERSION = 1;
+    private static final int CHUNK_SIZE = 4096;
+
+    /** Aggregates over a time range; {@code count == 0} when there were no ticks. */
+    static final class Stats {
+        int count;
+        double min = Double.NaN;
+        double max = Double.NaN;
+        double sum;
+        double last = Double.NaN;
+        long lastTime = -1;
+
+        double average() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        private void add(long time, double price) {
+            if (count == 0 || price < min) {
+                min = price;
+            }
+            if (count == 0 || price > max) {
+                max = price;
+            }
+            count++;
+            sum += price;
+            last = price;
+            lastTime = time;
+        }
+
+        private void add(Chunk chunk) {
+            if (count == 0 || chunk.min < min) {
+                min = chunk.min;
+            }
+            if (count == 0 || chunk.max > max) {
+                max = chunk.max;
+            }
+            count += chunk.size;
+            sum += chunk.sum;
+            last = chunk.prices[chunk.size - 1];
+            lastTime = chunk.times[chunk.size - 1];
+        }
+    }
+
+    private static final class Chunk {
+        final long[] times = new long[CHUNK_SIZE];
+        final double[] prices = new double[CHUNK_SIZE];
+        int size;
+        double min;
+        double max;
+        double sum;
+    }
+
+    private static final class Series {
+        final List<Chunk> chunks = new ArrayList<>();
+
+        boolean append(long time, double price) {
+            Chunk tail = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (tail != null && time < tail.times[tail.size - 1]) {
+                return false;
+            }
+            if (tail == null || tail.size == CHUNK_SIZE) {
+                tail = new Chunk();
+                tail.min = price;
+                tail.max = price;
+                chunks.add(tail);
+            }
+            tail.times[tail.size] = time;
+            tail.prices[tail.size] = price;
+            tail.size++;
+            tail.min = Math.min(tail.min, price);
+            tail.max = Math.max(tail.max, price);
+            tail.sum += price;
+            return true;
+        }
+
+        // Index of the first chunk whose last tick is at or after the given time
+        int firstChunkEndingAtOrAfter(long time) {
+            int low = 0;
+            int high = chunks.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                Chunk chunk = chunks.get(mid);
+                if (chunk.times[chunk.size - 1] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private final Path file;
+    private final ConcurrentHashMap<String, Series> series = new ConcurrentHashMap<>();
+    private DataOutputStream out;
+
+    CropPriceHistory(Path file) {
+        this.file = file;
+    }
+
+    /** Reads the ticks already on disk and opens the file for appending; returns the tick count. */
+    synchronized int open() throws IOException {
+        int count = 0;
+        long validLength = 8;
+        boolean exists = Files.exists(file);
+        if (exists) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a price history file: " + file);
+                }
+                int version = in.readInt();
+                if (version > FORMAT_VERSION) {
+                    throw new IOException("Price history format version " + version + " is newer than this program");
+                }
+                while (true) {
+                    String crop;
+                    long time;
+                    double price;
+                    try {
+                        crop = in.readUTF();
+                        time = in.readLong();
+                        price = in.readDouble();
+                    } catch (EOFException e) {
+                        break; // end of file, or a torn record at the tail
+                    }
+                    validLength += 2 + utfLength(crop) + 16;
+                    if (seriesFor(crop).append(time, price)) {
+                        count++;
+                    }
+                }
+            } catch (EOFException | NoSuchFileException e) {
+                exists = false; // empty or vanished file: start over
+            }
+        }
+        if (exists && Files.size(file) > validLength) {
+            // Cut a torn record off so new ticks are not appended after it
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                exists ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)));
+        if (!exists) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.flush();
+        }
+        return count;
+    }
+
+    /** Records a tick at the current time. */
+    boolean record(String crop, double price) {
+        return record(crop, System.currentTimeMillis(), price);
+    }
+
+    /** Records a tick; returns false if it is older than the crop's latest tick. */
+    boolean record(String crop, long time, double price) {
+        return record(crop, time, price, true);
+    }
+
+    /**
+     * Records a tick without flushing the file, for bulk loads that call
+     * {@link #flush()} once per batch.
+     */
+    boolean recordBuffered(String crop, long time, double price) {
+        return record(crop, time, price, false);
+    }
+
+    private boolean record(String crop, long time, double price, boolean flush) {
+        Series s = seriesFor(crop);
+        synchronized (s) {
+            if (!s.append(time, price)) {
+                return false;
+            }
+            // Still under the series lock so the file keeps each crop in time order
+            persist(crop, time, price, flush);
+        }
+        return true;
+    }
+
+    boolean hasHistory(String crop) {
+        return series.containsKey(key(crop));
+    }
+
+    /** Time of the crop's latest tick, or Long.MIN_VALUE if it has none. */
+    long latestTime(String crop) {
+        Series s = series.get(key(crop));
+        if (s == null) {
+            return Long.MIN_VALUE;
+        }
+        synchronized (s) {
+            if (s.chunks.isEmpty()) {
+                return Long.MIN_VALUE;
+            }
+            Chunk tail = s.chunks.get(s.chunks.size() - 1);
+            return tail.times[tail.size - 1];
+        }
+    }
+
+    /** Min, max, average and last price of the crop between {@code from} and {@code to}, inclusive. */
+    Stats stats(String crop, long from, long to) {
+        Stats stats = new Stats();
+        Series s = series.get(key(crop));
+        if (s == null || from > to) {
+            return stats;
+        }
+        synchronized (s) {
+            for (int c = s.firstChunkEndingAtOrAfter(from); c < s.chunks.size(); c++) {
+                Chunk chunk = s.chunks.get(c);
+                if (chunk.times[0] > to) {
+                    break;
+                }
+                if (chunk.times[0] >= from && chunk.times[chunk.size - 1] <= to) {
+                    stats.add(chunk);
+                    continue;
+                }
+                int end = upperBound(chunk, to);
+                for (int i = lowerBound(chunk, from); i < end; i++) {
+                    stats.add(chunk.times[i], chunk.prices[i]);
+                }
+            }
+        }
+        return stats;
+    }
+
+    /** Whether the crop has a tick at exactly this time. */
+    boolean hasTick(String crop, long time) {
+        Series s = series.get(key(crop));
+        if (s == null) {
+            return false;
+        }
+        synchronized (s) {
+            int c = s.firstChunkEndingAtOrAfter(time);
+            if (c == s.chunks.size()) {
+                return false;
+            }
+            Chunk chunk = s.chunks.get(c);
+            int i = lowerBound(chunk, time);
+            return i < chunk.size && chunk.times[i] == time;
+        }
+    }
+
+    /** The last price at or before the given time, or NaN if there was none. */
+    double priceAt(String crop, long time) {
+        Series s = series.get(key(crop));
+        if (s == null) {
+            return Double.NaN;
+        }
+        synchronized (s) {
+            int c = s.firstChunkEndingAtOrAfter(time);
+            if (c < s.chunks.size()) {
+                int i = upperBound(s.chunks.get(c), time) - 1;
+                if (i >= 0) {
+                    return s.chunks.get(c).prices[i];
+                }
+            }
+            if (c == 0) {
+                return Double.NaN;
+            }
+            Chunk previous = s.chunks.get(c - 1);
+            return previous.prices[previous.size - 1];
+        }
+    }
+
+    /**
+     * Average price per bucket over {@code buckets} equal slices of the
+     * range; NaN for buckets without ticks.
+     */
+    double[] downsample(String crop, long from, long to, int buckets) {
+        double[] sums = new double[buckets];
+        int[] counts = new int[buckets];
+        Series s = series.get(key(crop));
+        if (s != null && from <= to) {
+            double width = (double) (to - from + 1) / buckets;
+            synchronized (s) {
+                for (int c = s.firstChunkEndingAtOrAfter(from); c < s.chunks.size(); c++) {
+                    Chunk chunk = s.chunks.get(c);
+                    if (chunk.times[0] > to) {
+                        break;
+                    }
+                    int end = upperBound(chunk, to);
+                    for (int i = lowerBound(chunk, from); i < end; i++) {
+                        int bucket = Math.min(buckets - 1, (int) ((chunk.times[i] - from) / width));
+                        sums[bucket] += chunk.prices[i];
+                        counts[bucket]++;
+                    }
+                }
+            }
+        }
+        for (int b = 0; b < buckets; b++) {
+            sums[b] = counts[b] == 0 ? Double.NaN : sums[b] / counts[b];
+        }
+        return sums;
+    }
+
+    synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    synchronized void flush() {
+        try {
+            if (out != null) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("Error saving price history: " + e.getMessage());
+        }
+    }
+
+    private synchronized void persist(String crop, long time, double price, boolean flush) {
+        if (out == null) {
+            return; // not opened: keep the tick in memory only
+        }
+        try {
+            out.writeUTF(crop);
+            out.writeLong(time);
+            out.writeDouble(price);
+            if (flush) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("Error saving price history: " + e.getMessage());
+        }
+    }
+
+    // Bytes writeUTF uses for the string, after its two-byte length
+    private static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return length;
+    }
+
+    private Series seriesFor(String crop) {
+        return series.computeIfAbsent(key(crop), k -> new Series());
+    }
+
+    // Crop names are case-insensitive, as in the catalog
+    private static String key(String crop) {
+        return crop.toLowerCase(Locale.ROOT);
+    }
+
+    // First tick at or after the time
+    private static int lowerBound(Chunk chunk, long time) {
+        int low = 0;
+        int high = chunk.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chunk.times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // First tick after the time
+    private static int upperBound(Chunk chunk, long time) {
+        int low = 0;
+        int high = chunk.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chunk.times[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,347 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+/**
+ * Recommends crops for a farmer's soil type and region.
+ *
+ * Every crop gets structured suitability attributes: a fit from 0 to 1 for
+ * each soil type and the regions (states) where it is mainly grown. Crops we
+ * know get agronomic defaults; any other crop gets its soil fit from the
+ * soils its growing steps name ("Use black soil") and no preferred region.
+ *
+ * From those and the current prices a table is precomputed with a ranked
+ * crop list for every (soil type, region) pair, so a lookup is two hash
+ * lookups and an array index. A crop's score is its soil fit, times 1 in a
+ * preferred region, 0.6 outside them or 0.8 if it has none, times its price
+ * relative to the dearest crop. Locations are districts, mapped to their
+ * state where we know it; anything else is its own region, with no
+ * preferences.
+ *
+ * The table follows the catalog: a lookup that finds the catalog changed
+ * rebuilds it first, once. Only what changed is redone; a price change
+ * re-ranks with the attributes already derived, a subsidy change keeps the
+ * table, and attributes are only derived for crops that are new or whose
+ * steps changed.
+ */
+final class CropRecommender {
+
+    static final String[] SOILS = {"Black", "Alluvial", "Red", "Laterite", "Sandy", "Clay"};
+    private static final int UNKNOWN_SOIL = SOILS.length;   // no or unrecognised soil type: neutral fit
+
+    private static final Map<String, String> STATE_OF_DISTRICT = new HashMap<>();
+    private static final Map<String, Suitability> KNOWN_CROPS = new HashMap<>();
+
+    static {
+        districts("Maharashtra", "Pune", "Nashik", "Kolhapur", "Satara", "Sangli", "Solapur", "Ahmednagar",
+                "Aurangabad", "Jalgaon", "Nagpur", "Amravati", "Latur", "Beed", "Osmanabad", "Nanded", "Parbhani",
+                "Yavatmal", "Akola", "Buldhana", "Wardha", "Chandrapur", "Dhule", "Ratnagiri", "Sindhudurg");
+        districts("Punjab", "Ludhiana", "Bathinda", "Amritsar", "Patiala", "Jalandhar");
+        districts("Haryana", "Karnal", "Hisar", "Sirsa", "Kurukshetra");
+        districts("Uttar Pradesh", "Meerut", "Agra", "Lucknow", "Bareilly", "Muzaffarnagar");
+        districts("Madhya Pradesh", "Indore", "Bhopal", "Ujjain", "Jabalpur");
+        districts("Andhra Pradesh", "Guntur", "Krishna", "Kurnool");
+        districts("Karnataka", "Belgaum", "Dharwad", "Mandya", "Mysore", "Davangere");
+        districts("Tamil Nadu", "Coimbatore", "Thanjavur", "Madurai", "Salem");
+        districts("West Bengal", "Bardhaman", "Nadia", "Murshidabad", "Hooghly");
+        districts("Odisha", "Cuttack", "Puri", "Balasore");
+        districts("Gujarat", "Rajkot", "Ahmedabad", "Junagadh", "Surat");
+        districts("Rajasthan", "Jaipur", "Jodhpur", "Bikaner", "Barmer");
+
+        // Soil fit in SOILS order: black, alluvial, red, laterite, sandy, clay
+        crop("Wheat", new double[]{0.7, 1.0, 0.4, 0.2, 0.3, 0.6},
+                "Punjab", "Haryana", "Uttar Pradesh", "Madhya Pradesh", "Rajasthan");
+        crop("Corn", new double[]{0.7, 0.9, 0.8, 0.5, 0.5, 0.4},
+                "Karnataka", "Andhra Pradesh", "Maharashtra", "Madhya Pradesh");
+        crop("Bajra", new double[]{0.5, 0.5, 0.7, 0.4, 1.0, 0.2},
+                "Rajasthan", "Haryana", "Maharashtra", "Gujarat", "Uttar Pradesh");
+        crop("Jute", new double[]{0.2, 1.0, 0.3, 0.3, 0.2, 0.6},
+                "West Bengal", "Odisha", "Assam", "Bihar");
+        crop("Cotton", new double[]{1.0, 0.6, 0.5, 0.2, 0.3, 0.4},
+                "Maharashtra", "Gujarat", "Telangana", "Punjab", "Andhra Pradesh");
+        crop("Rice", new double[]{0.5, 1.0, 0.5, 0.6, 0.2, 0.9},
+                "West Bengal", "Punjab", "Andhra Pradesh", "Tamil Nadu", "Odisha", "Uttar Pradesh");
+        crop("Sugarcane", new double[]{0.9, 0.9, 0.5, 0.4, 0.2, 0.6},
+                "Uttar Pradesh", "Maharashtra", "Karnataka", "Tamil Nadu");
+        crop("Groundnut", new double[]{0.5, 0.5, 0.9, 0.5, 0.9, 0.2},
+                "Gujarat", "Andhra Pradesh", "Tamil Nadu", "Rajasthan");
+        crop("Soybean", new double[]{1.0, 0.6, 0.5, 0.3, 0.3, 0.5},
+                "Madhya Pradesh", "Maharashtra", "Rajasthan");
+    }
+
+    /** Structured suitability of one crop. */
+    static final class Suitability {
+        final double[] soilFit;         // by SOILS index, plus a neutral fit for unknown soil
+        final String[] regions;         // lower-case state names; empty means grown anywhere
+
+        Suitability(double[] soilFit, String[] regions) {
+            this.soilFit = Arrays.copyOf(soilFit, SOILS.length + 1);
+            this.soilFit[UNKNOWN_SOIL] = 0.5;
+            this.regions = regions;
+        }
+    }
+
+    static final class Recommendation {
+        final String crop;
+        final double price;
+        final double soilFit;
+        final boolean preferredRegion;
+        final double score;
+
+        Recommendation(String crop, double price, double soilFit, boolean preferredRegion, double score) {
+            this.crop = crop;
+            this.price = price;
+            this.soilFit = soilFit;
+            this.preferredRegion = preferredRegion;
+            this.score = score;
+        }
+    }
+
+    /** Farmers of one region and the crop ranked first for each of them. */
+    static final class RegionSummary {
+        final String[] crops;
+        int farmers;
+        double acres;
+        final int[] topCropFarmers;
+        final double[] topCropAcres;
+
+        RegionSummary(String[] crops) {
+            this.crops = crops;
+            this.topCropFarmers = new int[crops.length];
+            this.topCropAcres = new double[crops.length];
+        }
+
+        private RegionSummary merge(RegionSummary other) {
+            farmers += other.farmers;
+            acres += other.acres;
+            for (int i = 0; i < crops.length; i++) {
+                topCropFarmers[i] += other.topCropFarmers[i];
+                topCropAcres[i] += other.topCropAcres[i];
+            }
+            return this;
+        }
+    }
+
+    private static final class Table {
+        final CropCatalog catalog;
+        final String[] crops;
+        final String[] steps;
+        final double[] prices;
+        final Suitability[] suitability;
+        final Map<String, Integer> regionIndex;     // lower-case region -> index; 0 is "no preference"
+        final Recommendation[][][] ranked;          // [soil][region] -> crops, best first
+
+        Table(CropCatalog catalog, String[] crops, String[] steps, double[] prices, Suitability[] suitability,
+              Map<String, Integer> regionIndex, Recommendation[][][] ranked) {
+            this.catalog = catalog;
+            this.crops = crops;
+            this.steps = steps;
+            this.prices = prices;
+            this.suitability = suitability;
+            this.regionIndex = regionIndex;
+            this.ranked = ranked;
+        }
+
+        int cropIndex(String crop) {
+            for (int i = 0; i < crops.length; i++) {
+                if (crops[i].equals(crop)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    // Attributes derived from steps text, keyed by crop name and steps so an edit is re-derived
+    private static final Map<String, Suitability> DERIVED = new ConcurrentHashMap<>();
+    private static volatile Table table;
+
+    private CropRecommender() {
+    }
+
+    /** Crops for the soil type and location, best first. Never null; empty only without crops. */
+    static Recommendation[] recommend(String soilType, String location) {
+        Table t = table();
+        int region = t.regionIndex.getOrDefault(region(location).toLowerCase(Locale.ROOT), 0);
+        return t.ranked[soilIndex(soilType)][region];
+    }
+
+    /**
+     * For every region, how many farmers and acres it has and which crop is
+     * ranked first for how many of them. Users are scanned in parallel.
+     */
+    static Map<String, RegionSummary> regionReport(Collection<User> users) {
+        Table t = table();
+        Collector<User, RegionSummary, RegionSummary> summarize = Collector.of(
+                () -> new RegionSummary(t.crops),
+                (summary, user) -> {
+                    double acres;
+                    String soilType;
+                    String location;
+                    synchronized (user) {
+                        acres = user.getLandSize();
+                        soilType = user.getSoilType();
+                        location = user.getLocation();
+                    }
+                    summary.farmers++;
+                    summary.acres += acres;
+                    Recommendation[] ranked = recommend(soilType, location);
+                    if (ranked.length > 0) {
+                        int crop = t.cropIndex(ranked[0].crop);
+                        if (crop >= 0) {
+                            summary.topCropFarmers[crop]++;
+                            summary.topCropAcres[crop] += acres;
+                        }
+                    }
+                },
+                RegionSummary::merge);
+        return users.parallelStream()
+                .filter(user -> !user.isAdmin() && hasValue(user.getLocation()))
+                .collect(Collectors.groupingBy(user -> region(user.getLocation()), TreeMap::new, summarize));
+    }
+
+    /** The state a district is in, or the location itself, trimmed and capitalised. */
+    static String region(String location) {
+        if (!hasValue(location)) {
+            return "";
+        }
+        String key = location.trim().toLowerCase(Locale.ROOT);
+        String state = STATE_OF_DISTRICT.get(key);
+        return state != null ? state : Character.toUpperCase(key.charAt(0)) + key.substring(1);
+    }
+
+    private static Table table() {
+        Table t = table;
+        CropCatalog catalog = CropCatalog.current();
+        if (t != null && t.catalog == catalog) {
+            return t;
+        }
+        synchronized (CropRecommender.class) {
+            t = table;
+            if (t == null || t.catalog != CropCatalog.current()) {
+                table = t = rebuild(t, CropCatalog.current());
+            }
+            return t;
+        }
+    }
+
+    private static Table rebuild(Table previous, CropCatalog catalog) {
+        int count = catalog.cropCount();
+        String[] crops = new String[count];
+        String[] steps = new String[count];
+        double[] prices = new double[count];
+        for (int i = 0; i < count; i++) {
+            crops[i] = catalog.crop(i);
+            steps[i] = catalog.cropSteps(i);
+            prices[i] = catalog.price(i);
+        }
+        boolean sameCrops = previous != null && Arrays.equals(crops, previous.crops) && Arrays.equals(steps, previous.steps);
+        if (sameCrops && Arrays.equals(prices, previous.prices)) {
+            // e.g. a subsidy change: same table, newer catalog
+            return new Table(catalog, crops, steps, prices, previous.suitability, previous.regionIndex, previous.ranked);
+        }
+
+        Suitability[] suitability;
+        Map<String, Integer> regionIndex;
+        if (sameCrops) {
+            suitability = previous.suitability;
+            regionIndex = previous.regionIndex;
+        } else {
+            suitability = new Suitability[count];
+            regionIndex = new HashMap<>();
+            regionIndex.put("", 0);
+            for (int i = 0; i < count; i++) {
+                suitability[i] = suitability(crops[i], steps[i]);
+                for (String region : suitability[i].regions) {
+                    regionIndex.putIfAbsent(region, regionIndex.size());
+                }
+            }
+        }
+
+        double maxPrice = 0;
+        for (double price : prices) {
+            maxPrice = Math.max(maxPrice, price);
+        }
+        String[] regions = new String[regionIndex.size()];
+        regionIndex.forEach((region, index) -> regions[index] = region);
+        Recommendation[][][] ranked = new Recommendation[SOILS.length + 1][regions.length][];
+        for (int soil = 0; soil <= SOILS.length; soil++) {
+            for (int region = 0; region < regions.length; region++) {
+                Recommendation[] list = new Recommendation[count];
+                for (int i = 0; i < count; i++) {
+                    Suitability s = suitability[i];
+                    boolean preferred = Arrays.asList(s.regions).contains(regions[region]);
+                    double regionFactor = s.regions.length == 0 ? 0.8 : preferred ? 1.0 : 0.6;
+                    double priceFactor = maxPrice > 0 ? prices[i] / maxPrice : 1;
+                    list[i] = new Recommendation(crops[i], prices[i], s.soilFit[soil], preferred,
+                            s.soilFit[soil] * regionFactor * priceFactor);
+                }
+                Arrays.sort(list, (a, b) -> Double.compare(b.score, a.score));
+                ranked[soil][region] = list;
+            }
+        }
+        return new Table(catalog, crops, steps, prices, suitability, regionIndex, ranked);
+    }
+
+    private static Suitability suitability(String crop, String steps) {
+        Suitability known = KNOWN_CROPS.get(crop.trim().toLowerCase(Locale.ROOT));
+        if (known != null) {
+            return known;
+        }
+        return DERIVED.computeIfAbsent(crop + "\n" + steps, key -> {
+            // Soils the steps name fit well, the others poorly; naming none says nothing
+            String text = steps.toLowerCase(Locale.ROOT);
+            double[] fit = new double[SOILS.length];
+            boolean named = false;
+            for (int i = 0; i < SOILS.length; i++) {
+                if (text.contains(SOILS[i].toLowerCase(Locale.ROOT))) {
+                    fit[i] = 1.0;
+                    named = true;
+                }
+            }
+            for (int i = 0; i < SOILS.length; i++) {
+                if (fit[i] == 0) {
+                    fit[i] = named ? 0.4 : 0.5;
+                }
+            }
+            return new Suitability(fit, new String[0]);
+        });
+    }
+
+    private static int soilIndex(String soilType) {
+        if (hasValue(soilType)) {
+            String soil = soilType.trim();
+            for (int i = 0; i < SOILS.length; i++) {
+                if (SOILS[i].equalsIgnoreCase(soil)) {
+                    return i;
+                }
+            }
+        }
+        return UNKNOWN_SOIL;
+    }
+
+    private static boolean hasValue(String value) {
+        return value != null && !value.trim().isEmpty() && !value.equals("null");
+    }
+
+    private static void districts(String state, String... districts) {
+        for (String district : districts) {
+            STATE_OF_DISTRICT.put(district.toLowerCase(Locale.ROOT), state);
+        }
+        STATE_OF_DISTRICT.put(state.toLowerCase(Locale.ROOT), state);
+    }
+
+    private static void crop(String name, double[] soilFit, String... states) {
+        String[] regions = new String[states.length];
+        for (int i = 0; i < states.length; i++) {
+            regions[i] = states[i].toLowerCase(Locale.ROOT);
+        }
+        KNOWN_CROPS.put(name.toLowerCase(Locale.ROOT), new Suitability(soilFit, regions));
+    }
+}
@@ -0,0 +1,258 @@
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams farmers or subsidy applications to a CSV or JSON-lines file.
+ *
+ * The format follows the file name: {@code .csv} or {@code .jsonl}, plus
+ * {@code .gz} to gzip it. Farmers are read from the farmer index with the
+ * same filters and order as View All Users, and applications from the
+ * application index, a page of {@code PAGE_SIZE} at a time, and every row is
+ * written as soon as it is read. Nothing holds more than one page, so memory
+ * stays flat however many users there are. The file is written next to the
+ * target and renamed into place when complete, so a failed export never
+ * leaves half a file behind. Passwords are never exported.
+ */
+final class DataExporter {
+
+    private static final int PAGE_SIZE = 1_000;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String[] USER_COLUMNS = {
+        "username", "fullName", "landSize", "location", "soilType", "applications", "approved"
+    };
+    private static final String[] APPLICATION_COLUMNS = {
+        "subsidyId", "subsidy", "status", "username", "fullName", "landSize", "location", "soilType"
+    };
+
+    static class Report {
+        long rows;
+        long bytes;
+        long elapsedNanos;
+    }
+
+    /** Which applications to export; null means all of them. */
+    static class ApplicationFilter {
+        Integer subsidyId;
+        SubsidyApplicationIndex.Status status;
+    }
+
+    private interface Rows {
+        void write(RowWriter out) throws IOException;
+    }
+
+    private DataExporter() {
+    }
+
+    /** Exports the farmers matching the query, in its order. */
+    static Report exportUsers(AgricultureService service, FarmerIndex.Query query, Path file) throws IOException {
+        return export(file, USER_COLUMNS, out -> {
+            FarmerIndex.Cursor cursor = null;
+            do {
+                FarmerIndex.Page page = service.findFarmers(query, cursor, PAGE_SIZE);
+                for (User user : page.users) {
+                    StringBuilder applications = new StringBuilder();
+                    StringBuilder approved = new StringBuilder();
+                    Object[] row;
+                    synchronized (user) {
+                        user.forEachSubsidyApplication(id -> applications.append(applications.length() == 0 ? "" : ";").append(id));
+                        user.forEachApprovedSubsidy(id -> approved.append(approved.length() == 0 ? "" : ";").append(id));
+                        row = new Object[]{user.getUsername(), user.getFullName(), user.getLandSize(),
+                            user.getLocation(), user.getSoilType(), applications.toString(), approved.toString()};
+                    }
+                    out.row(row);
+                }
+                cursor = page.next;
+            } while (cursor != null);
+        });
+    }
+
+    /** Exports applications for the active subsidies, by subsidy and status, in registration order. */
+    static Report exportApplications(AgricultureService service, ApplicationFilter filter, Path file) throws IOException {
+        return export(file, APPLICATION_COLUMNS, out -> {
+            CropCatalog catalog = CropCatalog.current();
+            for (int i = 0; i < catalog.subsidyCount(); i++) {
+                int subsidyId = catalog.subsidyId(i);
+                if (filter.subsidyId != null && filter.subsidyId != subsidyId) {
+                    continue;
+                }
+                for (SubsidyApplicationIndex.Status status : SubsidyApplicationIndex.Status.values()) {
+                    if (filter.status != null && filter.status != status) {
+                        continue;
+                    }
+                    String statusName = status.name().toLowerCase(Locale.ROOT);
+                    int cursor = -1;
+                    do {
+                        SubsidyApplicationIndex.Page page = service.applicants(subsidyId, status, cursor, PAGE_SIZE);
+                        for (User user : page.users) {
+                            Object[] row;
+                            synchronized (user) {
+                                row = new Object[]{subsidyId, catalog.subsidy(i), statusName, user.getUsername(),
+                                    user.getFullName(), user.getLandSize(), user.getLocation(), user.getSoilType()};
+                            }
+                            out.row(row);
+                        }
+                        cursor = page.nextCursor;
+                    } while (cursor >= 0);
+                }
+            }
+        });
+    }
+
+    private static Report export(Path file, String[] columns, Rows rows) throws IOException {
+        long start = System.nanoTime();
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        boolean gzip = name.endsWith(".gz");
+        if (gzip) {
+            name = name.substring(0, name.length() - 3);
+        }
+        boolean json;
+        if (name.endsWith(".jsonl") || name.endsWith(".json")) {
+            json = true;
+        } else if (name.endsWith(".csv")) {
+            json = false;
+        } else {
+            throw new IOException("Export file must end in .csv or .jsonl, optionally followed by .gz");
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Report report = new Report();
+        boolean done = false;
+        try (CountingOutputStream counted = new CountingOutputStream(Files.newOutputStream(temp))) {
+            OutputStream target = gzip ? new GZIPOutputStream(counted, BUFFER_SIZE) : counted;
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                RowWriter out = new RowWriter(writer, columns, json);
+                rows.write(out);
+                report.rows = out.rows;
+            }
+            report.bytes = counted.count;
+            done = true;
+        } finally {
+            if (!done) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    // Formats rows as CSV (header line first) or as one JSON object per line
+    private static final class RowWriter {
+        private final Writer writer;
+        private final String[] columns;
+        private final boolean json;
+        long rows;
+
+        RowWriter(Writer writer, String[] columns, boolean json) throws IOException {
+            this.writer = writer;
+            this.columns = columns;
+            this.json = json;
+            if (!json) {
+                for (int i = 0; i < columns.length; i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    writer.write(columns[i]);
+                }
+                writer.write('\n');
+            }
+        }
+
+        void row(Object[] values) throws IOException {
+            if (json) {
+                writer.write('{');
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    writer.write('"');
+                    writer.write(columns[i]);
+                    writer.write("\":");
+                    writeJson(values[i]);
+                }
+                writer.write("}\n");
+            } else {
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    writeCsv(values[i]);
+                }
+                writer.write('\n');
+            }
+            rows++;
+        }
+
+        private void writeCsv(Object value) throws IOException {
+            String text = text(value);
+            if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+                writer.write(text);
+                return;
+            }
+            writer.write('"');
+            writer.write(text.replace("\"", "\"\""));
+            writer.write('"');
+        }
+
+        private void writeJson(Object value) throws IOException {
+            if (value instanceof Number) {
+                writer.write(value.toString());
+                return;
+            }
+            if (value == null || "null".equals(value)) {
+                writer.write("null");
+                return;
+            }
+            String text = value.toString();
+            writer.write('"');
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"' || c == '\\') {
+                    writer.write('\\');
+                    writer.write(c);
+                } else if (c < 0x20) {
+                    writer.write(String.format("\\u%04x", (int) c));
+                } else {
+                    writer.write(c);
+                }
+            }
+            writer.write('"');
+        }
+
+        // Users without land details hold the text "null" once saved and loaded
+        private static String text(Object value) {
+            return value == null || "null".equals(value) ? "" : value.toString();
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Generates synthetic farmers for capacity planning, deterministically from
+ * a seed: the same seed and count always give the same users.
+ *
+ * - Land size is log-normal with a median of about 2.5 acres and a long
+ *   tail, like smallholder holdings; 8% of farmers have not entered land
+ *   details yet.
+ * - Districts follow a Zipf-like popularity, and each district has a
+ *   dominant soil type that 70% of its farmers share; the rest follow the
+ *   national mix.
+ * - About 40% of farmers have applied for one or more of the current
+ *   subsidies, and 40% of applications are approved.
+ * - Passwords are "pw" + the user number in plaintext, as in older data
+ *   files, so they are hashed on first login like migrated users.
+ *
+ * Usage: java DatasetGenerator [users] [seed] [output, default user.txt]
+ * An output ending in .dat is written in the binary snapshot format.
+ */
+class DatasetGenerator {
+
+    private static final String[] DISTRICTS = {
+        "Pune", "Nashik", "Kolhapur", "Satara", "Sangli", "Solapur", "Ahmednagar", "Aurangabad",
+        "Jalgaon", "Nagpur", "Amravati", "Latur", "Beed", "Osmanabad", "Nanded", "Parbhani",
+        "Yavatmal", "Akola", "Buldhana", "Wardha", "Chandrapur", "Dhule", "Ratnagiri", "Sindhudurg",
+        "Ludhiana", "Bathinda", "Karnal", "Hisar", "Meerut", "Agra", "Indore", "Guntur",
+        "Belgaum", "Dharwad", "Mandya", "Coimbatore", "Thanjavur", "Bardhaman", "Nadia", "Cuttack"
+    };
+    private static final String[] SOILS = {"Black", "Alluvial", "Red", "Laterite", "Sandy", "Clay"};
+    // Cumulative national soil mix: 30% black, 25% alluvial, 20% red, ...
+    private static final double[] SOIL_MIX = {0.30, 0.55, 0.75, 0.85, 0.93, 1.0};
+
+    private final SplittableRandom random;
+    private final double[] districtWeights = new double[DISTRICTS.length];
+    private final int[] subsidyIds;
+
+    DatasetGenerator(long seed) {
+        random = new SplittableRandom(seed);
+        // Zipf-like: the n-th district has weight 1 / n^0.8
+        double total = 0;
+        for (int i = 0; i < DISTRICTS.length; i++) {
+            total += 1.0 / Math.pow(i + 1, 0.8);
+            districtWeights[i] = total;
+        }
+        for (int i = 0; i < DISTRICTS.length; i++) {
+            districtWeights[i] /= total;
+        }
+        CropCatalog catalog = CropCatalog.current();
+        subsidyIds = new int[catalog.subsidyCount()];
+        for (int i = 0; i < subsidyIds.length; i++) {
+            subsidyIds[i] = catalog.subsidyId(i);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        Path output = Paths.get(args.length > 2 ? args[2] : "user.txt");
+
+        long start = System.nanoTime();
+        DatasetGenerator generator = new DatasetGenerator(seed);
+        if (output.toString().endsWith(".dat")) {
+            List<User> users = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                users.add(generator.next(i));
+            }
+            UserSnapshotFormat.write(output, users, 0);
+        } else {
+            // Streamed, so any count fits in memory
+            try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+                writer.write(UserWriteAheadLog.checkpointLine(0));
+                writer.newLine();
+                for (int i = 0; i < count; i++) {
+                    writer.write(AgricultureManagementSystem.formatUserRecord(generator.next(i)));
+                    writer.newLine();
+                }
+            }
+        }
+        System.out.printf("Wrote %d users to %s in %.1f s (seed %d).%n",
+                count, output, (System.nanoTime() - start) / 1e9, seed);
+    }
+
+    /** Registers {@code count} generated farmers through the registry, so they are indexed too. */
+    static void populate(UserRegistry users, int count, long seed) {
+        DatasetGenerator generator = new DatasetGenerator(seed);
+        for (int i = 0; i < count; i++) {
+            User generated = generator.next(i);
+            User user = new User(generated.getUsername(), generated.getPassword(), generated.getFullName());
+            users.register(user);
+            if (generated.getLocation() != null) {
+                users.setLandDetails(user, generated.getLandSize(), generated.getLocation(), generated.getSoilType());
+            }
+            generated.forEachSubsidyApplication(id -> {
+                users.applyForSubsidy(user, id);
+                if (generated.isSubsidyApproved(id)) {
+                    users.approveSubsidy(user, id);
+                }
+            });
+        }
+    }
+
+    /** The farmer with the given number; call with 0, 1, 2, ... in order. */
+    User next(int number) {
+        User user = new User("farmer" + number, "pw" + number, "Farmer " + number);
+        if (random.nextDouble() >= 0.08) {
+            int district = pick(districtWeights);
+            String soil = random.nextDouble() < 0.7 ? SOILS[district % SOILS.length] : SOILS[pick(SOIL_MIX)];
+            double acres = Math.exp(0.9 + 0.9 * random.nextGaussian());
+            user.setLandDetails(Math.max(0.1, Math.round(acres * 10) / 10.0), DISTRICTS[district], soil);
+        }
+        if (subsidyIds.length > 0 && random.nextDouble() < 0.4) {
+            // One application, then each further one with falling probability
+            do {
+                int id = subsidyIds[random.nextInt(subsidyIds.length)];
+                user.addSubsidyApplication(id);
+                if (random.nextDouble() < 0.4) {
+                    user.approveSubsidy(id);
+                }
+            } while (random.nextDouble() < 0.35);
+        }
+        return user;
+    }
+
+    // Index drawn from cumulative weights ending at 1
+    private int pick(double[] cumulative) {
+        double roll = random.nextDouble();
+        for (int i = 0; i < cumulative.length - 1; i++) {
+            if (roll < cumulative[i]) {
+                return i;
+            }
+        }
+        return cumulative.length - 1;
+    }
+}
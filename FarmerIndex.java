@@ -0,0 +1,315 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Secondary indexes over farmers (non-admin users) for admin queries.
+ *
+ * Location and soil type each map, by their case-insensitive key code in
+ * {@link AttributeDictionary}, to a compressed bitmap of user ordinals, so
+ * finding a filter's bitmap is an array lookup, and land size maps through
+ * fixed-width buckets to the same kind of bitmap, so equality filters are
+ * bitmap intersections and a land size range is a run of buckets, checked
+ * exactly only in the two at its ends. The index keeps its own copy of every
+ * farmer's land size by ordinal, so queries never touch a user's lock.
+ *
+ * Results come in registration order or by land size, a page at a time,
+ * with a cursor to continue from. Registration order walks the most
+ * selective bitmap from the cursor, so a page costs about a page of work.
+ * Land size order walks the buckets from the cursor's, sorting each one's
+ * matches, unless the equality filters already narrow the result to a few
+ * thousand farmers, in which case those are collected and sorted directly.
+ *
+ * The registry updates the index while holding the user's lock, right after
+ * changing the user, as it does for subsidy applications.
+ */
+class FarmerIndex {
+
+    private static final int CHUNK_BITS = 16;
+    // Below this many candidates a land size sort collects and sorts instead of walking the buckets
+    private static final int SORT_IN_MEMORY = 65_536;
+    // Bucket i holds land sizes from i to i + 1 bucket widths; the last one also holds everything larger
+    private static final double LAND_BUCKET_WIDTH = 1.0;
+    private static final int LAND_BUCKETS = 4096;
+
+    enum Sort { REGISTRATION, LAND_ASCENDING, LAND_DESCENDING }
+
+    /** Filters and order of a farmer query; null or NaN means "any". */
+    static class Query {
+        String location;
+        String soilType;
+        double minLandSize = Double.NaN;
+        double maxLandSize = Double.NaN;
+        Sort sort = Sort.REGISTRATION;
+    }
+
+    /** Position after the last farmer returned; null starts from the beginning. */
+    static final class Cursor {
+        final double landSize;
+        final int ordinal;
+
+        Cursor(double landSize, int ordinal) {
+            this.landSize = landSize;
+            this.ordinal = ordinal;
+        }
+    }
+
+    static class Page {
+        final List<User> users;
+        final Cursor next;      // null when there are no more
+        final int total;        // matches in all pages; only counted for the first page, else -1
+
+        Page(List<User> users, Cursor next, int total) {
+            this.users = users;
+            this.next = next;
+            this.total = total;
+        }
+    }
+
+    private final CompressedBitmap all = new CompressedBitmap();
+    // Bitmaps by key code; null where no farmer has the key
+    private CompressedBitmap[] byLocation = new CompressedBitmap[64];
+    private CompressedBitmap[] bySoil = new CompressedBitmap[16];
+    // Bitmaps by land size bucket; null where no farmer's size falls in it
+    private CompressedBitmap[] byLandSize = new CompressedBitmap[64];
+    private double[][] landSizes = new double[16][];
+
+    /** Adds a farmer with the user's current land details. Call under the user's lock. */
+    synchronized void add(User user) {
+        if (user.isAdmin()) {
+            return;
+        }
+        int ordinal = user.getOrdinal();
+        all.add(ordinal);
+        byLocation = add(byLocation, AttributeDictionary.LOCATIONS.keyOf(user.getLocationCode()), ordinal);
+        bySoil = add(bySoil, AttributeDictionary.SOIL_TYPES.keyOf(user.getSoilTypeCode()), ordinal);
+        byLandSize = add(byLandSize, landBucket(user.getLandSize()), ordinal);
+        setLandSize(ordinal, user.getLandSize());
+    }
+
+    /** Removes a farmer as of the user's current land details. Call under the user's lock. */
+    synchronized void remove(User user) {
+        if (user.isAdmin() || !all.remove(user.getOrdinal())) {
+            return;
+        }
+        int ordinal = user.getOrdinal();
+        removeFrom(byLocation, AttributeDictionary.LOCATIONS.keyOf(user.getLocationCode()), ordinal);
+        removeFrom(bySoil, AttributeDictionary.SOIL_TYPES.keyOf(user.getSoilTypeCode()), ordinal);
+        removeFrom(byLandSize, landBucket(user.getLandSize()), ordinal);
+    }
+
+    /** Returns up to {@code limit} farmers matching the query, continuing after {@code cursor}. */
+    Page find(Query query, Cursor cursor, int limit, IntFunction<User> byOrdinal) {
+        int[] ordinals;
+        Cursor next;
+        int total;
+        synchronized (this) {
+            List<CompressedBitmap> filters = new ArrayList<>(2);
+            if (query.location != null
+                    && !addFilter(filters, byLocation, AttributeDictionary.LOCATIONS.findKey(query.location))) {
+                return new Page(new ArrayList<>(), null, 0);
+            }
+            if (query.soilType != null
+                    && !addFilter(filters, bySoil, AttributeDictionary.SOIL_TYPES.findKey(query.soilType))) {
+                return new Page(new ArrayList<>(), null, 0);
+            }
+            filters.sort((a, b) -> Integer.compare(a.cardinality(), b.cardinality()));
+
+            total = cursor == null ? count(filters, query) : -1;
+            int[] page = new int[limit + 1];
+            int found;
+            if (query.sort == Sort.REGISTRATION) {
+                found = walkByOrdinal(filters, query, cursor, page);
+            } else if (!filters.isEmpty() && filters.get(0).cardinality() <= SORT_IN_MEMORY) {
+                found = addSorted(filters.get(0), filters, query, cursor, page, 0);
+            } else {
+                found = walkByLandSize(filters, query, cursor, page);
+            }
+            ordinals = Arrays.copyOf(page, Math.min(found, limit));
+            next = found > limit ? cursorAt(page[limit - 1]) : null;
+        }
+
+        List<User> users = new ArrayList<>(ordinals.length);
+        for (int ordinal : ordinals) {
+            users.add(byOrdinal.apply(ordinal));
+        }
+        return new Page(users, next, total);
+    }
+
+    private int walkByOrdinal(List<CompressedBitmap> filters, Query query, Cursor cursor, int[] page) {
+        CompressedBitmap driver = filters.isEmpty() ? all : filters.get(0);
+        int[] found = new int[1];
+        driver.forEachAfter(cursor == null ? -1 : cursor.ordinal, ordinal -> {
+            if (matches(filters, query, ordinal)) {
+                page[found[0]++] = ordinal;
+            }
+            return found[0] < page.length;
+        });
+        return found[0];
+    }
+
+    // Adds the driver's matches after the cursor to the page, in land size order; returns the new count
+    private int addSorted(CompressedBitmap driver, List<CompressedBitmap> filters, Query query, Cursor cursor,
+                          int[] page, int found) {
+        boolean descending = query.sort == Sort.LAND_DESCENDING;
+        List<Integer> candidates = new ArrayList<>();
+        driver.forEachAfter(-1, ordinal -> {
+            if (matches(filters, query, ordinal) && (cursor == null
+                    || compare(landSize(ordinal), ordinal, cursor.landSize, cursor.ordinal, descending) > 0)) {
+                candidates.add(ordinal);
+            }
+            return true;
+        });
+        candidates.sort((a, b) -> compare(landSize(a), a, landSize(b), b, descending));
+
+        for (int ordinal : candidates) {
+            if (found == page.length) {
+                break;
+            }
+            page[found++] = ordinal;
+        }
+        return found;
+    }
+
+    private int walkByLandSize(List<CompressedBitmap> filters, Query query, Cursor cursor, int[] page) {
+        int from = landBucket(minLandSize(query));
+        int to = Math.min(landBucket(maxLandSize(query)), byLandSize.length - 1);
+        boolean descending = query.sort == Sort.LAND_DESCENDING;
+        if (cursor != null) {
+            if (descending) {
+                to = Math.min(to, landBucket(cursor.landSize));
+            } else {
+                from = Math.max(from, landBucket(cursor.landSize));
+            }
+        }
+        int found = 0;
+        for (int i = descending ? to : from; i >= from && i <= to && found < page.length; i += descending ? -1 : 1) {
+            if (byLandSize[i] != null) {
+                found = addSorted(byLandSize[i], filters, query, cursor, page, found);
+            }
+        }
+        return found;
+    }
+
+    private int count(List<CompressedBitmap> filters, Query query) {
+        if (filters.isEmpty()) {
+            if (Double.isNaN(query.minLandSize) && Double.isNaN(query.maxLandSize)) {
+                return all.cardinality();
+            }
+            // Buckets inside the range match whole; the two at its ends are checked farmer by farmer
+            int from = landBucket(minLandSize(query));
+            int to = Math.min(landBucket(maxLandSize(query)), byLandSize.length - 1);
+            int[] total = new int[1];
+            for (int i = from; i <= to; i++) {
+                CompressedBitmap bucket = byLandSize[i];
+                if (bucket == null) {
+                    continue;
+                }
+                if (i > from && i < to) {
+                    total[0] += bucket.cardinality();
+                } else {
+                    bucket.forEachAfter(-1, ordinal -> {
+                        if (matches(filters, query, ordinal)) {
+                            total[0]++;
+                        }
+                        return true;
+                    });
+                }
+            }
+            return total[0];
+        }
+        int[] total = new int[1];
+        filters.get(0).forEachAfter(-1, ordinal -> {
+            if (matches(filters, query, ordinal)) {
+                total[0]++;
+            }
+            return true;
+        });
+        return total[0];
+    }
+
+    private boolean matches(List<CompressedBitmap> filters, Query query, int ordinal) {
+        if (!inAll(filters, ordinal)) {
+            return false;
+        }
+        double size = landSize(ordinal);
+        return (Double.isNaN(query.minLandSize) || size >= query.minLandSize)
+                && (Double.isNaN(query.maxLandSize) || size <= query.maxLandSize);
+    }
+
+    private static boolean inAll(List<CompressedBitmap> filters, int ordinal) {
+        for (CompressedBitmap filter : filters) {
+            if (!filter.contains(ordinal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static double minLandSize(Query query) {
+        return Double.isNaN(query.minLandSize) ? Double.NEGATIVE_INFINITY : query.minLandSize;
+    }
+
+    private static double maxLandSize(Query query) {
+        return Double.isNaN(query.maxLandSize) ? Double.POSITIVE_INFINITY : query.maxLandSize;
+    }
+
+    // Sizes below the first bucket, and NaN, go in it; sizes past the last go in the last
+    private static int landBucket(double size) {
+        return size > 0 ? (int) Math.min(LAND_BUCKETS - 1, size / LAND_BUCKET_WIDTH) : 0;
+    }
+
+    // Land size order, then registration order among equal sizes
+    private static int compare(double sizeA, int ordinalA, double sizeB, int ordinalB, boolean descending) {
+        int bySize = descending ? Double.compare(sizeB, sizeA) : Double.compare(sizeA, sizeB);
+        return bySize != 0 ? bySize : Integer.compare(ordinalA, ordinalB);
+    }
+
+    private Cursor cursorAt(int ordinal) {
+        return new Cursor(landSize(ordinal), ordinal);
+    }
+
+    // A key no farmer has, or one never seen at all (-1), matches nobody
+    private static boolean addFilter(List<CompressedBitmap> filters, CompressedBitmap[] index, int keyCode) {
+        if (keyCode < 0 || keyCode >= index.length || index[keyCode] == null) {
+            return false;
+        }
+        filters.add(index[keyCode]);
+        return true;
+    }
+
+    // Returns the index, grown if the key code is past its end
+    private static CompressedBitmap[] add(CompressedBitmap[] index, int keyCode, int ordinal) {
+        if (keyCode >= index.length) {
+            index = Arrays.copyOf(index, Math.max(keyCode + 1, index.length * 2));
+        }
+        if (index[keyCode] == null) {
+            index[keyCode] = new CompressedBitmap();
+        }
+        index[keyCode].add(ordinal);
+        return index;
+    }
+
+    private static void removeFrom(CompressedBitmap[] index, int keyCode, int ordinal) {
+        CompressedBitmap bitmap = keyCode < index.length ? index[keyCode] : null;
+        if (bitmap != null && bitmap.remove(ordinal) && bitmap.cardinality() == 0) {
+            index[keyCode] = null;
+        }
+    }
+
+    private double landSize(int ordinal) {
+        return landSizes[ordinal >>> CHUNK_BITS][ordinal & ((1 << CHUNK_BITS) - 1)];
+    }
+
+    private void setLandSize(int ordinal, double size) {
+        int chunk = ordinal >>> CHUNK_BITS;
+        if (chunk >= landSizes.length) {
+            landSizes = Arrays.copyOf(landSizes, Math.max(chunk + 1, landSizes.length * 2));
+        }
+        if (landSizes[chunk] == null) {
+            landSizes[chunk] = new double[1 << CHUNK_BITS];
+        }
+        landSizes[chunk][ordinal & ((1 << CHUNK_BITS) - 1)] = size;
+    }
+}
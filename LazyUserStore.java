@@ -0,0 +1,728 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Users kept in user.txt and materialized on demand
+ * ({@code -Dagri.users.cache=N}, text snapshots only).
+ *
+ * Startup reads the file once to build a username-to-offset table: an
+ * open-addressing array of longs, each packing a 24-bit fingerprint of the
+ * name's hash with the offset of the user's line, about 13 bytes per user.
+ * A login or admin lookup probes the table and parses the one line it points
+ * to. Materialized users are held in an LRU cache of N; a changed user leaving
+ * it is written back by appending its record to the file and pointing the
+ * table at the new line, which the text loader already reads as "later lines
+ * win". A user still referenced after eviction, say by a logged-in session,
+ * is found again through a weak map, so no user is ever in memory twice.
+ *
+ * A log checkpoint writes back every changed user, syncs, then rewrites the
+ * fixed-width checkpoint line at the top of the file in place. On exit the
+ * file is rewritten compactly once superseded lines outnumber live ones.
+ *
+ * Views over every farmer (summaries, farmer queries, bulk approval,
+ * reports, exports) need the registry's indexes, so the first of them
+ * materializes everyone and the registry stays fully resident from then on.
+ * The exception is armed price alerts: the store remembers which users'
+ * latest lines carry one, so the registry can index those few at startup.
+ */
+final class LazyUserStore {
+
+    private static final int READ_SIZE = 256;
+    private static final int SCAN_BUFFER = 1 << 20;
+    // Sized with room for a fifth more users before the table has to grow
+    private static final double INITIAL_LOAD = 0.6;
+    private static final double MAX_LOAD = 0.8;
+
+    // The canonical copy of a materialized user and the offset of its latest line
+    private static final class UserRef extends WeakReference<User> {
+        final String username;
+        volatile long offset;       // -1 until a registered user is first written
+
+        UserRef(User user, long offset, ReferenceQueue<User> queue) {
+            super(user, queue);
+            this.username = user.getUsername();
+            this.offset = offset;
+        }
+    }
+
+    private interface LineVisitor {
+        void visit(long offset, byte[] buffer, int from, int to) throws IOException;
+    }
+
+    private final Path file;
+    private final int capacity;
+    private final UserRegistry registry;
+    private final Map<String, UserRef> live = new ConcurrentHashMap<>();
+    private final ReferenceQueue<User> collected = new ReferenceQueue<>();
+    private final LinkedHashMap<String, User> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Object registration = new Object();
+    // Users whose latest line has an armed price alert
+    private final Set<String> alertHolders = ConcurrentHashMap.newKeySet();
+    private OffsetTable offsets;
+    private FileChannel channel;
+    private long end;               // guarded by this
+    private long lines;             // record lines in the file, superseded ones included; guarded by this
+    private volatile boolean resident;
+
+    LazyUserStore(Path file, int capacity, UserRegistry registry) {
+        this.file = file;
+        this.capacity = capacity;
+        this.registry = registry;
+    }
+
+    /** Builds the offset table and returns the file's log checkpoint. */
+    long open() throws IOException {
+        ensureFixedHeader();
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        dropTornTail(channel);
+        end = channel.size();
+        long checkpoint = UserWriteAheadLog.readCheckpoint(file);
+
+        long[] count = new long[1];
+        scan((offset, buffer, from, to) -> {
+            if (usernameEnd(buffer, from, to) > 0) {
+                count[0]++;
+            }
+        });
+        offsets = new OffsetTable((int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, (long) (count[0] / INITIAL_LOAD) + 1)));
+        scan((offset, buffer, from, to) -> {
+            int nameEnd = usernameEnd(buffer, from, to);
+            if (nameEnd < 0) {
+                return;
+            }
+            lines++;
+            boolean armed = hasArmedAlert(buffer, from, to);
+            if (armed) {
+                alertHolders.add(new String(buffer, from, nameEnd - from, StandardCharsets.UTF_8));
+            }
+            long hash = hash(buffer, from, nameEnd);
+            // A name seen before was written back later in the file; the later line wins
+            for (long candidate : offsets.candidates(hash)) {
+                if (Arrays.equals(readUsername(candidate), Arrays.copyOfRange(buffer, from, nameEnd))) {
+                    offsets.replace(hash, candidate, offset);
+                    if (!armed) {
+                        alertHolders.remove(new String(buffer, from, nameEnd - from, StandardCharsets.UTF_8));
+                    }
+                    return;
+                }
+            }
+            offsets.insert(hash, offset);
+        });
+        return checkpoint;
+    }
+
+    /** Users registered, in memory or not. */
+    int size() {
+        int unwritten = 0;
+        for (UserRef ref : live.values()) {
+            if (ref.offset < 0 && ref.get() != null) {
+                unwritten++;
+            }
+        }
+        return offsets.size() + unwritten;
+    }
+
+    boolean isResident() {
+        return resident;
+    }
+
+    int cachedCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /** The user with the name, read from the file if not in memory; null if there is none. */
+    User get(String username) {
+        UserRef ref = live.get(username);
+        User user = ref == null ? null : ref.get();
+        if (user == null) {
+            user = materialize(username);
+            if (user == null) {
+                return null;
+            }
+        }
+        cache(user);
+        return user;
+    }
+
+    /** Adds a new user unless the name is taken. */
+    boolean register(User user) {
+        return register(user, UserRegistry.UNLOGGED);
+    }
+
+    // Locked until logged, as in the registry; released before caching, which may write back others
+    boolean register(User user, Consumer<User> logged) {
+        synchronized (registration) {
+            if (get(user.getUsername()) != null) {
+                return false;
+            }
+            synchronized (user) {
+                live.put(user.getUsername(), new UserRef(user, -1, collected));
+                logged.accept(user);
+            }
+        }
+        cache(user);
+        return true;
+    }
+
+    /** Call after changing a user, so one evicted while a session held it is cached, and saved, again. */
+    void touch(User user) {
+        if (!resident) {
+            cache(user);
+        }
+    }
+
+    /**
+     * The users as a map for log replay: lookups materialize, putIfAbsent
+     * registers. Listing them, which only a legacy subsidy removal does, loads
+     * everyone into the registry, and the view follows it from then on.
+     */
+    Map<String, User> replayView() {
+        return new AbstractMap<String, User>() {
+            @Override
+            public User get(Object username) {
+                return resident ? registry.asMap().get(username) : LazyUserStore.this.get((String) username);
+            }
+
+            @Override
+            public User putIfAbsent(String username, User user) {
+                if (resident) {
+                    return registry.asMap().putIfAbsent(username, user);
+                }
+                return register(user) ? null : LazyUserStore.this.get(username);
+            }
+
+            @Override
+            public Set<Map.Entry<String, User>> entrySet() {
+                registry.ensureResident();
+                return registry.asMap().entrySet();
+            }
+        };
+    }
+
+    /** Users with an armed price alert, materialized, whether on disk or only in memory so far. */
+    List<User> usersWithPriceAlerts() {
+        Set<User> holders = new LinkedHashSet<>();
+        for (String username : alertHolders) {
+            User user = materialize(username);
+            if (user != null) {
+                holders.add(user);
+            }
+        }
+        for (UserRef ref : live.values()) {
+            User user = ref.get();
+            if (user != null && hasArmedAlert(user)) {
+                holders.add(user);
+            }
+        }
+        return new ArrayList<>(holders);
+    }
+
+    /**
+     * Loads every user into the registry's map, keeping the copies already in
+     * memory, after which lookups go to the registry. The caller holds off
+     * other lookups and indexes the users afterwards.
+     */
+    void materializeAll() throws IOException {
+        Map<String, User> into = registry.asMap();
+        UserDataLoader.load(file, into);
+        for (User user : into.values()) {
+            synchronized (user) {
+                user.markSaved(-1);
+            }
+            SubsidySweeper.dropRemoved(user);
+        }
+        for (UserRef ref : live.values()) {
+            User user = ref.get();
+            if (user != null) {
+                into.put(user.getUsername(), user);
+            }
+        }
+        resident = true;
+        live.clear();
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Writes back every changed user and records the log checkpoint at the top
+     * of the file. Returns the users written.
+     */
+    int save(long checkpoint) throws IOException {
+        int written = 0;
+        if (resident) {
+            for (User user : registry.all()) {
+                written += writeBack(user) ? 1 : 0;
+            }
+        } else {
+            for (UserRef ref : live.values()) {
+                User user = ref.get();
+                written += user != null && writeBack(user) ? 1 : 0;
+            }
+        }
+        channel.force(false);
+        ByteBuffer header = ByteBuffer.wrap(UserWriteAheadLog.checkpointLine(checkpoint).getBytes(StandardCharsets.UTF_8));
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(false);
+        return written;
+    }
+
+    /** The final save; also compacts the file if most of its lines are superseded. */
+    int close(long checkpoint) throws IOException {
+        int written = save(checkpoint);
+        if (resident) {
+            // Everyone is in memory, so a fresh snapshot is the cheapest compaction
+            channel.close();
+            AgricultureManagementSystem.writeUserFile(file, registry.all(), checkpoint);
+            return written;
+        }
+        long superseded;
+        synchronized (this) {
+            superseded = lines - offsets.size();
+        }
+        if (superseded > offsets.size()) {
+            compact(checkpoint);
+        }
+        channel.close();
+        return written;
+    }
+
+    private User materialize(String username) {
+        expungeCollected();
+        User[] result = new User[1];
+        live.compute(username, (name, ref) -> {
+            User existing = ref == null ? null : ref.get();
+            if (existing != null) {
+                result[0] = existing;
+                return ref;
+            }
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            for (long candidate : offsets.candidates(hash(bytes, 0, bytes.length))) {
+                User user = read(candidate);
+                if (user != null && user.getUsername().equals(name)) {
+                    synchronized (user) {
+                        user.markSaved(-1);
+                    }
+                    // Subsidies removed while the user was on disk
+                    SubsidySweeper.dropRemoved(user);
+                    result[0] = user;
+                    return new UserRef(user, candidate, collected);
+                }
+            }
+            return null;
+        });
+        return result[0];
+    }
+
+    private void cache(User user) {
+        List<User> evicted = null;
+        synchronized (cache) {
+            cache.put(user.getUsername(), user);
+            Iterator<User> eldest = cache.values().iterator();
+            while (cache.size() > capacity) {
+                if (evicted == null) {
+                    evicted = new ArrayList<>();
+                }
+                evicted.add(eldest.next());
+                eldest.remove();
+            }
+        }
+        if (evicted != null) {
+            for (User victim : evicted) {
+                try {
+                    writeBack(victim);
+                } catch (IOException e) {
+                    // Still in the log, so the change is not lost; the next checkpoint retries
+                    System.out.println("Error writing back user " + victim.getUsername() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Appends the user's record if it changed since it was last written
+    private boolean writeBack(User user) throws IOException {
+        UserRef ref = live.get(user.getUsername());
+        synchronized (user) {
+            if (!user.isChangedSinceSave()) {
+                return false;
+            }
+            byte[] record = (AgricultureManagementSystem.formatUserRecord(user) + "\n").getBytes(StandardCharsets.UTF_8);
+            long offset = append(record);
+            if (hasArmedAlert(user)) {
+                alertHolders.add(user.getUsername());
+            } else {
+                alertHolders.remove(user.getUsername());
+            }
+            if (ref != null) {
+                byte[] name = user.getUsername().getBytes(StandardCharsets.UTF_8);
+                long hash = hash(name, 0, name.length);
+                if (ref.offset < 0) {
+                    offsets.insert(hash, offset);
+                } else {
+                    offsets.replace(hash, ref.offset, offset);
+                }
+                ref.offset = offset;
+            }
+            user.markSaved(-1);
+            return true;
+        }
+    }
+
+    private synchronized long append(byte[] record) throws IOException {
+        long offset = end;
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, end + buffer.position());
+        }
+        end += record.length;
+        lines++;
+        return offset;
+    }
+
+    private User read(long offset) {
+        try {
+            byte[] line = readLine(offset);
+            return UserDataLoader.parseRecord(line, line.length);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error reading user at offset " + offset + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private byte[] readLine(long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+        while (true) {
+            int read = channel.read(buffer, offset + buffer.position());
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < buffer.position(); i++) {
+                if (bytes[i] == '\n') {
+                    return Arrays.copyOf(bytes, i > 0 && bytes[i - 1] == '\r' ? i - 1 : i);
+                }
+            }
+            if (read < 0) {
+                return Arrays.copyOf(bytes, buffer.position());
+            }
+            if (!buffer.hasRemaining()) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+            }
+        }
+    }
+
+    private byte[] readUsername(long offset) throws IOException {
+        byte[] line = readLine(offset);
+        int nameEnd = usernameEnd(line, 0, line.length);
+        return Arrays.copyOfRange(line, 0, Math.max(0, nameEnd));
+    }
+
+    // Rewrites the file with only each user's latest line
+    private void compact(long checkpoint) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), SCAN_BUFFER)) {
+            out.write((UserWriteAheadLog.checkpointLine(checkpoint) + "\n").getBytes(StandardCharsets.UTF_8));
+            scan((offset, buffer, from, to) -> {
+                int nameEnd = usernameEnd(buffer, from, to);
+                if (nameEnd > 0 && offsets.contains(hash(buffer, from, nameEnd), offset)) {
+                    out.write(buffer, from, to - from);
+                    out.write('\n');
+                }
+            });
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Calls the visitor with every line of the file and its offset, newline excluded
+    private void scan(LineVisitor visitor) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            byte[] buffer = new byte[SCAN_BUFFER];
+            int filled = 0;
+            long bufferOffset = 0;
+            while (true) {
+                int read = in.read(ByteBuffer.wrap(buffer, filled, buffer.length - filled));
+                if (read > 0) {
+                    filled += read;
+                }
+                int start = 0;
+                for (int i = 0; i < filled; i++) {
+                    if (buffer[i] == '\n') {
+                        visitor.visit(bufferOffset + start, buffer, start, i > start && buffer[i - 1] == '\r' ? i - 1 : i);
+                        start = i + 1;
+                    }
+                }
+                if (read < 0) {
+                    if (start < filled) {
+                        visitor.visit(bufferOffset + start, buffer, start, filled);
+                    }
+                    return;
+                }
+                if (start == 0 && filled == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                System.arraycopy(buffer, start, buffer, 0, filled - start);
+                filled -= start;
+                bufferOffset += start;
+            }
+        }
+    }
+
+    // Every record ends in a newline, so text after the last one is a write-back cut short by a
+    // crash; the change it carried is still in the log after the checkpoint
+    static void dropTornTail(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer last = ByteBuffer.allocate(1);
+        if (size == 0 || channel.read(last, size - 1) == 1 && last.get(0) == '\n') {
+            return;
+        }
+        long cut = size;
+        while (cut > 0) {
+            ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(READ_SIZE, cut));
+            long from = cut - chunk.capacity();
+            while (chunk.hasRemaining() && channel.read(chunk, from + chunk.position()) >= 0) {
+                // read the whole chunk
+            }
+            byte[] bytes = chunk.array();
+            for (int i = bytes.length - 1; i >= 0; i--) {
+                if (bytes[i] == '\n') {
+                    channel.truncate(from + i + 1);
+                    return;
+                }
+            }
+            cut = from;
+        }
+    }
+
+    // Rewrites older files whose checkpoint line is missing or not fixed width
+    private void ensureFixedHeader() throws IOException {
+        if (!Files.exists(file)) {
+            Files.write(file, (UserWriteAheadLog.checkpointLine(0) + "\n").getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        byte[] head = new byte[UserWriteAheadLog.CHECKPOINT_LINE_LENGTH + 1];
+        int length;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            length = Math.max(0, in.read(ByteBuffer.wrap(head)));
+        }
+        String text = new String(head, 0, length, StandardCharsets.UTF_8);
+        if (length == head.length && text.startsWith(UserWriteAheadLog.CHECKPOINT_PREFIX) && head[length - 1] == '\n') {
+            return;
+        }
+        long checkpoint = UserWriteAheadLog.readCheckpoint(file);
+        boolean skipFirst = text.startsWith(UserWriteAheadLog.CHECKPOINT_PREFIX);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), SCAN_BUFFER)) {
+            out.write((UserWriteAheadLog.checkpointLine(checkpoint) + "\n").getBytes(StandardCharsets.UTF_8));
+            boolean[] first = {skipFirst};
+            scan((offset, buffer, from, to) -> {
+                if (first[0]) {
+                    first[0] = false;
+                    return;
+                }
+                out.write(buffer, from, to - from);
+                out.write('\n');
+            });
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void expungeCollected() {
+        UserRef ref;
+        while ((ref = (UserRef) collected.poll()) != null) {
+            live.remove(ref.username, ref);
+        }
+    }
+
+    // End of the trimmed username of a record line, or -1 for headers and lines the loader skips
+    private static int usernameEnd(byte[] line, int from, int to) {
+        if (from == to || line[from] == '#') {
+            return -1;
+        }
+        int nameEnd = -1;
+        int separators = 0;
+        for (int i = from; i < to && separators < 3; i++) {
+            if (line[i] == '|') {
+                if (separators++ == 0) {
+                    nameEnd = i;
+                }
+            }
+        }
+        if (separators < 3) {
+            return -1;
+        }
+        while (nameEnd > from && (line[nameEnd - 1] == ' ' || line[nameEnd - 1] == '\t')) {
+            nameEnd--;
+        }
+        return nameEnd > from ? nameEnd : -1;
+    }
+
+    // Whether the line's price alert field, the tenth, has an alert not yet fired (one without '@')
+    private static boolean hasArmedAlert(byte[] line, int from, int to) {
+        int separators = 0;
+        int i = from;
+        while (i < to && separators < 9) {
+            if (line[i++] == '|') {
+                separators++;
+            }
+        }
+        boolean fired = false;
+        int length = 0;
+        for (; i <= to; i++) {
+            if (i == to || line[i] == ';' || line[i] == '|') {
+                if (length > 0 && !fired) {
+                    return true;
+                }
+                if (i < to && line[i] == '|') {
+                    return false;
+                }
+                fired = false;
+                length = 0;
+            } else if (line[i] == '@') {
+                fired = true;
+            } else if (line[i] != ' ') {
+                length++;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasArmedAlert(User user) {
+        for (PriceAlert alert : user.getPriceAlerts()) {
+            if (alert.isArmed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // FNV-1a over the UTF-8 bytes, then a 64-bit finalizer so every bit depends on every byte
+    private static long hash(byte[] bytes, int from, int to) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            h = (h ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53e5a87L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Username hash to line offset, linear probing. Each slot packs the top 24
+     * bits of the hash above the offset plus one (0 is an empty slot), so a
+     * probe skips almost every other name without touching the file. Names
+     * are never removed. It grows by reading names back from the file.
+     */
+    private final class OffsetTable {
+        private static final int OFFSET_BITS = 40;
+        private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+        private long[] slots;
+        private int size;
+
+        OffsetTable(int capacity) {
+            slots = new long[capacity];
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long[] candidates(long hash) {
+            long fingerprint = hash >>> OFFSET_BITS;
+            long[] found = null;
+            int count = 0;
+            for (int i = slot(hash, slots.length); slots[i] != 0; i = next(i)) {
+                if (slots[i] >>> OFFSET_BITS == fingerprint) {
+                    found = found == null ? new long[2] : found.length == count ? Arrays.copyOf(found, count * 2) : found;
+                    found[count++] = (slots[i] & OFFSET_MASK) - 1;
+                }
+            }
+            return found == null ? new long[0] : Arrays.copyOf(found, count);
+        }
+
+        synchronized boolean contains(long hash, long offset) {
+            long entry = entry(hash, offset);
+            for (int i = slot(hash, slots.length); slots[i] != 0; i = next(i)) {
+                if (slots[i] == entry) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized void insert(long hash, long offset) throws IOException {
+            if (size + 1 > slots.length * MAX_LOAD) {
+                grow();
+            }
+            place(slots, hash, offset);
+            size++;
+        }
+
+        synchronized void replace(long hash, long oldOffset, long newOffset) {
+            long old = entry(hash, oldOffset);
+            for (int i = slot(hash, slots.length); slots[i] != 0; i = next(i)) {
+                if (slots[i] == old) {
+                    slots[i] = entry(hash, newOffset);
+                    return;
+                }
+            }
+            throw new IllegalStateException("no table entry at offset " + oldOffset);
+        }
+
+        private void grow() throws IOException {
+            long[] grown = new long[(int) Math.min(Integer.MAX_VALUE - 8, slots.length * 3L / 2)];
+            for (long entry : slots) {
+                if (entry != 0) {
+                    long offset = (entry & OFFSET_MASK) - 1;
+                    byte[] name = readUsername(offset);
+                    place(grown, hash(name, 0, name.length), offset);
+                }
+            }
+            slots = grown;
+        }
+
+        private void place(long[] table, long hash, long offset) {
+            int i = slot(hash, table.length);
+            while (table[i] != 0) {
+                i = i + 1 == table.length ? 0 : i + 1;
+            }
+            table[i] = entry(hash, offset);
+        }
+
+        private int next(int i) {
+            return i + 1 == slots.length ? 0 : i + 1;
+        }
+
+        private int slot(long hash, int length) {
+            return (int) Long.remainderUnsigned(hash, length);
+        }
+
+        private long entry(long hash, long offset) {
+            return (hash >>> OFFSET_BITS) << OFFSET_BITS | (offset + 1);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Scripted load driver for the service layer. Generates a farmer dataset
+ * with {@link DatasetGenerator}, then has many threads run a weighted mix of
+ * operations against it in process, with no console or network in the way:
+ *
+ * - login: a random farmer with the right password (the first login of each
+ *   farmer also hashes the plaintext password, as after a migration)
+ * - register: a new farmer
+ * - apply: a random farmer applies for a random subsidy
+ * - approve: a random farmer's application for a random subsidy is approved,
+ *   or rejected again if it already was
+ *
+ * The mix is {@code agri.load.mix}, default
+ * {@code login:70,register:5,apply:20,approve:5}. Operations in the first
+ * {@code agri.load.warmup} seconds (default 5) are not counted. Throughput and
+ * latency percentiles are reported per operation; "busy" counts logins and
+ * registrations turned away because the password hashing pool was full.
+ *
+ * Usage: java LoadDriver [threads] [seconds] [users] [seed]
+ */
+class LoadDriver {
+
+    private static final String MIX = System.getProperty("agri.load.mix", "login:70,register:5,apply:20,approve:5");
+    private static final int WARMUP_SECONDS = Integer.getInteger("agri.load.warmup", 5);
+
+    private enum Op { LOGIN, REGISTER, APPLY, APPROVE }
+
+    // Latencies of one operation on one thread
+    private static final class Samples {
+        long[] nanos = new long[1024];
+        int count;
+        int busy;
+
+        void add(long elapsed) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = elapsed;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int userCount = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        Map<Op, Integer> weights = parseMix(MIX);
+
+        System.out.printf("Generating %d farmers (seed %d)...%n", userCount, seed);
+        UserRegistry users = new UserRegistry();
+        DatasetGenerator.populate(users, userCount, seed);
+        AgricultureService service = new AgricultureService(users, null, new CredentialVerifier());
+        int[] subsidyIds = activeSubsidyIds();
+
+        Op[] wheel = wheel(weights);
+        Samples[][] samples = new Samples[threads][Op.values().length];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long[] times = new long[2];     // measurement start and end
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            for (int o = 0; o < Op.values().length; o++) {
+                samples[t][o] = new Samples();
+            }
+            workers[t] = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(seed * 31 + thread);
+                int registered = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long measureFrom = times[0];
+                long end = times[1];
+                for (long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+                    Op op = wheel[random.nextInt(wheel.length)];
+                    int farmer = random.nextInt(userCount);
+                    boolean busy;
+                    switch (op) {
+                        case LOGIN:
+                            busy = service.login("farmer" + farmer, "pw" + farmer).status
+                                    == AgricultureService.LoginStatus.BUSY;
+                            break;
+                        case REGISTER:
+                            busy = service.register("load" + thread + "_" + registered++, "pw", "Load Test")
+                                    == AgricultureService.RegisterStatus.BUSY;
+                            break;
+                        case APPLY:
+                            service.applyForSubsidy(users.get("farmer" + farmer), subsidyIds[random.nextInt(subsidyIds.length)]);
+                            busy = false;
+                            break;
+                        default:
+                            User user = users.get("farmer" + farmer);
+                            int id = subsidyIds[random.nextInt(subsidyIds.length)];
+                            if (service.approveSubsidy(user, id) != SubsidyBudgets.Approval.APPROVED) {
+                                service.rejectSubsidy(user, id);
+                            }
+                            busy = false;
+                    }
+                    if (now >= measureFrom) {
+                        Samples s = samples[thread][op.ordinal()];
+                        s.add(System.nanoTime() - now);
+                        if (busy) {
+                            s.busy++;
+                        }
+                    }
+                }
+            }, "load-" + t);
+            workers[t].start();
+        }
+
+        System.out.printf("Running %d threads for %d s after %d s warm-up, mix %s%n", threads, seconds, WARMUP_SECONDS, MIX);
+        times[0] = System.nanoTime() + WARMUP_SECONDS * 1_000_000_000L;
+        times[1] = times[0] + seconds * 1_000_000_000L;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        System.out.printf("%-9s %10s %10s %8s %8s %8s %8s %8s%n", "op", "count", "ops/s", "busy", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        List<long[]> everything = new ArrayList<>();
+        int totalBusy = 0;
+        for (Op op : Op.values()) {
+            List<long[]> parts = new ArrayList<>();
+            int busy = 0;
+            for (Samples[] thread : samples) {
+                Samples s = thread[op.ordinal()];
+                parts.add(Arrays.copyOf(s.nanos, s.count));
+                busy += s.busy;
+            }
+            long[] sorted = merge(parts);
+            everything.add(sorted);
+            totalBusy += busy;
+            print(op.name().toLowerCase(), sorted, busy, seconds);
+        }
+        print("total", merge(everything), totalBusy, seconds);
+    }
+
+    private static void print(String name, long[] sorted, int busy, int seconds) {
+        if (sorted.length == 0) {
+            System.out.printf("%-9s %10d%n", name, 0);
+            return;
+        }
+        System.out.printf("%-9s %10d %10.0f %8d %8.2f %8.2f %8.2f %8.2f%n", name, sorted.length,
+                sorted.length / (double) seconds, busy, percentile(sorted, 50), percentile(sorted, 95),
+                percentile(sorted, 99), sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static long[] merge(List<long[]> parts) {
+        long[] all = parts.stream().flatMapToLong(Arrays::stream).toArray();
+        Arrays.sort(all);
+        return all;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p / 100 * sorted.length) - 1)] / 1e6;
+    }
+
+    private static Map<Op, Integer> parseMix(String mix) {
+        Map<Op, Integer> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Bad agri.load.mix entry '" + part + "', expected op:weight");
+            }
+            weights.put(Op.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+        }
+        return weights;
+    }
+
+    // One slot per unit of weight, so a uniform pick follows the mix
+    private static Op[] wheel(Map<Op, Integer> weights) {
+        List<Op> slots = new ArrayList<>();
+        weights.forEach((op, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                slots.add(op);
+            }
+        });
+        if (slots.isEmpty()) {
+            throw new IllegalArgumentException("agri.load.mix has no weight");
+        }
+        return slots.toArray(new Op[0]);
+    }
+
+    private static int[] activeSubsidyIds() {
+        CropCatalog catalog = CropCatalog.current();
+        int[] ids = new int[catalog.subsidyCount()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = catalog.subsidyId(i);
+        }
+        return ids;
+    }
+}
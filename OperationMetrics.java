@@ -0,0 +1,139 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Count, failures and latency histogram of one kind of operation, kept from
+ * startup. There is one instance per operation, below; callers time the
+ * operation and hand in its start time:
+ *
+ *     long start = System.nanoTime();
+ *     ...
+ *     OperationMetrics.LOGIN.record(start, ok);
+ *
+ * Everything is lock-free (adders and an atomic histogram), so recording
+ * costs two clock reads and a few uncontended atomic adds and stays on under
+ * load. Failed operations are timed too and also counted as failures.
+ */
+class OperationMetrics implements OperationMetricsMBean {
+
+    private static final List<OperationMetrics> ALL = new ArrayList<>();
+
+    static final OperationMetrics LOAD_USERS = new OperationMetrics("loadUsers");
+    static final OperationMetrics SAVE_USERS = new OperationMetrics("saveUsers");
+    static final OperationMetrics LOGIN = new OperationMetrics("login");
+    static final OperationMetrics REGISTER = new OperationMetrics("register");
+    static final OperationMetrics LAND_DETAILS = new OperationMetrics("landDetails");
+    static final OperationMetrics APPLY = new OperationMetrics("apply");
+    static final OperationMetrics APPROVE = new OperationMetrics("approve");
+    static final OperationMetrics REJECT = new OperationMetrics("reject");
+    static final OperationMetrics BULK_APPROVAL_PLAN = new OperationMetrics("bulkApprovalPlan");
+    static final OperationMetrics BULK_APPROVAL = new OperationMetrics("bulkApproval");
+    static final OperationMetrics CATALOG_UPDATE = new OperationMetrics("catalogUpdate");
+    static final OperationMetrics PRICE_ALERT_CHECK = new OperationMetrics("priceAlertCheck");
+    static final OperationMetrics REMOVE_SUBSIDY = new OperationMetrics("removeSubsidy");
+    static final OperationMetrics FARMER_QUERY = new OperationMetrics("farmerQuery");
+    static final OperationMetrics RECOMMENDATION_REPORT = new OperationMetrics("recommendationReport");
+    static final OperationMetrics EXPORT = new OperationMetrics("export");
+    static final OperationMetrics SUBSIDY_SWEEP = new OperationMetrics("subsidySweep");
+
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private OperationMetrics(String name) {
+        this.name = name;
+        ALL.add(this);
+    }
+
+    static List<OperationMetrics> all() {
+        return Collections.unmodifiableList(ALL);
+    }
+
+    /** Records an operation that started at {@code startNanos} (from System.nanoTime) and ended now. */
+    void record(long startNanos, boolean succeeded) {
+        long elapsed = System.nanoTime() - startNanos;
+        count.increment();
+        if (!succeeded) {
+            failures.increment();
+        }
+        totalNanos.add(elapsed);
+        maxNanos.accumulate(elapsed);
+        histogram.record(elapsed);
+    }
+
+    void record(long startNanos) {
+        record(startNanos, true);
+    }
+
+    /** Registers every operation with the platform MBean server. */
+    static void registerMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (OperationMetrics metrics : ALL) {
+            ObjectName objectName = new ObjectName("agri:type=Operation,name=" + metrics.name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(metrics, objectName);
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return percentileMillis(50);
+    }
+
+    @Override
+    public double getP95Millis() {
+        return percentileMillis(95);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return percentileMillis(99);
+    }
+
+    @Override
+    public double getP999Millis() {
+        return percentileMillis(99.9);
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    // Bucket tops can overshoot the largest value actually seen
+    private double percentileMillis(double percentile) {
+        return Math.min(histogram.percentile(percentile), maxNanos.get()) / 1e6;
+    }
+}
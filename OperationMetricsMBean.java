@@ -0,0 +1,25 @@
+/**
+ * JMX view of one operation's {@link OperationMetrics}, registered as
+ * {@code agri:type=Operation,name=<operation>}. Latencies are in milliseconds
+ * since startup.
+ */
+public interface OperationMetricsMBean {
+
+    String getName();
+
+    long getCount();
+
+    long getFailures();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP95Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+}
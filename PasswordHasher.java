@@ -0,0 +1,81 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted PBKDF2 (HMAC-SHA256) password hashes, stored as
+ * {@code pbkdf2-sha256$<iterations>$<salt>$<hash>} with Base64 salt and hash.
+ * The cost is {@code agri.auth.iterations}; each hash records its own, so
+ * changing the setting only affects new hashes until users log in again.
+ *
+ * Stored values without the prefix are legacy plaintext passwords. They
+ * still verify, and {@link #needsRehash} tells the caller to replace them.
+ */
+final class PasswordHasher {
+
+    static final int ITERATIONS = Integer.getInteger("agri.auth.iterations", 120_000);
+
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PasswordHasher() {
+    }
+
+    static String hash(String password) {
+        return hash(password, ITERATIONS);
+    }
+
+    static String hash(String password, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(pbkdf2(password, salt, iterations));
+    }
+
+    /** Checks a password against a stored hash or legacy plaintext, in constant time. */
+    static boolean matches(String stored, String password) {
+        if (!isHashed(stored)) {
+            return MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8),
+                    password.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            Base64.Decoder base64 = Base64.getDecoder();
+            byte[] expected = base64.decode(parts[2]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, base64.decode(parts[1]), Integer.parseInt(parts[0])));
+        } catch (IllegalArgumentException e) {
+            return false; // corrupt entry
+        }
+    }
+
+    /** True for plaintext entries and hashes made with a different cost. */
+    static boolean needsRehash(String stored) {
+        return !isHashed(stored) || !stored.startsWith(PREFIX + ITERATIONS + "$");
+    }
+
+    static boolean isHashed(String stored) {
+        return stored.startsWith(PREFIX);
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            // Factories are not thread-safe and cheap next to the hashing itself
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A farmer's alert on a crop price, e.g. "Cotton at or above ₹3200". It is
+ * armed until a price change reaches the threshold, then fired, carrying the
+ * price that fired it, until it is shown at the farmer's next login.
+ *
+ * Immutable. Stored in the user record as {@code Cotton>=3200.0}, or
+ * {@code Cotton>=3200.0@3250.0} once fired, several joined by {@code ;}.
+ */
+final class PriceAlert implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String crop;
+    final boolean above;        // fires at price >= threshold, else at price <= threshold
+    final double threshold;
+    final double firedAt;       // NaN while armed
+
+    PriceAlert(String crop, boolean above, double threshold) {
+        this(crop, above, threshold, Double.NaN);
+    }
+
+    private PriceAlert(String crop, boolean above, double threshold, double firedAt) {
+        this.crop = crop;
+        this.above = above;
+        this.threshold = threshold;
+        this.firedAt = firedAt;
+    }
+
+    boolean isArmed() {
+        return Double.isNaN(firedAt);
+    }
+
+    boolean isMetBy(double price) {
+        return above ? price >= threshold : price <= threshold;
+    }
+
+    PriceAlert fired(double price) {
+        return new PriceAlert(crop, above, threshold, price);
+    }
+
+    /** The same alert armed again, e.g. to look up the index entry of a fired one. */
+    PriceAlert armed() {
+        return new PriceAlert(crop, above, threshold);
+    }
+
+    /** Index key: crop names match case-insensitively, as in the catalog. */
+    String cropKey() {
+        return crop.toLowerCase(Locale.ROOT);
+    }
+
+    /** "Cotton ≥ ₹3200.00" */
+    String describe() {
+        return String.format("%s %s ₹%.2f", crop, above ? "≥" : "≤", threshold);
+    }
+
+    /** Crop names that would not survive the record format. */
+    static boolean isStorableCrop(String crop) {
+        return !crop.isEmpty() && crop.indexOf('|') < 0 && crop.indexOf(';') < 0 && crop.indexOf('@') < 0
+                && crop.indexOf('=') < 0 && crop.indexOf('\n') < 0;
+    }
+
+    static String format(List<PriceAlert> alerts) {
+        StringBuilder sb = new StringBuilder();
+        for (PriceAlert alert : alerts) {
+            sb.append(sb.length() == 0 ? "" : ";").append(alert);
+        }
+        return sb.toString();
+    }
+
+    /** Parses a record field; throws IllegalArgumentException if it is malformed. */
+    static List<PriceAlert> parseList(String field) {
+        List<PriceAlert> alerts = new ArrayList<>();
+        for (String item : field.split(";")) {
+            if (!item.trim().isEmpty()) {
+                alerts.add(parse(item.trim()));
+            }
+        }
+        return alerts;
+    }
+
+    private static PriceAlert parse(String text) {
+        int at = text.indexOf('@');
+        String condition = at < 0 ? text : text.substring(0, at);
+        int op = condition.indexOf('=');
+        if (op < 1 || (condition.charAt(op - 1) != '>' && condition.charAt(op - 1) != '<')) {
+            throw new IllegalArgumentException("bad price alert '" + text + "'");
+        }
+        try {
+            return new PriceAlert(condition.substring(0, op - 1), condition.charAt(op - 1) == '>',
+                    Double.parseDouble(condition.substring(op + 1)),
+                    at < 0 ? Double.NaN : Double.parseDouble(text.substring(at + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad price alert '" + text + "'");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return crop + (above ? ">=" : "<=") + threshold + (isArmed() ? "" : "@" + firedAt);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PriceAlert)) {
+            return false;
+        }
+        PriceAlert other = (PriceAlert) o;
+        return crop.equalsIgnoreCase(other.crop) && above == other.above
+                && Double.compare(threshold, other.threshold) == 0 && Double.compare(firedAt, other.firedAt) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return (cropKey().hashCode() * 31 + Boolean.hashCode(above)) * 31 + Double.hashCode(threshold);
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Armed price alerts by crop, sorted by threshold, so a price change finds
+ * the alerts it crosses without looking at any other.
+ *
+ * Each crop has two sorted maps from threshold to the users with that alert:
+ * one for "at or above" alerts and one for "at or below". A new price fires
+ * the "above" alerts with a threshold at or under it, a head of the map, and
+ * the "below" alerts at or over it, a tail; the cost is a tree lookup plus
+ * the alerts fired, however many are armed. Fired alerts leave the index.
+ *
+ * The registry updates the index under the user's lock, right after
+ * changing the user's alerts, as it does for the other indexes.
+ */
+class PriceAlertIndex {
+
+    /** An alert the price reached, still armed in the index when found. */
+    static final class Crossing {
+        final User user;
+        final PriceAlert alert;
+
+        Crossing(User user, PriceAlert alert) {
+            this.user = user;
+            this.alert = alert;
+        }
+    }
+
+    private static final class Book {
+        final TreeMap<Double, Set<User>> above = new TreeMap<>();
+        final TreeMap<Double, Set<User>> below = new TreeMap<>();
+    }
+
+    private final Map<String, Book> books = new HashMap<>();
+    private int size;
+
+    synchronized void add(User user, PriceAlert alert) {
+        Book book = books.computeIfAbsent(alert.cropKey(), k -> new Book());
+        if ((alert.above ? book.above : book.below).computeIfAbsent(alert.threshold, t -> new LinkedHashSet<>()).add(user)) {
+            size++;
+        }
+    }
+
+    synchronized void remove(User user, PriceAlert alert) {
+        Book book = books.get(alert.cropKey());
+        if (book == null) {
+            return;
+        }
+        TreeMap<Double, Set<User>> side = alert.above ? book.above : book.below;
+        Set<User> users = side.get(alert.threshold);
+        if (users != null && users.remove(user)) {
+            size--;
+            if (users.isEmpty()) {
+                side.remove(alert.threshold);
+            }
+        }
+    }
+
+    /** Removes and returns the alerts on the crop that the price reaches. */
+    synchronized List<Crossing> cross(String crop, double price) {
+        List<Crossing> crossed = new ArrayList<>();
+        Book book = books.get(crop.toLowerCase(Locale.ROOT));
+        if (book != null) {
+            take(book.above.headMap(price, true), crop, true, crossed);
+            take(book.below.tailMap(price, true), crop, false, crossed);
+        }
+        size -= crossed.size();
+        return crossed;
+    }
+
+    /** Armed alerts indexed. */
+    synchronized int size() {
+        return size;
+    }
+
+    private static void take(NavigableMap<Double, Set<User>> reached, String crop, boolean above, List<Crossing> into) {
+        for (Map.Entry<Double, Set<User>> entry : reached.entrySet()) {
+            PriceAlert alert = new PriceAlert(crop, above, entry.getKey());
+            for (User user : entry.getValue()) {
+                into.add(new Crossing(user, alert));
+            }
+        }
+        reached.clear();
+    }
+}
@@ -0,0 +1,331 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Streams mandi price feeds into the crop catalog and price history.
+ *
+ * A feed is a CSV file ({@code crop,price[,time]}, optional header) or a
+ * JSON-lines file ({@code {"crop":..., "price":..., "time":...}}), or a
+ * directory of them processed in name order. Time is epoch millis or
+ * ISO-8601 and defaults to the file's modification time.
+ *
+ * A reader thread parses and validates rows into batches of
+ * {@code agri.feed.batch} rows and hands them over a queue of
+ * {@code agri.feed.queue} batches; when the catalog side falls behind the
+ * reader blocks, so memory stays bounded however big the feed is. Each batch
+ * is applied as one catalog update: the latest price of every crop in it is
+ * set, and crops we do not know yet are added with default growing steps.
+ * Every accepted row also becomes a price history tick.
+ *
+ * A row for a crop and time already in the history is a duplicate, so
+ * feeding the same file twice is harmless; any other row older than the
+ * crop's latest tick is rejected as stale. Rows are sorted by time within
+ * a batch, so only disorder across batches is rejected.
+ */
+class PriceFeedIngester {
+
+    private static final int BATCH_SIZE = Integer.getInteger("agri.feed.batch", 5_000);
+    private static final int QUEUE_BATCHES = Integer.getInteger("agri.feed.queue", 4);
+    private static final int MAX_CROP_NAME = 64;
+    private static final int MAX_REPORTED_REJECTS = 20;
+
+    private static final List<Row> END = new ArrayList<>();
+
+    private static final class Row {
+        final String crop;
+        final long time;
+        final double price;
+
+        Row(String crop, long time, double price) {
+            this.crop = crop;
+            this.time = time;
+            this.price = price;
+        }
+    }
+
+    static class Report {
+        long rows;
+        long accepted;
+        long duplicates;
+        long rejected;
+        int batches;
+        final List<String> cropsAdded = new ArrayList<>();
+        final List<String> rejects = new ArrayList<>();   // the first few, with file and line
+        long elapsedNanos;
+
+        double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        private synchronized void reject(String reason) {
+            rejected++;
+            if (rejects.size() < MAX_REPORTED_REJECTS) {
+                rejects.add(reason);
+            }
+        }
+    }
+
+    private final CropPriceHistory history;
+    private final Report report = new Report();
+    // Latest accepted time per crop (lower case); one entry per crop, not per row
+    private final Map<String, Long> latest = new HashMap<>();
+
+    private PriceFeedIngester(CropPriceHistory history) {
+        this.history = history;
+    }
+
+    /** Ingests a feed file or directory of feed files. */
+    static Report ingest(Path feed, CropPriceHistory history) throws IOException {
+        PriceFeedIngester ingester = new PriceFeedIngester(history);
+        long start = System.nanoTime();
+        ingester.run(feedFiles(feed));
+        ingester.report.elapsedNanos = System.nanoTime() - start;
+        return ingester.report;
+    }
+
+    private static List<Path> feedFiles(Path feed) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(feed)) {
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(feed, "*.{csv,jsonl,json}")) {
+                for (Path file : dir) {
+                    files.add(file);
+                }
+            }
+            files.sort(Comparator.comparing(Path::toString));
+        } else {
+            files.add(feed);
+        }
+        return files;
+    }
+
+    private void run(List<Path> files) throws IOException {
+        BlockingQueue<List<Row>> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        IOException[] failure = new IOException[1];
+        Thread reader = new Thread(() -> {
+            try {
+                for (Path file : files) {
+                    read(file, queue);
+                }
+            } catch (IOException e) {
+                failure[0] = e;
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "price-feed-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            for (List<Row> batch = queue.take(); batch != END; batch = queue.take()) {
+                apply(batch);
+            }
+            reader.join();
+        } catch (InterruptedException e) {
+            reader.interrupt();
+            Thread.currentThread().interrupt();
+            throw new IOException("Price feed ingestion interrupted");
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    // Runs on the reader thread; put() blocks while the queue is full
+    private void read(Path file, BlockingQueue<List<Row>> queue) throws IOException, InterruptedException {
+        boolean json = !file.toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+        long defaultTime = Files.getLastModifiedTime(file).toMillis();
+        List<Row> batch = new ArrayList<>(BATCH_SIZE);
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || (!json && lineNumber == 1 && line.split(",")[0].trim().equalsIgnoreCase("crop"))) {
+                    continue;
+                }
+                synchronized (report) {
+                    report.rows++;
+                }
+                try {
+                    batch.add(json ? parseJson(line, defaultTime) : parseCsv(line, defaultTime));
+                } catch (IllegalArgumentException e) {
+                    report.reject(file.getFileName() + ":" + lineNumber + ": " + e.getMessage());
+                    continue;
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    queue.put(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            queue.put(batch);
+        }
+    }
+
+    private void apply(List<Row> batch) {
+        batch.sort(Comparator.comparingLong(row -> row.time));
+
+        // Dedupe and keep the latest price per crop for the catalog update
+        Map<String, Row> latestRows = new LinkedHashMap<>();
+        List<Row> accepted = new ArrayList<>(batch.size());
+        for (Row row : batch) {
+            String key = row.crop.toLowerCase(Locale.ROOT);
+            long last = latest.computeIfAbsent(key, k -> history.latestTime(row.crop));
+            if (row.time == last || (row.time < last && history.hasTick(row.crop, row.time))) {
+                synchronized (report) {
+                    report.duplicates++;
+                }
+                continue;
+            }
+            if (row.time < last) {
+                report.reject(row.crop + " at " + Instant.ofEpochMilli(row.time) + ": older than the latest price");
+                continue;
+            }
+            latest.put(key, row.time);
+            latestRows.put(key, row);
+            accepted.add(row);
+        }
+        if (accepted.isEmpty()) {
+            return;
+        }
+
+        List<String> added = new ArrayList<>();
+        AgricultureManagementSystem.updateCatalog(catalog -> {
+            added.clear(); // the update may be retried
+            for (Row row : latestRows.values()) {
+                if (!catalog.setPrice(row.crop, row.price)) {
+                    catalog.addCrop(row.crop, row.price, AgricultureManagementSystem.defaultCropSteps(row.crop));
+                    added.add(row.crop);
+                }
+            }
+        });
+        for (Row row : accepted) {
+            history.recordBuffered(row.crop, row.time, row.price);
+        }
+        history.flush();
+        synchronized (report) {
+            report.accepted += accepted.size();
+            report.batches++;
+            report.cropsAdded.addAll(added);
+        }
+    }
+
+    private static Row parseCsv(String line, long defaultTime) {
+        String[] fields = line.split(",", -1);
+        if (fields.length < 2 || fields.length > 3) {
+            throw new IllegalArgumentException("expected crop,price[,time]");
+        }
+        return row(fields[0], fields[1], fields.length == 3 ? fields[2] : null, defaultTime);
+    }
+
+    private static Row parseJson(String line, long defaultTime) {
+        if (!line.startsWith("{") || !line.endsWith("}")) {
+            throw new IllegalArgumentException("not a JSON object");
+        }
+        return row(jsonField(line, "crop"), jsonField(line, "price"), jsonField(line, "time"), defaultTime);
+    }
+
+    private static Row row(String crop, String price, String time, long defaultTime) {
+        if (crop == null || crop.trim().isEmpty()) {
+            throw new IllegalArgumentException("missing crop");
+        }
+        crop = crop.trim();
+        if (crop.length() > MAX_CROP_NAME) {
+            throw new IllegalArgumentException("crop name too long");
+        }
+        if (price == null) {
+            throw new IllegalArgumentException("missing price");
+        }
+        double value;
+        try {
+            value = Double.parseDouble(price.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad price '" + price.trim() + "'");
+        }
+        if (!(value > 0) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("price must be positive");
+        }
+        return new Row(crop, time == null || time.trim().isEmpty() ? defaultTime : parseTime(time.trim()), value);
+    }
+
+    private static long parseTime(String time) {
+        try {
+            if (time.chars().allMatch(Character::isDigit)) {
+                return Long.parseLong(time);
+            }
+            if (time.contains("T")) {
+                try {
+                    return OffsetDateTime.parse(time).toInstant().toEpochMilli();
+                } catch (DateTimeParseException e) {
+                    // no offset: local time
+                    return LocalDateTime.parse(time).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                }
+            }
+            return LocalDate.parse(time).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("bad time '" + time + "'");
+        }
+    }
+
+    // Value of a top-level field in a flat JSON object, or null if absent
+    private static String jsonField(String json, String name) {
+        int at = json.indexOf("\"" + name + "\"");
+        if (at < 0) {
+            return null;
+        }
+        int i = json.indexOf(':', at + name.length() + 2);
+        if (i < 0) {
+            throw new IllegalArgumentException("bad JSON near '" + name + "'");
+        }
+        i++;
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        if (i < json.length() && json.charAt(i) == '"') {
+            StringBuilder value = new StringBuilder();
+            for (i++; i < json.length(); i++) {
+                char c = json.charAt(i);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c == '\\' && i + 1 < json.length()) {
+                    c = json.charAt(++i);
+                }
+                value.append(c);
+            }
+            throw new IllegalArgumentException("unterminated string for '" + name + "'");
+        }
+        int end = i;
+        while (end < json.length() && json.charAt(end) != ',' && json.charAt(end) != '}') {
+            end++;
+        }
+        String value = json.substring(i, end).trim();
+        return value.equals("null") ? null : value;
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loopback load test for server mode. Opens many connections at once and has
+ * each one register a farmer, then repeatedly log in, view crop prices and
+ * log out. Every request/response round trip is timed until the next menu
+ * prompt arrives.
+ *
+ * Usage: java ServerLoadTest [port] [connections] [iterations]
+ * Run against a server started from a scratch copy of the data files, since
+ * the test registers new users.
+ */
+class ServerLoadTest {
+
+    private static final String CHOICE = "Enter your choice: ";
+    // Logout is the last menu option and moves as options are added, so it is read from the menu
+    private static final Pattern LOGOUT = Pattern.compile("(\\d+)\\. Logout");
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : AgricultureServer.DEFAULT_PORT;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        long[][] latencies = new long[connections][];
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch ready = new CountDownLatch(connections);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] clients = new Thread[connections];
+
+        for (int c = 0; c < connections; c++) {
+            int client = c;
+            clients[c] = new Thread(() -> {
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                    socket.setTcpNoDelay(true);
+                    Conversation session = new Conversation(socket, 4 + iterations * 7 + 2);
+                    session.expect(CHOICE);
+                    ready.countDown();
+                    start.await();
+                    runScript(session, "load" + runId + "_" + client, iterations);
+                    latencies[client] = session.latencies();
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    ready.countDown();
+                }
+            });
+            clients[c].start();
+        }
+
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread client : clients) {
+            client.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        long[] all = Arrays.stream(latencies).filter(l -> l != null).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("Connections: %d (%d failed), iterations: %d%n", connections, failures.get(), iterations);
+        System.out.printf("Round trips: %d in %.2f s (%.0f/s)%n", all.length, elapsed / 1e9, all.length / (elapsed / 1e9));
+        if (all.length > 0) {
+            System.out.printf("Latency ms  p50 %.2f  p95 %.2f  p99 %.2f  max %.2f%n",
+                    percentile(all, 50), percentile(all, 95), percentile(all, 99), all[all.length - 1] / 1e6);
+        }
+    }
+
+    private static void runScript(Conversation session, String username, int iterations) throws IOException {
+        session.send("2", "Choose a username: ");
+        session.send(username, "Choose a password: ");
+        session.send("pw", "Enter your full name: ");
+        session.send("Load Test", CHOICE);
+
+        for (int i = 0; i < iterations; i++) {
+            session.send("1", "Username: ");
+            session.send(username, "Password: ");
+            String menu = session.send("pw", CHOICE);
+            session.send("2", "Press Enter to continue...");
+            session.send("", CHOICE);
+            session.send(logoutOption(menu), CHOICE);
+        }
+        session.send("3", "Thank you");
+    }
+
+    private static String logoutOption(String menu) throws IOException {
+        Matcher matcher = LOGOUT.matcher(menu);
+        if (!matcher.find()) {
+            throw new IOException("No Logout option in the menu");
+        }
+        return matcher.group(1);
+    }
+
+    private static double percentile(long[] sorted, int p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p / 100.0 * sorted.length) - 1)] / 1e6;
+    }
+
+    // One client connection that sends a line and waits for a known prompt
+    private static class Conversation {
+        private final InputStream in;
+        private final OutputStream out;
+        private final long[] latencies;
+        private int count;
+        private final StringBuilder received = new StringBuilder();
+        private final byte[] buffer = new byte[8192];
+
+        Conversation(Socket socket, int expectedRoundTrips) throws IOException {
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+            latencies = new long[expectedRoundTrips];
+        }
+
+        // Returns everything received up to and including the prompt
+        String send(String line, String prompt) throws IOException {
+            long start = System.nanoTime();
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String reply = expect(prompt);
+            if (count < latencies.length) {
+                latencies[count++] = System.nanoTime() - start;
+            }
+            return reply;
+        }
+
+        String expect(String prompt) throws IOException {
+            while (received.indexOf(prompt) < 0) {
+                int read = in.read(buffer);
+                if (read < 0) {
+                    throw new IOException("Connection closed while waiting for \"" + prompt + "\"");
+                }
+                received.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+            }
+            String reply = received.toString();
+            received.setLength(0);
+            return reply;
+        }
+
+        long[] latencies() {
+            return Arrays.copyOf(latencies, count);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * User data split by district into shard files, loaded on demand
+ * ({@code -Dagri.snapshot.format=sharded}).
+ *
+ * The users directory holds one text shard per location, in the user.txt
+ * record format, and a small manifest listing each shard's location, user
+ * count and a Bloom filter of its usernames. Startup reads only the
+ * manifest. A login or registration loads the shards whose filter may hold
+ * the name, usually one; a farmer query filtered to a location loads that
+ * location's shard; anything that needs every farmer loads the rest in
+ * parallel. A shard is loaded once and then stays in the registry.
+ *
+ * Saving rewrites only the shards with a changed user, one that moved in or
+ * one that moved out, from the live users, then the manifest with the log
+ * checkpoint. Each file goes through a temp file and a rename. A user
+ * changed after the log was rolled may be saved a step ahead of the
+ * checkpoint; replaying the newer segments over it ends in the same state.
+ * If user.txt exists and there is no manifest yet, it is loaded whole and
+ * split on the first save.
+ *
+ * The manifest also lists the shards holding a user with an armed price
+ * alert; startup loads those, so a price change can find every alert.
+ */
+final class ShardedUserStore {
+
+    static final String MANIFEST = "manifest.txt";
+    private static final String HEADER = "#shards";
+    private static final String ALERTS = "alerts|";
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILTER_BITS_PER_USER = 10;
+    private static final int FILTER_HASHES = 7;
+
+    private static final class Shard {
+        final int number;
+        final String location;      // normalised; "" for farmers without land details
+        volatile boolean loaded;
+        int users;
+        boolean alerts;             // has a user with an armed price alert
+        long[] filter;
+
+        Shard(int number, String location, int users, long[] filter) {
+            this.number = number;
+            this.location = location;
+            this.users = users;
+            this.filter = filter;
+        }
+    }
+
+    private final Path directory;
+    private final UserRegistry users;
+    private final Map<String, Shard> byLocation = new ConcurrentHashMap<>();
+    private final Map<Integer, Shard> byNumber = new ConcurrentHashMap<>();
+    private volatile boolean allLoaded;
+    private long savedCheckpoint = -1;
+    private int nextNumber = 1;
+
+    ShardedUserStore(Path directory, UserRegistry users) {
+        this.directory = directory;
+        this.users = users;
+    }
+
+    Path manifest() {
+        return directory.resolve(MANIFEST);
+    }
+
+    /**
+     * Reads the manifest and returns its log checkpoint. Without one, loads
+     * {@code legacyFile} whole if it exists, to be split on the first save.
+     */
+    long open(Path legacyFile) throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(manifest(), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            allLoaded = true;
+            try {
+                Map<String, User> legacy = new HashMap<>();
+                UserDataLoader.load(legacyFile, legacy);
+                users.addLoaded(legacy.values());
+                System.out.println("Splitting " + legacyFile.getFileName() + " into district shards on the next save.");
+                return UserWriteAheadLog.readCheckpoint(legacyFile);
+            } catch (NoSuchFileException none) {
+                return 0;
+            }
+        }
+
+        long checkpoint = 0;
+        String alertShards = "";
+        for (String line : lines) {
+            if (line.startsWith(UserWriteAheadLog.CHECKPOINT_PREFIX)) {
+                checkpoint = Long.parseLong(line.substring(UserWriteAheadLog.CHECKPOINT_PREFIX.length()).trim());
+            } else if (line.startsWith(HEADER + "|")) {
+                String[] header = line.split("\\|");
+                if (Integer.parseInt(header[1]) > FORMAT_VERSION) {
+                    throw new IOException("Shard manifest version " + header[1] + " is newer than this program");
+                }
+                nextNumber = Integer.parseInt(header[2]);
+            } else if (line.startsWith("shard|")) {
+                // shard|number|users|filter|location, location last as it may hold anything
+                String[] fields = line.split("\\|", 5);
+                Shard shard = new Shard(Integer.parseInt(fields[1]), fields[4], Integer.parseInt(fields[2]),
+                        decodeFilter(fields[3]));
+                byLocation.put(shard.location, shard);
+                byNumber.put(shard.number, shard);
+            } else if (line.startsWith(ALERTS)) {
+                alertShards = line.substring(ALERTS.length());
+            }
+        }
+        savedCheckpoint = checkpoint;
+        allLoaded = byNumber.isEmpty();
+
+        // Shards on the alerts|n,n,... line load now, so their alerts are indexed with the rest
+        for (String number : alertShards.split(",")) {
+            Shard shard = number.isEmpty() ? null : byNumber.get(Integer.parseInt(number));
+            if (shard != null) {
+                shard.alerts = true;
+                load(shard);
+            }
+        }
+        return checkpoint;
+    }
+
+    int shardCount() {
+        return byNumber.size();
+    }
+
+    int loadedShardCount() {
+        int loaded = 0;
+        for (Shard shard : byNumber.values()) {
+            if (shard.loaded) {
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /** Farmers on disk, plus any registered since the last save. */
+    int userCount() {
+        int count = 0;
+        for (Shard shard : byNumber.values()) {
+            count += shard.loaded ? 0 : shard.users;
+        }
+        return count + users.size();
+    }
+
+    /** Loads the shards that may hold the username, so the registry can answer for it. */
+    void loadUser(String username) {
+        if (allLoaded || users.contains(username)) {
+            return;
+        }
+        for (Shard shard : byNumber.values()) {
+            if (!shard.loaded && mightContain(shard.filter, username)) {
+                load(shard);
+            }
+        }
+    }
+
+    /** Loads the shard of farmers at the location, if there is one. */
+    void loadLocation(String location) {
+        Shard shard = allLoaded ? null : byLocation.get(key(location));
+        if (shard != null) {
+            load(shard);
+        }
+    }
+
+    /** Loads every shard not loaded yet, in parallel. */
+    void loadAll() {
+        if (allLoaded) {
+            return;
+        }
+        byNumber.values().parallelStream().forEach(this::load);
+        allLoaded = true;
+    }
+
+    private void load(Shard shard) {
+        if (shard.loaded) {
+            return;
+        }
+        synchronized (shard) {
+            if (shard.loaded) {
+                return;
+            }
+            Map<String, User> loaded = new HashMap<>();
+            try {
+                UserDataLoader.load(shardFile(shard.number), loaded);
+            } catch (NoSuchFileException e) {
+                // listed but never written: an empty shard
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException("Error loading shard for '" + shard.location + "'", e);
+            }
+            for (User user : loaded.values()) {
+                synchronized (user) {
+                    user.markSaved(shard.number);
+                }
+                // Subsidies removed while the shard was on disk; the sweep only saw loaded users
+                SubsidySweeper.dropRemoved(user);
+            }
+            users.addLoaded(loaded.values());
+            shard.loaded = true;
+        }
+    }
+
+    /**
+     * Rewrites the shards that changed since the last save and records the
+     * log checkpoint in the manifest. Not safe to run twice at once; the log
+     * compactor and the final save never overlap. Returns the shards written.
+     */
+    int save(long checkpoint) throws IOException {
+        Files.createDirectories(directory);
+
+        // Which shards changed: those of changed users, and both ends of a move
+        List<User> snapshot;
+        int[] targets;
+        boolean[] dirty;
+        while (true) {
+            snapshot = new ArrayList<>(users.all());
+            targets = new int[snapshot.size()];
+            dirty = new boolean[nextNumber + snapshot.size() + 1];
+            for (int i = 0; i < snapshot.size(); i++) {
+                User user = snapshot.get(i);
+                synchronized (user) {
+                    Shard target = shardFor(user.getLocation());
+                    targets[i] = target.number;
+                    if (user.isChangedSinceSave() || user.getSavedShard() != target.number) {
+                        dirty[target.number] = true;
+                        if (user.getSavedShard() > 0) {
+                            dirty[user.getSavedShard()] = true;
+                        }
+                    }
+                }
+            }
+            // A shard that is about to be rewritten must be complete in memory first
+            boolean loadedMore = false;
+            for (Shard shard : byNumber.values()) {
+                if (dirty[shard.number] && !shard.loaded) {
+                    load(shard);
+                    loadedMore = true;
+                }
+            }
+            if (!loadedMore) {
+                break;
+            }
+        }
+
+        Map<Integer, List<User>> members = new HashMap<>();
+        boolean[] gained = new boolean[dirty.length];
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (dirty[targets[i]]) {
+                members.computeIfAbsent(targets[i], n -> new ArrayList<>()).add(snapshot.get(i));
+            }
+        }
+
+        // Write every changed shard aside, then rename those that gained users first,
+        // so a crash part way through can duplicate a moved user but never lose one
+        List<Shard> written = new ArrayList<>();
+        for (Shard shard : byNumber.values()) {
+            if (!dirty[shard.number]) {
+                continue;
+            }
+            List<User> shardUsers = members.getOrDefault(shard.number, List.of());
+            long[] filter = newFilter(shardUsers.size());
+            boolean alerts = false;
+            Path temp = directory.resolve(shardFile(shard.number).getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (User user : shardUsers) {
+                    synchronized (user) {
+                        if (user.getSavedShard() != shard.number) {
+                            gained[shard.number] = true;
+                        }
+                        writer.write(AgricultureManagementSystem.formatUserRecord(user));
+                        writer.newLine();
+                        user.markSaved(shard.number);
+                        for (PriceAlert alert : user.getPriceAlerts()) {
+                            alerts |= alert.isArmed();
+                        }
+                    }
+                    addToFilter(filter, user.getUsername());
+                }
+            }
+            shard.users = shardUsers.size();
+            shard.filter = filter;
+            shard.alerts = alerts;
+            written.add(shard);
+        }
+        written.sort((a, b) -> Boolean.compare(!gained[a.number], !gained[b.number]));
+        for (Shard shard : written) {
+            Path file = shardFile(shard.number);
+            Files.move(directory.resolve(file.getFileName() + ".tmp"), file,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        if (!written.isEmpty() || checkpoint != savedCheckpoint) {
+            writeManifest(checkpoint);
+            savedCheckpoint = checkpoint;
+        }
+        return written.size();
+    }
+
+    private void writeManifest(long checkpoint) throws IOException {
+        Path temp = directory.resolve(MANIFEST + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(UserWriteAheadLog.CHECKPOINT_PREFIX + checkpoint);
+            writer.newLine();
+            writer.write(HEADER + "|" + FORMAT_VERSION + "|" + nextNumber);
+            writer.newLine();
+            StringBuilder alertShards = new StringBuilder();
+            for (Shard shard : byNumber.values()) {
+                writer.write("shard|" + shard.number + "|" + shard.users + "|" + encodeFilter(shard.filter)
+                        + "|" + shard.location);
+                writer.newLine();
+                if (shard.alerts) {
+                    alertShards.append(alertShards.length() == 0 ? "" : ",").append(shard.number);
+                }
+            }
+            writer.write(ALERTS + alertShards);
+            writer.newLine();
+        }
+        Files.move(temp, manifest(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Only called while saving, so new shard numbers are handed out by one thread
+    private Shard shardFor(String location) {
+        return byLocation.computeIfAbsent(key(location), k -> {
+            Shard shard = new Shard(nextNumber++, k, 0, newFilter(0));
+            shard.loaded = true;
+            byNumber.put(shard.number, shard);
+            return shard;
+        });
+    }
+
+    private Path shardFile(int number) {
+        return directory.resolve("shard-" + number + ".txt");
+    }
+
+    // Same normalisation as the farmer index, so a location filter finds its shard
+    private static String key(String location) {
+        return location == null || location.equals("null") ? "" : location.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static long[] newFilter(int users) {
+        return new long[Math.max(1, (users * FILTER_BITS_PER_USER + 63) / 64)];
+    }
+
+    private static void addToFilter(long[] filter, String username) {
+        long bits = filter.length * 64L;
+        int h1 = username.hashCode();
+        int h2 = secondHash(username);
+        for (int i = 0; i < FILTER_HASHES; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bits);
+            filter[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private static boolean mightContain(long[] filter, String username) {
+        long bits = filter.length * 64L;
+        int h1 = username.hashCode();
+        int h2 = secondHash(username);
+        for (int i = 0; i < FILTER_HASHES; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bits);
+            if ((filter[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // FNV-1a, independent of String.hashCode; odd so the probes cover the filter
+    private static int secondHash(String username) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < username.length(); i++) {
+            hash = (hash ^ username.charAt(i)) * 0x01000193;
+        }
+        return hash | 1;
+    }
+
+    private static String encodeFilter(long[] filter) {
+        ByteBuffer bytes = ByteBuffer.allocate(filter.length * 8);
+        bytes.asLongBuffer().put(filter);
+        return Base64.getEncoder().encodeToString(bytes.array());
+    }
+
+    private static long[] decodeFilter(String text) {
+        ByteBuffer bytes = ByteBuffer.wrap(Base64.getDecoder().decode(text));
+        long[] filter = new long[bytes.remaining() / 8];
+        bytes.asLongBuffer().get(filter);
+        return filter.length == 0 ? new long[1] : filter;
+    }
+}
@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Inverted index from subsidy id to the users who applied for it, kept
+ * as two compressed bitmaps of user ordinals per subsidy: pending and
+ * approved. Counts are O(1) and listing a page costs O(page size), no matter
+ * how many users are registered.
+ *
+ * The registry updates the index while holding the user's lock, right after
+ * changing the user, so the index always matches the users. Only an
+ * application creates a subsidy's entry; lookups for a subsidy nobody
+ * applied for, or one that was removed, read as empty and leave no entry.
+ */
+class SubsidyApplicationIndex {
+
+    enum Status { PENDING, APPROVED }
+
+    // A page of applicants and the cursor to pass in for the next one (-1 when done)
+    static class Page {
+        final List<User> users;
+        final int nextCursor;
+
+        Page(List<User> users, int nextCursor) {
+            this.users = users;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    private static class Entry {
+        final CompressedBitmap pending = new CompressedBitmap();
+        final CompressedBitmap approved = new CompressedBitmap();
+    }
+
+    private static final Entry EMPTY = new Entry();
+
+    private final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+    void onApply(User user, int subsidyNumber) {
+        Entry entry = entries.computeIfAbsent(subsidyNumber, id -> new Entry());
+        synchronized (entry) {
+            if (user.isSubsidyApproved(subsidyNumber)) {
+                entry.approved.add(user.getOrdinal());
+            } else {
+                entry.pending.add(user.getOrdinal());
+            }
+        }
+    }
+
+    void onApprove(User user, int subsidyNumber) {
+        Entry entry = entry(subsidyNumber);
+        if (entry == EMPTY) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.pending.remove(user.getOrdinal())) {
+                entry.approved.add(user.getOrdinal());
+            }
+        }
+    }
+
+    void onReject(User user, int subsidyNumber) {
+        Entry entry = entry(subsidyNumber);
+        if (entry == EMPTY) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.approved.remove(user.getOrdinal())) {
+                entry.pending.add(user.getOrdinal());
+            }
+        }
+    }
+
+    /** Drops a removed subsidy's applicants. Ids are never reused, so nothing else moves. */
+    void onRemoveSubsidy(int subsidyNumber) {
+        entries.remove(subsidyNumber);
+    }
+
+    int count(int subsidyNumber, Status status) {
+        Entry entry = entry(subsidyNumber);
+        synchronized (entry) {
+            return bitmap(entry, status).cardinality();
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} applicants with the given status, starting
+     * after {@code cursor} (-1 for the first page), in registration order.
+     */
+    Page page(int subsidyNumber, Status status, int cursor, int limit, IntFunction<User> byOrdinal) {
+        Entry entry = entry(subsidyNumber);
+        List<User> users = new ArrayList<>(Math.min(limit, 1024));
+        int last;
+        synchronized (entry) {
+            CompressedBitmap bitmap = bitmap(entry, status);
+            last = bitmap.forEachAfter(cursor, ordinal -> {
+                users.add(byOrdinal.apply(ordinal));
+                return users.size() < limit;
+            });
+            if (users.size() < limit || bitmap.forEachAfter(last, ordinal -> false) < 0) {
+                last = -1;
+            }
+        }
+        return new Page(users, last);
+    }
+
+    /** Snapshot of every applicant with the given status, in registration order. */
+    int[] ordinals(int subsidyNumber, Status status) {
+        Entry entry = entry(subsidyNumber);
+        synchronized (entry) {
+            CompressedBitmap bitmap = bitmap(entry, status);
+            int[] ordinals = new int[bitmap.cardinality()];
+            int[] count = new int[1];
+            bitmap.forEachAfter(-1, ordinal -> {
+                ordinals[count[0]++] = ordinal;
+                return true;
+            });
+            return ordinals;
+        }
+    }
+
+    private static CompressedBitmap bitmap(Entry entry, Status status) {
+        return status == Status.APPROVED ? entry.approved : entry.pending;
+    }
+
+    // EMPTY is never written to, so readers may lock and read it like any other entry
+    private Entry entry(int subsidyNumber) {
+        return entries.getOrDefault(subsidyNumber, EMPTY);
+    }
+}
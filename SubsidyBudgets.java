@@ -0,0 +1,110 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Approved farmers per subsidy and per district, counted so an approval can
+ * take a place under the subsidy's budget and its district's quota without
+ * ever going over either, while admins and bulk approvals run in parallel.
+ *
+ * Every count is its own atomic integer, taken with a compare-and-set that
+ * fails once the count is at its limit; there is no lock, so approvals in
+ * different districts touch different counters and only meet on the
+ * subsidy-wide one. An approval takes the district place first and gives it
+ * back if the budget is spent, so neither count ever passes its limit, even
+ * for a moment. Limits are read from the current {@link CropCatalog}, so an
+ * admin can change them at any time; lowering one below the count refuses
+ * new approvals without undoing any.
+ *
+ * The registry keeps the counts as it keeps its other indexes, for indexed
+ * users only and under the user's lock, right after changing the user; an
+ * approval's district is the farmer's location, and moves with it.
+ */
+class SubsidyBudgets {
+
+    enum Approval { APPROVED, ALREADY_APPROVED, OVER_BUDGET, OVER_QUOTA }
+
+    private static final class Account {
+        final AtomicInteger approved = new AtomicInteger();
+        final Map<Integer, AtomicInteger> byLocation = new ConcurrentHashMap<>();
+
+        AtomicInteger location(int locationKey) {
+            return byLocation.computeIfAbsent(locationKey, k -> new AtomicInteger());
+        }
+    }
+
+    private final Map<Integer, Account> accounts = new ConcurrentHashMap<>();
+
+    /** Counts an approval already made, e.g. one loaded from disk; limits do not apply. */
+    void count(int subsidyId, int locationKey) {
+        Account account = account(subsidyId);
+        account.location(locationKey).incrementAndGet();
+        account.approved.incrementAndGet();
+    }
+
+    /** Takes a place for a new approval, or says which limit is reached. */
+    Approval claim(int subsidyId, int locationKey) {
+        CropCatalog.Subsidy subsidy = CropCatalog.current().subsidyRecord(subsidyId);
+        Account account = account(subsidyId);
+        AtomicInteger location = account.location(locationKey);
+        if (!increment(location, subsidy == null ? Integer.MAX_VALUE : subsidy.quota(locationKey))) {
+            return Approval.OVER_QUOTA;
+        }
+        if (!increment(account.approved, subsidy == null ? Integer.MAX_VALUE : subsidy.approvalLimit())) {
+            location.decrementAndGet();
+            return Approval.OVER_BUDGET;
+        }
+        return Approval.APPROVED;
+    }
+
+    /** Gives back the place of an approval undone. */
+    void release(int subsidyId, int locationKey) {
+        Account account = accounts.get(subsidyId);
+        if (account != null) {
+            account.location(locationKey).decrementAndGet();
+            account.approved.decrementAndGet();
+        }
+    }
+
+    /** Moves an approval to the farmer's new district; its quota may be exceeded, the approval stands. */
+    void move(int subsidyId, int fromLocationKey, int toLocationKey) {
+        Account account = accounts.get(subsidyId);
+        if (account != null && fromLocationKey != toLocationKey) {
+            account.location(toLocationKey).incrementAndGet();
+            account.location(fromLocationKey).decrementAndGet();
+        }
+    }
+
+    /** Forgets a removed subsidy; ids are never reused. */
+    void remove(int subsidyId) {
+        accounts.remove(subsidyId);
+    }
+
+    int approved(int subsidyId) {
+        Account account = accounts.get(subsidyId);
+        return account == null ? 0 : account.approved.get();
+    }
+
+    int approved(int subsidyId, int locationKey) {
+        Account account = accounts.get(subsidyId);
+        AtomicInteger location = account == null ? null : account.byLocation.get(locationKey);
+        return location == null ? 0 : location.get();
+    }
+
+    private Account account(int subsidyId) {
+        return accounts.computeIfAbsent(subsidyId, id -> new Account());
+    }
+
+    // Adds one unless the count is already at the limit
+    private static boolean increment(AtomicInteger count, int limit) {
+        while (true) {
+            int current = count.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+}
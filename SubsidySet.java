@@ -0,0 +1,136 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Set of subsidy numbers stored as a primitive bitset. Numbers below 64 -
+ * every subsidy we have ever run - live in one inline long, so a typical user
+ * carries no extra objects at all; larger numbers spill into a long[].
+ * Membership, add and remove are O(1) and iteration is in ascending order
+ * without boxing.
+ *
+ * Not thread-safe; {@link User} guards its sets with its own lock.
+ */
+class SubsidySet implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // The catalog hands out subsidy ids one at a time, so anything larger is corrupt data and would
+    // otherwise size the word array from a single number
+    static final int MAX_NUMBER = (1 << 16) - 1;
+
+    private long low;
+    private long[] high;    // bits for numbers 64 and up, word i covering 64 * (i + 1) ...
+
+    boolean add(int number) {
+        checkRange(number);
+        if (number < 64) {
+            long before = low;
+            low |= 1L << number;
+            return low != before;
+        }
+        int word = (number >>> 6) - 1;
+        if (high == null || word >= high.length) {
+            high = high == null ? new long[word + 1] : Arrays.copyOf(high, Math.max(word + 1, high.length * 2));
+        }
+        long before = high[word];
+        high[word] |= 1L << number;
+        return high[word] != before;
+    }
+
+    boolean remove(int number) {
+        if (number < 0) {
+            return false;
+        }
+        if (number < 64) {
+            long before = low;
+            low &= ~(1L << number);
+            return low != before;
+        }
+        int word = (number >>> 6) - 1;
+        if (high == null || word >= high.length) {
+            return false;
+        }
+        long before = high[word];
+        high[word] &= ~(1L << number);
+        return high[word] != before;
+    }
+
+    boolean contains(int number) {
+        if (number < 0) {
+            return false;
+        }
+        if (number < 64) {
+            return (low & (1L << number)) != 0;
+        }
+        int word = (number >>> 6) - 1;
+        return high != null && word < high.length && (high[word] & (1L << number)) != 0;
+    }
+
+    int size() {
+        int size = Long.bitCount(low);
+        if (high != null) {
+            for (long word : high) {
+                size += Long.bitCount(word);
+            }
+        }
+        return size;
+    }
+
+    boolean isEmpty() {
+        if (low != 0) {
+            return false;
+        }
+        if (high != null) {
+            for (long word : high) {
+                if (word != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    void forEach(IntConsumer action) {
+        forEachBit(low, 0, action);
+        if (high != null) {
+            for (int i = 0; i < high.length; i++) {
+                forEachBit(high[i], (i + 1) << 6, action);
+            }
+        }
+    }
+
+    /** Removes a number and shifts every larger number down by one. */
+    void removeAndShift(int number) {
+        SubsidySet shifted = new SubsidySet();
+        forEach(n -> {
+            if (n < number) {
+                shifted.add(n);
+            } else if (n > number) {
+                shifted.add(n - 1);
+            }
+        });
+        low = shifted.low;
+        high = shifted.high;
+    }
+
+    List<Integer> toList() {
+        List<Integer> list = new ArrayList<>(size());
+        forEach(list::add);
+        return list;
+    }
+
+    private static void forEachBit(long word, int base, IntConsumer action) {
+        while (word != 0) {
+            action.accept(base + Long.numberOfTrailingZeros(word));
+            word &= word - 1;
+        }
+    }
+
+    private static void checkRange(int number) {
+        if (number < 0 || number > MAX_NUMBER) {
+            throw new IllegalArgumentException("Invalid subsidy number " + number);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Background thread that clears references to removed subsidies.
+ *
+ * Removing a subsidy only tombstones its id in the catalog, so the admin
+ * never waits on a pass over every user. This thread then walks the users in
+ * batches of {@code agri.sweep.batch}, dropping any id that is no longer
+ * active, and once a full pass is done purges the tombstones it started
+ * with. It runs once at startup, which also cleans ids left behind by a
+ * crash between the catalog and the user data being saved.
+ */
+final class SubsidySweeper {
+
+    private static final int BATCH_SIZE = Integer.getInteger("agri.sweep.batch", 10_000);
+
+    private static final Object LOCK = new Object();
+    private static boolean pending = true;
+
+    private SubsidySweeper() {
+    }
+
+    static void start(UserRegistry users) {
+        Thread thread = new Thread(() -> run(users), "subsidy-sweeper");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /** Requests another pass, e.g. after a subsidy was removed. */
+    static void wakeUp() {
+        synchronized (LOCK) {
+            pending = true;
+            LOCK.notifyAll();
+        }
+    }
+
+    private static void run(UserRegistry users) {
+        while (true) {
+            synchronized (LOCK) {
+                while (!pending) {
+                    try {
+                        LOCK.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                pending = false;
+            }
+            sweep(users);
+        }
+    }
+
+    /** One full pass; returns the number of users changed. */
+    static int sweep(UserRegistry users) {
+        long start = System.nanoTime();
+        int[] tombstones = CropCatalog.current().tombstonedSubsidyIds();
+        int changed = 0;
+        Iterator<User> it = users.all().iterator();
+        while (it.hasNext()) {
+            for (int i = 0; i < BATCH_SIZE && it.hasNext(); i++) {
+                if (dropRemoved(it.next())) {
+                    changed++;
+                }
+            }
+            Thread.yield(); // let sessions in between batches
+        }
+
+        if (tombstones.length > 0) {
+            // Not saved here: a tombstone that outlives a crash is just swept again
+            CropCatalog.update(catalog -> {
+                for (int id : tombstones) {
+                    catalog.purgeSubsidy(id);
+                }
+            });
+            // An application racing the removal may have recreated an index entry
+            for (int id : tombstones) {
+                users.removeSubsidy(id);
+            }
+        }
+        OperationMetrics.SUBSIDY_SWEEP.record(start);
+        return changed;
+    }
+
+    static boolean dropRemoved(User user) {
+        synchronized (user) {
+            // Read under the user's lock so a subsidy added before the user applied is visible
+            CropCatalog catalog = CropCatalog.current();
+            List<Integer> removed = new ArrayList<>(0);
+            user.forEachSubsidyApplication(id -> {
+                if (!catalog.isActiveSubsidy(id)) {
+                    removed.add(id);
+                }
+            });
+            user.forEachApprovedSubsidy(id -> {
+                if (!catalog.isActiveSubsidy(id)) {
+                    removed.add(id);
+                }
+            });
+            for (int id : removed) {
+                user.dropSubsidy(id);
+            }
+            return !removed.isEmpty();
+        }
+    }
+}
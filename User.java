@@ -0,0 +1,250 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+// Mutators and getters lock on the user itself, so sessions working on
+// different users never contend and two admins editing one user never
+// interleave half-finished changes.
+class User implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private String username;
+    private String password;
+    private String fullName;
+    private double landSize;
+    // Codes in AttributeDictionary.LOCATIONS and SOIL_TYPES; 0 until land details are entered
+    private int location;
+    private int soilType;
+    private final SubsidySet subsidyApplications = new SubsidySet();
+    private final SubsidySet approvedSubsidies = new SubsidySet();
+    // Armed and fired price alerts; null for the many users without any
+    private PriceAlert[] priceAlerts;
+    private boolean isAdmin;
+    private int ordinal = -1;
+    // Where the saved copy is (a shard file, or -1 for user.txt), and whether the user changed since
+    private int savedShard = -1;
+    private boolean changed = true;
+
+    public User(String username, String password, String fullName) {
+        this(username, password, fullName, false);
+    }
+
+    public User(String username, String password, String fullName, boolean isAdmin) {
+        this.username = username;
+        this.password = password;
+        this.fullName = fullName;
+        this.isAdmin = isAdmin;
+    }
+
+    // Verifies on the calling thread; sessions go through CredentialVerifier instead
+    public boolean authenticate(String password) {
+        return PasswordHasher.matches(getPassword(), password);
+    }
+
+    // Swaps in a new hash unless the password changed meanwhile
+    synchronized boolean replacePassword(String expected, String stored) {
+        if (!password.equals(expected)) {
+            return false;
+        }
+        password = stored;
+        changed = true;
+        return true;
+    }
+
+    synchronized void setPassword(String stored) {
+        password = stored;
+        changed = true;
+    }
+
+    public synchronized void setLandDetails(double landSize, String location, String soilType) {
+        this.landSize = landSize;
+        this.location = AttributeDictionary.LOCATIONS.code(location);
+        this.soilType = AttributeDictionary.SOIL_TYPES.code(soilType);
+        changed = true;
+    }
+
+    // Codes from AttributeDictionary, for loaders that look them up without making strings
+    synchronized void setLandDetails(double landSize, int locationCode, int soilTypeCode) {
+        this.landSize = landSize;
+        this.location = locationCode;
+        this.soilType = soilTypeCode;
+        changed = true;
+    }
+
+    // Returns false if the user has already applied
+    public synchronized boolean addSubsidyApplication(int subsidyNumber) {
+        return markChanged(subsidyApplications.add(subsidyNumber));
+    }
+
+    public synchronized boolean hasAppliedForSubsidy(int subsidyNumber) {
+        return subsidyApplications.contains(subsidyNumber);
+    }
+
+    public synchronized boolean isSubsidyApproved(int subsidyNumber) {
+        return approvedSubsidies.contains(subsidyNumber);
+    }
+
+    // Returns false if the application was already approved
+    public synchronized boolean approveSubsidy(int subsidyNumber) {
+        return markChanged(approvedSubsidies.add(subsidyNumber));
+    }
+
+    // Returns false if the application was already pending
+    public synchronized boolean rejectSubsidy(int subsidyNumber) {
+        return markChanged(approvedSubsidies.remove(subsidyNumber));
+    }
+
+    // Clears a removed subsidy id; returns false if the user did not refer to it
+    public synchronized boolean dropSubsidy(int subsidyId) {
+        boolean applied = subsidyApplications.remove(subsidyId);
+        return markChanged(approvedSubsidies.remove(subsidyId) | applied);
+    }
+
+    // Drops a removed subsidy and shifts the numbers of the ones after it (legacy log replay)
+    public synchronized void removeSubsidy(int subsidyNumber) {
+        subsidyApplications.removeAndShift(subsidyNumber);
+        changed = true;
+    }
+
+    private boolean markChanged(boolean didChange) {
+        changed |= didChange;
+        return didChange;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public synchronized String getPassword() {
+        return password;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    public synchronized double getLandSize() {
+        return landSize;
+    }
+
+    public synchronized String getLocation() {
+        return AttributeDictionary.LOCATIONS.value(location);
+    }
+
+    public synchronized String getSoilType() {
+        return AttributeDictionary.SOIL_TYPES.value(soilType);
+    }
+
+    synchronized int getLocationCode() {
+        return location;
+    }
+
+    synchronized int getSoilTypeCode() {
+        return soilType;
+    }
+
+    /** Armed and fired alerts, in the order they were added. */
+    synchronized List<PriceAlert> getPriceAlerts() {
+        return priceAlerts == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(priceAlerts));
+    }
+
+    // Returns false if the same alert is already there
+    synchronized boolean addPriceAlert(PriceAlert alert) {
+        List<PriceAlert> alerts = getPriceAlerts();
+        if (alerts.contains(alert)) {
+            return false;
+        }
+        alerts.add(alert);
+        setPriceAlerts(alerts);
+        return true;
+    }
+
+    synchronized boolean removePriceAlert(PriceAlert alert) {
+        List<PriceAlert> alerts = getPriceAlerts();
+        if (!alerts.remove(alert)) {
+            return false;
+        }
+        setPriceAlerts(alerts);
+        return true;
+    }
+
+    // Returns false if the alert is no longer armed, e.g. removed meanwhile
+    synchronized boolean firePriceAlert(PriceAlert armed, double price) {
+        List<PriceAlert> alerts = getPriceAlerts();
+        int index = alerts.indexOf(armed);
+        if (index < 0) {
+            return false;
+        }
+        alerts.set(index, armed.fired(price));
+        setPriceAlerts(alerts);
+        return true;
+    }
+
+    /** Removes and returns the fired alerts, to show them. */
+    synchronized List<PriceAlert> takeFiredPriceAlerts() {
+        List<PriceAlert> fired = new ArrayList<>();
+        List<PriceAlert> armed = new ArrayList<>();
+        for (PriceAlert alert : getPriceAlerts()) {
+            (alert.isArmed() ? armed : fired).add(alert);
+        }
+        if (!fired.isEmpty()) {
+            setPriceAlerts(armed);
+        }
+        return fired;
+    }
+
+    synchronized void setPriceAlerts(List<PriceAlert> alerts) {
+        priceAlerts = alerts.isEmpty() ? null : alerts.toArray(new PriceAlert[0]);
+        changed = true;
+    }
+
+    // Copies in ascending order, safe to iterate while other sessions change the user
+    public synchronized List<Integer> getSubsidyApplications() {
+        return subsidyApplications.toList();
+    }
+
+    public synchronized List<Integer> getApprovedSubsidies() {
+        return approvedSubsidies.toList();
+    }
+
+    public synchronized boolean hasSubsidyApplications() {
+        return !subsidyApplications.isEmpty();
+    }
+
+    // Allocation-free iteration for scans and persistence
+    public synchronized void forEachSubsidyApplication(IntConsumer action) {
+        subsidyApplications.forEach(action);
+    }
+
+    public synchronized void forEachApprovedSubsidy(IntConsumer action) {
+        approvedSubsidies.forEach(action);
+    }
+
+    public boolean isAdmin() {
+        return isAdmin;
+    }
+
+    // Position in the registry, assigned once when the user is registered
+    int getOrdinal() {
+        return ordinal;
+    }
+
+    void setOrdinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
+
+    synchronized int getSavedShard() {
+        return savedShard;
+    }
+
+    synchronized boolean isChangedSinceSave() {
+        return changed;
+    }
+
+    // Call under the user's lock, right after writing the user to the shard or user file
+    void markSaved(int shard) {
+        savedShard = shard;
+        changed = false;
+    }
+}
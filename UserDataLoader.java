@@ -0,0 +1,340 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Bulk loader for the pipe-delimited user file. The file is memory-mapped,
+ * cut into line-aligned chunks and the chunks are parsed in parallel, then
+ * merged into the users map in file order.
+ */
+class UserDataLoader {
+
+    private static final int MIN_CHUNK_SIZE = 1 << 20;      // 1 MB
+    private static final int MAX_CHUNK_SIZE = 1 << 30;      // 1 GB, below the mapping limit
+    private static final int FIELD_COUNT = 10;
+
+    static class LoadReport {
+        final int records;
+        final List<String> errors;
+        final long elapsedNanos;
+
+        LoadReport(int records, List<String> errors, long elapsedNanos) {
+            this.records = records;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        double recordsPerSecond() {
+            return elapsedNanos == 0 ? records : records * 1_000_000_000.0 / elapsedNanos;
+        }
+    }
+
+    // Result of parsing one chunk; line numbers in errors are chunk-local until merged
+    private static class ChunkResult {
+        final List<User> users = new ArrayList<>();
+        final List<Integer> errorLines = new ArrayList<>();
+        final List<String> errorMessages = new ArrayList<>();
+        int lines;
+    }
+
+    static LoadReport load(Path file, Map<String, User> users) throws IOException {
+        long start = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel);
+            int chunkCount = bounds.length - 1;
+
+            ChunkResult[] results = new ChunkResult[chunkCount];
+            IntStream.range(0, chunkCount).parallel().forEach(i -> {
+                try {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                            bounds[i], bounds[i + 1] - bounds[i]);
+                    results[i] = parseChunk(buffer);
+                } catch (IOException e) {
+                    throw new java.io.UncheckedIOException(e);
+                }
+            });
+
+            // Merge in chunk order so later lines override earlier ones, as before
+            int records = 0;
+            int lineOffset = 0;
+            List<String> errors = new ArrayList<>();
+            for (ChunkResult result : results) {
+                for (User user : result.users) {
+                    users.put(user.getUsername(), user);
+                }
+                records += result.users.size();
+                for (int i = 0; i < result.errorLines.size(); i++) {
+                    errors.add("Line " + (lineOffset + result.errorLines.get(i)) + ": " + result.errorMessages.get(i));
+                }
+                lineOffset += result.lines;
+            }
+
+            return new LoadReport(records, errors, System.nanoTime() - start);
+        } catch (java.io.UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Splits the file into chunks that each end just after a newline
+    private static long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int cores = Runtime.getRuntime().availableProcessors();
+        long target = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / (cores * 4L) + 1));
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        long position = 0;
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        while (size - position > target) {
+            long next = nextLineStart(channel, position + target, size, probe);
+            if (next >= size) {
+                break;
+            }
+            bounds.add(next);
+            position = next;
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    private static long nextLineStart(FileChannel channel, long from, long size, ByteBuffer probe) throws IOException {
+        long position = from;
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static ChunkResult parseChunk(ByteBuffer buffer) {
+        ChunkResult result = new ChunkResult();
+        byte[] line = new byte[256];
+        int[] fieldStart = new int[FIELD_COUNT + 1];
+        int[] fieldEnd = new int[FIELD_COUNT + 1];
+
+        while (buffer.hasRemaining()) {
+            // Copy the next line into the reusable scratch buffer
+            int length = 0;
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    break;
+                }
+                if (length == line.length) {
+                    line = java.util.Arrays.copyOf(line, line.length * 2);
+                }
+                line[length++] = b;
+            }
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            result.lines++;
+
+            try {
+                User user = parseLine(line, length, fieldStart, fieldEnd);
+                if (user != null) {
+                    result.users.add(user);
+                }
+            } catch (IllegalArgumentException e) {
+                result.errorLines.add(result.lines);
+                result.errorMessages.add(e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /** Parses a single record line, e.g. one read back by offset; null if it has fewer than 4 fields. */
+    static User parseRecord(byte[] line, int length) {
+        return parseLine(line, length, new int[FIELD_COUNT + 1], new int[FIELD_COUNT + 1]);
+    }
+
+    // Parses one record; returns null for lines with fewer than 4 fields, like the old split-based loader
+    private static User parseLine(byte[] line, int length, int[] fieldStart, int[] fieldEnd) {
+        int fields = 0;
+        int start = 0;
+        for (int i = 0; i <= length && fields < fieldStart.length; i++) {
+            if (i == length || line[i] == '|') {
+                fieldStart[fields] = trimStart(line, start, i);
+                fieldEnd[fields] = trimEnd(line, fieldStart[fields], i);
+                fields++;
+                start = i + 1;
+            }
+        }
+        // String.split drops trailing empty fields
+        while (fields > 0 && fieldStart[fields - 1] == fieldEnd[fields - 1]) {
+            fields--;
+        }
+        if (fields < 4) {
+            return null;
+        }
+
+        User user = new User(
+            text(line, fieldStart[0], fieldEnd[0]), // username
+            text(line, fieldStart[1], fieldEnd[1]), // password
+            text(line, fieldStart[2], fieldEnd[2]), // fullName
+            isTrue(line, fieldStart[3], fieldEnd[3]) // isAdmin
+        );
+
+        // Land details (if available)
+        if (fields >= 7) {
+            user.setLandDetails(
+                parseDouble(line, fieldStart[4], fieldEnd[4]), // landSize
+                AttributeDictionary.LOCATIONS.code(line, fieldStart[5], fieldEnd[5]), // location
+                AttributeDictionary.SOIL_TYPES.code(line, fieldStart[6], fieldEnd[6])  // soilType
+            );
+        }
+
+        // Subsidy applications (if available)
+        if (fields >= 8) {
+            forEachInt(line, fieldStart[7], fieldEnd[7], user, false);
+        }
+
+        // Approved subsidies (if available)
+        if (fields >= 9) {
+            forEachInt(line, fieldStart[8], fieldEnd[8], user, true);
+        }
+
+        // Price alerts (only written for users that have any)
+        if (fields >= 10) {
+            user.setPriceAlerts(PriceAlert.parseList(text(line, fieldStart[9], fieldEnd[9])));
+        }
+        return user;
+    }
+
+    private static void forEachInt(byte[] line, int from, int to, User user, boolean approved) {
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || line[i] == ',') {
+                if (to > from) {
+                    int s = trimStart(line, start, i);
+                    int value = parseInt(line, s, trimEnd(line, s, i));
+                    if (approved) {
+                        user.approveSubsidy(value);
+                    } else {
+                        user.addSubsidyApplication(value);
+                    }
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    private static int trimStart(byte[] line, int from, int to) {
+        while (from < to && (line[from] & 0xff) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] line, int from, int to) {
+        while (to > from && (line[to - 1] & 0xff) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    private static String text(byte[] line, int from, int to) {
+        return new String(line, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isTrue(byte[] line, int from, int to) {
+        return to - from == 4
+                && (line[from] | 0x20) == 't'
+                && (line[from + 1] | 0x20) == 'r'
+                && (line[from + 2] | 0x20) == 'u'
+                && (line[from + 3] | 0x20) == 'e';
+    }
+
+    private static int parseInt(byte[] line, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (line[i] == '-' || line[i] == '+')) {
+            negative = line[i] == '-';
+            i++;
+        }
+        if (i == to) {
+            throw new IllegalArgumentException("Invalid number \"" + text(line, from, to) + "\"");
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid number \"" + text(line, from, to) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid number \"" + text(line, from, to) + "\"");
+        }
+        return (int) value;
+    }
+
+    // Fast path for plain decimals like "250.0"; anything else goes through Double.parseDouble
+    private static double parseDouble(byte[] line, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (line[i] == '-' || line[i] == '+')) {
+            negative = line[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDot = false;
+        boolean simple = i < to;
+        for (; i < to && simple; i++) {
+            byte b = line[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                if (++digits > 15) {
+                    simple = false;
+                }
+                if (seenDot) {
+                    scale++;
+                }
+            } else if (b == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                simple = false;
+            }
+        }
+        if (simple && digits > 0) {
+            // Both operands are exact doubles, so one division is correctly rounded
+            double value = mantissa / POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(text(line, from, to));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid land size \"" + text(line, from, to) + "\"");
+        }
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16
+    };
+}
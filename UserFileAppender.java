@@ -0,0 +1,103 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/**
+ * Write-behind for user.txt in the default layout, where every user is in
+ * memory and the file is text.
+ *
+ * A save appends a record for each user changed since the last one, which
+ * the text loader already reads as "later lines win", syncs, then rewrites
+ * the fixed-width checkpoint line at the top of the file in place, so a log
+ * checkpoint costs the users changed rather than the users held. Once
+ * superseded lines outnumber live ones, or a save failed part way, the next
+ * save rewrites the file compactly from memory instead.
+ *
+ * Used by the log's compactor and by the final save, which runs after the
+ * log has closed, so never by two threads at once.
+ */
+final class UserFileAppender {
+
+    private final Path file;
+    private long lines;         // record lines in the file, superseded ones included
+    private boolean rewrite;    // the file may be missing changes whose users are marked saved
+
+    /** {@code lines} is how many records the file held at load. */
+    UserFileAppender(Path file, long lines) {
+        this.file = file;
+        this.lines = lines;
+    }
+
+    /** Writes the changed users and records the log checkpoint; returns the users written. */
+    int save(Collection<User> users, long checkpoint) throws IOException {
+        if (rewrite || lines - users.size() > users.size() || !hasFixedHeader()) {
+            return rewrite(users, checkpoint);
+        }
+        rewrite = true;
+        int written = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            LazyUserStore.dropTornTail(channel);
+            channel.position(channel.size());
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            for (User user : users) {
+                String record;
+                synchronized (user) {
+                    if (!user.isChangedSinceSave()) {
+                        continue;
+                    }
+                    record = AgricultureManagementSystem.formatUserRecord(user) + "\n";
+                    user.markSaved(-1);
+                }
+                out.write(record.getBytes(StandardCharsets.UTF_8));
+                written++;
+            }
+            out.flush();
+            channel.force(false);
+            ByteBuffer header = ByteBuffer.wrap(UserWriteAheadLog.checkpointLine(checkpoint).getBytes(StandardCharsets.UTF_8));
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(false);
+        }
+        lines += written;
+        rewrite = false;
+        return written;
+    }
+
+    // A change made after a user is marked saved marks it changed again, so it is never lost
+    // between the two loops; at worst it is also appended by the next save
+    private int rewrite(Collection<User> users, long checkpoint) throws IOException {
+        rewrite = true;
+        for (User user : users) {
+            synchronized (user) {
+                user.markSaved(-1);
+            }
+        }
+        AgricultureManagementSystem.writeUserFile(file, users, checkpoint);
+        lines = users.size();
+        rewrite = false;
+        return users.size();
+    }
+
+    // The checkpoint can only be rewritten in place if the first line has the fixed width
+    private boolean hasFixedHeader() throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        byte[] head = new byte[UserWriteAheadLog.CHECKPOINT_LINE_LENGTH + 1];
+        int length;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            length = Math.max(0, in.read(ByteBuffer.wrap(head)));
+        }
+        return length == head.length && head[length - 1] == '\n'
+                && new String(head, 0, length, StandardCharsets.UTF_8).startsWith(UserWriteAheadLog.CHECKPOINT_PREFIX);
+    }
+}
@@ -0,0 +1,197 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap taken by User records with the current bitset subsidy
+ * sets against the previous layout of two ArrayList<Integer> per user.
+ * Every user gets two applications and one approval, like the fixtures.
+ * Small subsidy numbers box to cached Integers, so the old layout's cost here
+ * is the two lists and their backing arrays.
+ *
+ * Then measures land details: location and soil type as the strings the
+ * loader used to create for every line, against the dictionary codes User
+ * holds now, with the collections each run took. Users get one of 36
+ * districts and 6 soil types, or none, like DatasetGenerator.
+ *
+ * Usage: java -Xmx2g UserFootprintMeasurement [users]
+ */
+class UserFootprintMeasurement {
+
+    // The fields User had when subsidies were kept in boxed lists
+    private static class ListUser {
+        String username;
+        String password;
+        String fullName;
+        double landSize;
+        String location;
+        String soilType;
+        List<Integer> subsidyApplications = new ArrayList<>();
+        List<Integer> approvedSubsidies = new ArrayList<>();
+        boolean isAdmin;
+    }
+
+    // Land details as User kept them before dictionary codes
+    private static class StringLandDetails {
+        double landSize;
+        String location;
+        String soilType;
+    }
+
+    private static final String[] DISTRICTS = {
+        "Pune", "Nashik", "Nagpur", "Aurangabad", "Solapur", "Kolhapur", "Satara", "Sangli", "Ahmednagar",
+        "Jalgaon", "Amravati", "Akola", "Latur", "Beed", "Buldhana", "Ludhiana", "Amritsar", "Patiala",
+        "Bathinda", "Karnal", "Hisar", "Rohtak", "Indore", "Bhopal", "Jabalpur", "Ujjain", "Jaipur",
+        "Jodhpur", "Kota", "Bikaner", "Guntur", "Kurnool", "Nellore", "Warangal", "Belgaum", "Dharwad"
+    };
+    private static final String[] SOILS = {"Black", "Red", "Alluvial", "Loamy", "Sandy", "Clay"};
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = "user" + i;
+        }
+
+        long baseline = usedHeap();
+        Object[] lists = new Object[count];
+        for (int i = 0; i < count; i++) {
+            ListUser user = new ListUser();
+            user.username = names[i];
+            user.password = names[i];
+            user.fullName = names[i];
+            user.subsidyApplications.add(1 + i % 3);
+            user.subsidyApplications.add(4 + i % 3);
+            user.approvedSubsidies.add(1 + i % 3);
+            lists[i] = user;
+        }
+        long listBytes = usedHeap() - baseline;
+        lists = null;
+
+        baseline = usedHeap();
+        Object[] bitsets = new Object[count];
+        for (int i = 0; i < count; i++) {
+            User user = new User(names[i], names[i], names[i]);
+            user.addSubsidyApplication(1 + i % 3);
+            user.addSubsidyApplication(4 + i % 3);
+            user.approveSubsidy(1 + i % 3);
+            bitsets[i] = user;
+        }
+        long bitsetBytes = usedHeap() - baseline;
+
+        System.out.printf("%,d users%n", count);
+        System.out.printf("ArrayList<Integer> layout: %,d bytes (%.1f per user)%n", listBytes, (double) listBytes / count);
+        System.out.printf("SubsidySet layout:         %,d bytes (%.1f per user)%n", bitsetBytes, (double) bitsetBytes / count);
+        System.out.printf("Saved: %.1f%%%n", 100.0 * (listBytes - bitsetBytes) / listBytes);
+        if (bitsets.length == 0) {
+            System.out.println(); // keeps the users reachable until measured
+        }
+        bitsets = null;
+
+        measureLandDetails(count);
+    }
+
+    private static void measureLandDetails(int count) {
+        long baseline = usedHeap();
+        long[] gcBefore = collections();
+        Object[] strings = new Object[count];
+        for (int i = 0; i < count; i++) {
+            StringLandDetails user = new StringLandDetails();
+            byte[] line = lineFor(i);
+            int split = indexOf(line, '|');
+            // new strings per line, as the loader made them
+            user.location = new String(line, 0, split);
+            user.soilType = new String(line, split + 1, line.length - split - 1);
+            strings[i] = user;
+        }
+        long[] stringGc = since(gcBefore);
+        long stringBytes = usedHeap() - baseline;
+        if (strings.length == 0) {
+            System.out.println();
+        }
+        strings = null;
+        baseline = usedHeap();
+        Object[] holders = new Object[count];
+        for (int i = 0; i < count; i++) {
+            holders[i] = new StringLandDetails();
+        }
+        stringBytes -= usedHeap() - baseline;
+        if (holders.length == 0) {
+            System.out.println();
+        }
+        holders = null;
+
+        baseline = usedHeap();
+        gcBefore = collections();
+        Object[] codes = new Object[count];
+        for (int i = 0; i < count; i++) {
+            User user = new User("u", "p", "f");
+            byte[] line = lineFor(i);
+            int split = indexOf(line, '|');
+            user.setLandDetails(0, AttributeDictionary.LOCATIONS.code(line, 0, split),
+                    AttributeDictionary.SOIL_TYPES.code(line, split + 1, line.length));
+            codes[i] = user;
+        }
+        long[] codeGc = since(gcBefore);
+        // Both sides count only what the land details add to an object without them
+        long codeBytes = usedHeap() - baseline;
+        if (codes.length == 0) {
+            System.out.println();
+        }
+        codes = null;
+        baseline = usedHeap();
+        Object[] bare = new Object[count];
+        for (int i = 0; i < count; i++) {
+            bare[i] = new User("u", "p", "f");
+        }
+        codeBytes -= usedHeap() - baseline;
+
+        System.out.printf("%nLand details for %,d users:%n", count);
+        System.out.printf("Strings per user:  %,d bytes (%.1f per user), %d collection(s), %d ms in GC%n",
+                stringBytes, (double) stringBytes / count, stringGc[0], stringGc[1]);
+        System.out.printf("Dictionary codes:  %,d bytes (%.1f per user), %d collection(s), %d ms in GC%n",
+                codeBytes, (double) codeBytes / count, codeGc[0], codeGc[1]);
+        if (bare.length == 0) {
+            System.out.println();
+        }
+    }
+
+    // "district|soil" or "null|null", the two fields as they sit in a user.txt line
+    private static byte[] lineFor(int i) {
+        String line = i % 5 == 0 ? "null|null" : DISTRICTS[i % DISTRICTS.length] + "|" + SOILS[i % SOILS.length];
+        return line.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(byte[] line, char c) {
+        for (int i = 0; i < line.length; i++) {
+            if (line[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long[] collections() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+
+    private static long[] since(long[] before) {
+        long[] now = collections();
+        return new long[]{now[0] - before[0], now[1] - before[1]};
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,467 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Registry of all users shared by every session.
+ *
+ * Lookups never lock. Writes lock only the hash bin they touch, so
+ * registrations of different usernames proceed in parallel, and
+ * {@link #register} checks and inserts in one atomic step. Changes to one
+ * user's applications lock that {@link User} alone. Iteration for admin scans
+ * is weakly consistent: it never throws and never blocks writers, and sees
+ * each user at most once, but may or may not include users registered while
+ * the scan runs.
+ *
+ * Every user also gets a dense ordinal in registration order, which the
+ * subsidy application index and the farmer index use as their bitmap
+ * position. Subsidy changes go
+ * through the registry so the user and the index change together, and so
+ * approvals stay within each subsidy's budget and district quotas.
+ *
+ * The methods that change a user also take a {@code logged} callback, run
+ * under the user's lock right after a change that took effect, so the
+ * caller's log records one user's changes in the order they were made.
+ * Others are not locked while it runs; write-backs of evicted users happen
+ * after the lock is released.
+ *
+ * Removing a subsidy only drops its index entry; the users that still refer
+ * to it are cleaned up in the background by {@link SubsidySweeper}.
+ *
+ * With a {@link LazyUserStore} attached, lookups and registrations go to the
+ * store and users are not indexed; {@link #ensureResident} loads and indexes
+ * everyone the first time a view over all farmers needs it.
+ *
+ * Armed price alerts are indexed for every user that has one, whatever the
+ * layout, so a price change finds them without loading anyone; the index
+ * keeps those users in memory.
+ */
+class UserRegistry {
+
+    /** A {@code logged} callback for callers that keep no log. */
+    static final Consumer<User> UNLOGGED = user -> { };
+
+    private static final int CHUNK_BITS = 16;
+
+    private final ConcurrentHashMap<String, User> users;
+    private final SubsidyApplicationIndex applications = new SubsidyApplicationIndex();
+    private final FarmerIndex farmers = new FarmerIndex();
+    private final PriceAlertIndex priceAlerts = new PriceAlertIndex();
+    private final SubsidyBudgets budgets = new SubsidyBudgets();
+
+    // Users by ordinal, in fixed-size chunks so growing never copies users
+    private User[][] byOrdinal = new User[16][];
+    private int nextOrdinal;
+    private volatile boolean indexed;
+    private volatile LazyUserStore lazy;
+    // Read-held by lookups while a store is attached, write-held while everyone is loaded
+    private final ReentrantReadWriteLock residency = new ReentrantReadWriteLock();
+
+    UserRegistry() {
+        // Sized for concurrent writers from many sessions
+        users = new ConcurrentHashMap<>(1024, 0.75f, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    User get(String username) {
+        if (lazy != null) {
+            residency.readLock().lock();
+            try {
+                LazyUserStore store = lazy;
+                if (store != null) {
+                    return store.get(username);
+                }
+            } finally {
+                residency.readLock().unlock();
+            }
+        }
+        return users.get(username);
+    }
+
+    boolean contains(String username) {
+        return lazy != null ? get(username) != null : users.containsKey(username);
+    }
+
+    /** Adds the user unless the name is taken; returns false if it was. */
+    boolean register(User user) {
+        return register(user, UNLOGGED);
+    }
+
+    // The new user is locked before it becomes visible, so no change to it can be logged ahead of it
+    boolean register(User user, Consumer<User> logged) {
+        if (lazy != null) {
+            residency.readLock().lock();
+            try {
+                LazyUserStore store = lazy;
+                if (store != null) {
+                    return store.register(user, logged);
+                }
+            } finally {
+                residency.readLock().unlock();
+            }
+        }
+        // The ordinal is set before the user becomes visible; a lost race just leaves a gap
+        user.setOrdinal(reserveOrdinal());
+        synchronized (user) {
+            if (users.putIfAbsent(user.getUsername(), user) != null) {
+                return false;
+            }
+            publish(user);
+            farmers.add(user);
+            logged.accept(user);
+        }
+        return true;
+    }
+
+    /** Serves users from the store until {@link #ensureResident}. */
+    void attach(LazyUserStore store) {
+        lazy = store;
+    }
+
+    /** Call after changing a user outside the registry's own methods. */
+    void touch(User user) {
+        LazyUserStore store = lazy;
+        if (store != null) {
+            store.touch(user);
+        }
+    }
+
+    /**
+     * Loads and indexes every user if a store is attached; later calls return
+     * at once. During log replay, before {@link #rebuildIndexes}, it only loads,
+     * and the rebuild indexes everyone once the replay is done.
+     */
+    void ensureResident() {
+        if (lazy == null) {
+            return;
+        }
+        residency.writeLock().lock();
+        try {
+            LazyUserStore store = lazy;
+            if (store == null) {
+                return;
+            }
+            store.materializeAll();
+            if (indexed) {
+                rebuildIndexes();
+            }
+            lazy = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            residency.writeLock().unlock();
+        }
+    }
+
+    User byOrdinal(int ordinal) {
+        User[] chunk;
+        synchronized (this) {
+            chunk = byOrdinal[ordinal >>> CHUNK_BITS];
+        }
+        return chunk[ordinal & ((1 << CHUNK_BITS) - 1)];
+    }
+
+    /**
+     * Numbers and indexes users added through {@link #asMap()}. Called once
+     * after the bulk load and log replay at startup.
+     */
+    void rebuildIndexes() {
+        for (User user : users.values()) {
+            synchronized (user) {
+                if (user.getOrdinal() < 0) {
+                    user.setOrdinal(reserveOrdinal());
+                    publish(user);
+                    index(user);
+                }
+            }
+        }
+        // Users kept on disk are not indexed, except those with alerts to watch
+        LazyUserStore store = lazy;
+        if (store != null && !store.isResident()) {
+            for (User user : store.usersWithPriceAlerts()) {
+                indexPriceAlerts(user);
+            }
+        }
+        indexed = true;
+    }
+
+    /**
+     * Adds users read from storage after startup, e.g. a shard loaded on
+     * demand, skipping any name already present. Before {@link #rebuildIndexes}
+     * they only go into the map, so log replay can still change them, and
+     * the rebuild indexes them with the rest.
+     */
+    void addLoaded(Collection<User> loaded) {
+        for (User user : loaded) {
+            if (!indexed) {
+                users.putIfAbsent(user.getUsername(), user);
+                continue;
+            }
+            user.setOrdinal(reserveOrdinal());
+            if (users.putIfAbsent(user.getUsername(), user) == null) {
+                publish(user);
+                index(user);
+            }
+        }
+    }
+
+    private void index(User user) {
+        synchronized (user) {
+            farmers.add(user);
+        }
+        indexPriceAlerts(user);
+        CropCatalog catalog = CropCatalog.current();
+        user.forEachSubsidyApplication(subsidy -> {
+            if (catalog.isActiveSubsidy(subsidy)) {
+                applications.onApply(user, subsidy);
+            }
+        });
+        int location = locationKey(user);
+        user.forEachApprovedSubsidy(subsidy -> {
+            if (catalog.isActiveSubsidy(subsidy)) {
+                budgets.count(subsidy, location);
+            }
+        });
+    }
+
+    private static int locationKey(User user) {
+        return AttributeDictionary.LOCATIONS.keyOf(user.getLocationCode());
+    }
+
+    // Users served by a lazy store have no ordinal and are indexed only once everyone is loaded
+    void setLandDetails(User user, double landSize, String location, String soilType) {
+        setLandDetails(user, landSize, location, soilType, UNLOGGED);
+    }
+
+    void setLandDetails(User user, double landSize, String location, String soilType, Consumer<User> logged) {
+        synchronized (user) {
+            boolean indexedUser = user.getOrdinal() >= 0;
+            if (indexedUser) {
+                farmers.remove(user);
+            }
+            int from = locationKey(user);
+            user.setLandDetails(landSize, location, soilType);
+            if (indexedUser) {
+                farmers.add(user);
+                int to = locationKey(user);
+                user.forEachApprovedSubsidy(subsidy -> budgets.move(subsidy, from, to));
+            }
+            logged.accept(user);
+        }
+        touch(user);
+    }
+
+    // Adding an alert twice is harmless, so users indexed again on becoming resident are fine
+    private void indexPriceAlerts(User user) {
+        synchronized (user) {
+            for (PriceAlert alert : user.getPriceAlerts()) {
+                if (alert.isArmed()) {
+                    priceAlerts.add(user, alert);
+                }
+            }
+        }
+    }
+
+    /** Returns false if the user already has the alert. */
+    boolean addPriceAlert(User user, PriceAlert alert) {
+        synchronized (user) {
+            if (!user.addPriceAlert(alert)) {
+                return false;
+            }
+            priceAlerts.add(user, alert);
+        }
+        touch(user);
+        return true;
+    }
+
+    /** Returns false if the user has no such alert. */
+    boolean removePriceAlert(User user, PriceAlert alert) {
+        synchronized (user) {
+            if (!user.removePriceAlert(alert)) {
+                return false;
+            }
+            if (alert.isArmed()) {
+                priceAlerts.remove(user, alert);
+            }
+        }
+        touch(user);
+        return true;
+    }
+
+    /**
+     * Fires the armed alerts on the crop that the price reaches and returns
+     * their users, each once. An alert removed meanwhile is skipped.
+     */
+    List<User> firePriceAlerts(String crop, double price) {
+        Set<User> fired = new LinkedHashSet<>();
+        for (PriceAlertIndex.Crossing crossing : priceAlerts.cross(crop, price)) {
+            User user = crossing.user;
+            synchronized (user) {
+                if (!user.firePriceAlert(crossing.alert, price)) {
+                    continue;
+                }
+            }
+            touch(user);
+            fired.add(user);
+        }
+        return new ArrayList<>(fired);
+    }
+
+    /** Removes and returns the user's fired alerts. */
+    List<PriceAlert> takeFiredPriceAlerts(User user) {
+        List<PriceAlert> fired = user.takeFiredPriceAlerts();
+        if (!fired.isEmpty()) {
+            touch(user);
+        }
+        return fired;
+    }
+
+    /** Armed alerts across all users. */
+    int priceAlertCount() {
+        return priceAlerts.size();
+    }
+
+    FarmerIndex.Page findFarmers(FarmerIndex.Query query, FarmerIndex.Cursor cursor, int limit) {
+        return farmers.find(query, cursor, limit, this::byOrdinal);
+    }
+
+    boolean applyForSubsidy(User user, int subsidyNumber) {
+        return applyForSubsidy(user, subsidyNumber, UNLOGGED);
+    }
+
+    boolean applyForSubsidy(User user, int subsidyNumber, Consumer<User> logged) {
+        synchronized (user) {
+            if (!user.addSubsidyApplication(subsidyNumber)) {
+                return false;
+            }
+            if (user.getOrdinal() >= 0) {
+                applications.onApply(user, subsidyNumber);
+            }
+            logged.accept(user);
+        }
+        touch(user);
+        return true;
+    }
+
+    /**
+     * Approves unless already approved or the subsidy's budget or the
+     * farmer's district quota is used up. Users served by a lazy store are
+     * not counted, so a subsidy with limits needs {@link #ensureResident} first.
+     */
+    SubsidyBudgets.Approval approveSubsidy(User user, int subsidyNumber) {
+        return approveSubsidy(user, subsidyNumber, UNLOGGED);
+    }
+
+    SubsidyBudgets.Approval approveSubsidy(User user, int subsidyNumber, Consumer<User> logged) {
+        synchronized (user) {
+            if (user.isSubsidyApproved(subsidyNumber)) {
+                return SubsidyBudgets.Approval.ALREADY_APPROVED;
+            }
+            boolean indexedUser = user.getOrdinal() >= 0;
+            if (indexedUser && CropCatalog.current().isActiveSubsidy(subsidyNumber)) {
+                SubsidyBudgets.Approval claim = budgets.claim(subsidyNumber, locationKey(user));
+                if (claim != SubsidyBudgets.Approval.APPROVED) {
+                    return claim;
+                }
+            }
+            user.approveSubsidy(subsidyNumber);
+            if (indexedUser) {
+                applications.onApprove(user, subsidyNumber);
+            }
+            logged.accept(user);
+        }
+        touch(user);
+        return SubsidyBudgets.Approval.APPROVED;
+    }
+
+    boolean rejectSubsidy(User user, int subsidyNumber) {
+        return rejectSubsidy(user, subsidyNumber, UNLOGGED);
+    }
+
+    boolean rejectSubsidy(User user, int subsidyNumber, Consumer<User> logged) {
+        synchronized (user) {
+            if (!user.rejectSubsidy(subsidyNumber)) {
+                return false;
+            }
+            if (user.getOrdinal() >= 0) {
+                applications.onReject(user, subsidyNumber);
+                budgets.release(subsidyNumber, locationKey(user));
+            }
+            logged.accept(user);
+        }
+        touch(user);
+        return true;
+    }
+
+    /** O(1): call after tombstoning the subsidy in the catalog. */
+    void removeSubsidy(int subsidyNumber) {
+        applications.onRemoveSubsidy(subsidyNumber);
+        budgets.remove(subsidyNumber);
+    }
+
+    /** Approvals counted against the subsidy's budget. */
+    int approvedCount(int subsidyNumber) {
+        return budgets.approved(subsidyNumber);
+    }
+
+    /** Approvals counted against the subsidy's quota for the location. */
+    int approvedCount(int subsidyNumber, String location) {
+        int key = AttributeDictionary.LOCATIONS.findKey(location);
+        return key < 0 ? 0 : budgets.approved(subsidyNumber, key);
+    }
+
+    int applicantCount(int subsidyNumber, SubsidyApplicationIndex.Status status) {
+        return applications.count(subsidyNumber, status);
+    }
+
+    SubsidyApplicationIndex.Page applicants(int subsidyNumber, SubsidyApplicationIndex.Status status,
+                                            int cursor, int limit) {
+        return applications.page(subsidyNumber, status, cursor, limit, this::byOrdinal);
+    }
+
+    int[] applicantOrdinals(int subsidyNumber, SubsidyApplicationIndex.Status status) {
+        return applications.ordinals(subsidyNumber, status);
+    }
+
+    private synchronized int reserveOrdinal() {
+        int ordinal = nextOrdinal++;
+        int chunk = ordinal >>> CHUNK_BITS;
+        if (chunk == byOrdinal.length) {
+            byOrdinal = java.util.Arrays.copyOf(byOrdinal, chunk * 2);
+        }
+        if (byOrdinal[chunk] == null) {
+            byOrdinal[chunk] = new User[1 << CHUNK_BITS];
+        }
+        return ordinal;
+    }
+
+    private synchronized void publish(User user) {
+        int ordinal = user.getOrdinal();
+        byOrdinal[ordinal >>> CHUNK_BITS][ordinal & ((1 << CHUNK_BITS) - 1)] = user;
+    }
+
+    int size() {
+        LazyUserStore store = lazy;
+        if (store != null) {
+            return store.size();
+        }
+        return users.size();
+    }
+
+    /** Weakly consistent view of all users for admin scans and snapshots. */
+    Collection<User> all() {
+        return users.values();
+    }
+
+    /** The backing map, for bulk loading and log replay at startup. */
+    Map<String, User> asMap() {
+        return users;
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention benchmark for the user registry against the old approach of one
+ * HashMap behind a single lock. Each thread runs a session-like mix of
+ * operations: 90% logins (lookup), 8% subsidy applications (lookup plus a
+ * per-user change), 2% registrations.
+ *
+ * Usage: java UserRegistryBenchmark [users] [seconds per run]
+ */
+class UserRegistryBenchmark {
+
+    private interface Registry {
+        User get(String username);
+        boolean register(User user);
+        void apply(User user, int subsidy);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+
+        System.out.printf("%8s %20s %20s%n", "threads", "synchronized ops/s", "registry ops/s");
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            double locked = run(lockedMap(userCount), userCount, threads, seconds);
+            double striped = run(registry(userCount), userCount, threads, seconds);
+            System.out.printf("%8d %20.0f %20.0f%n", threads, locked, striped);
+        }
+    }
+
+    private static Registry lockedMap(int userCount) {
+        Map<String, User> map = Collections.synchronizedMap(new HashMap<>());
+        fill(map, userCount);
+        return new Registry() {
+            public User get(String username) {
+                return map.get(username);
+            }
+
+            public boolean register(User user) {
+                // Everything, including the application below, goes through the one lock
+                synchronized (map) {
+                    if (map.containsKey(user.getUsername())) {
+                        return false;
+                    }
+                    map.put(user.getUsername(), user);
+                    return true;
+                }
+            }
+
+            public void apply(User user, int subsidy) {
+                synchronized (map) {
+                    user.addSubsidyApplication(subsidy);
+                }
+            }
+        };
+    }
+
+    private static Registry registry(int userCount) {
+        UserRegistry registry = new UserRegistry();
+        fill(registry.asMap(), userCount);
+        return new Registry() {
+            public User get(String username) {
+                return registry.get(username);
+            }
+
+            public boolean register(User user) {
+                return registry.register(user);
+            }
+
+            public void apply(User user, int subsidy) {
+                user.addSubsidyApplication(subsidy);
+            }
+        };
+    }
+
+    private static void fill(Map<String, User> map, int userCount) {
+        for (int i = 0; i < userCount; i++) {
+            map.put("user" + i, new User("user" + i, "pw", "User " + i));
+        }
+    }
+
+    private static double run(Registry registry, int userCount, int threads, double seconds)
+            throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long done = 0;
+                int registered = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while ((done & 255) != 0 || System.nanoTime() < deadline) {
+                    int roll = random.nextInt(100);
+                    if (roll < 2) {
+                        String name = "new" + id + "_" + registered++;
+                        registry.register(new User(name, "pw", name));
+                    } else {
+                        User user = registry.get("user" + random.nextInt(userCount));
+                        if (roll < 10 && user != null) {
+                            registry.apply(user, 1 + random.nextInt(3));
+                        }
+                    }
+                    done++;
+                }
+                ops.add(done);
+            });
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return ops.sum() / ((System.nanoTime() - begin) / 1e9);
+    }
+}
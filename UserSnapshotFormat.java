@@ -0,0 +1,489 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Binary columnar snapshot of the user registry, an alternative to the
+ * pipe-delimited user.txt.
+ *
+ * Layout:
+ *   header  magic, version, log checkpoint, user count, block size,
+ *           location dictionary, soil type dictionary
+ *   blocks  up to BLOCK_SIZE users sorted by username, stored column by column:
+ *           count, six variable-column offsets, landSize (8 bytes each),
+ *           isAdmin bitmap, location codes and soil codes (4 bytes each),
+ *           then usernames, passwords, full names, applications, approvals
+ *           and price alerts
+ *   index   per block: offset, length, user count and first username
+ *   footer  index offset, magic
+ *
+ * Strings are length-prefixed UTF-8 and subsidy lists are zigzag varints.
+ * Price alerts are one string per user in the user.txt field format, empty
+ * for users without any; version 1 files, which have no such column, still
+ * load.
+ * Dictionary code 0 stands for "no value". The block index lets a reader
+ * decode a single block, look up one username, or scan the fixed-width
+ * columns without touching the rest of the file.
+ */
+class UserSnapshotFormat {
+
+    private static final int MAGIC = 0x41475553; // "AGUS"
+    private static final int VERSION = 2;
+    static final int BLOCK_SIZE = 4096;
+
+    private static final int COLUMN_USERNAME = 0;
+    private static final int COLUMN_PASSWORD = 1;
+    private static final int COLUMN_FULL_NAME = 2;
+    private static final int COLUMN_APPLICATIONS = 3;
+    private static final int COLUMN_APPROVED = 4;
+    private static final int COLUMN_PRICE_ALERTS = 5;
+    private static final int VARIABLE_COLUMNS = 6;
+
+    /**
+     * Converts between formats and compares load times:
+     *   toBinary user.txt user.dat
+     *   toText   user.dat user.txt
+     *   compare  user.txt user.dat
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.out.println("Usage: UserSnapshotFormat toBinary|toText|compare <from> <to>");
+            return;
+        }
+        Path from = Paths.get(args[1]);
+        Path to = Paths.get(args[2]);
+        Map<String, User> users = new HashMap<>();
+
+        switch (args[0]) {
+            case "toBinary":
+                UserDataLoader.load(from, users);
+                write(to, users.values(), UserWriteAheadLog.readCheckpoint(from));
+                System.out.println("Wrote " + users.size() + " users to " + to);
+                break;
+            case "toText":
+                long checkpoint = read(from, users);
+                AgricultureManagementSystem.writeUserFile(to, users.values(), checkpoint);
+                System.out.println("Wrote " + users.size() + " users to " + to);
+                break;
+            case "compare":
+                compare(from, to);
+                break;
+            default:
+                System.out.println("Unknown command: " + args[0]);
+        }
+    }
+
+    // Best-of-five startup load time for each format
+    private static void compare(Path text, Path binary) throws IOException {
+        long textBest = Long.MAX_VALUE;
+        long binaryBest = Long.MAX_VALUE;
+        int count = 0;
+        for (int run = 0; run < 5; run++) {
+            Map<String, User> users = new HashMap<>();
+            long start = System.nanoTime();
+            UserDataLoader.load(text, users);
+            textBest = Math.min(textBest, System.nanoTime() - start);
+
+            users = new HashMap<>();
+            start = System.nanoTime();
+            read(binary, users);
+            binaryBest = Math.min(binaryBest, System.nanoTime() - start);
+            count = users.size();
+        }
+
+        // A column scan shows what the block index buys over a full decode
+        long start = System.nanoTime();
+        double[] total = new double[1];
+        try (Reader reader = new Reader(binary)) {
+            reader.scanLandSizes(size -> total[0] += size);
+        }
+        long scan = System.nanoTime() - start;
+
+        System.out.printf("%-22s %12s %12s%n", "", "text", "binary");
+        System.out.printf("%-22s %12d %12d%n", "File size (bytes)", Files.size(text), Files.size(binary));
+        System.out.printf("%-22s %12.1f %12.1f%n", "Full load (ms)", textBest / 1e6, binaryBest / 1e6);
+        System.out.printf("%-22s %12s %12.1f%n", "landSize scan (ms)", "-", scan / 1e6);
+        System.out.println(count + " users, total land " + total[0] + " acres");
+    }
+
+    static void write(Path file, Collection<User> users, long logCheckpoint) throws IOException {
+        List<User> sorted = new ArrayList<>(users);
+        sorted.sort(Comparator.comparing(User::getUsername));
+
+        Map<String, Integer> locations = new LinkedHashMap<>();
+        Map<String, Integer> soilTypes = new LinkedHashMap<>();
+        for (User user : sorted) {
+            code(locations, user.getLocation());
+            code(soilTypes, user.getSoilType());
+        }
+
+        try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            DataOutputStream out = new DataOutputStream(stream);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream h = new DataOutputStream(header);
+            h.writeInt(MAGIC);
+            h.writeInt(VERSION);
+            h.writeLong(logCheckpoint);
+            h.writeInt(sorted.size());
+            h.writeInt(BLOCK_SIZE);
+            writeDictionary(h, locations);
+            writeDictionary(h, soilTypes);
+            header.writeTo(out);
+            long position = header.size();
+
+            int blocks = (sorted.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            long[] offsets = new long[blocks];
+            int[] lengths = new int[blocks];
+            for (int b = 0; b < blocks; b++) {
+                List<User> block = sorted.subList(b * BLOCK_SIZE, Math.min(sorted.size(), (b + 1) * BLOCK_SIZE));
+                byte[] bytes = encodeBlock(block, locations, soilTypes);
+                offsets[b] = position;
+                lengths[b] = bytes.length;
+                out.write(bytes);
+                position += bytes.length;
+            }
+
+            long indexOffset = position;
+            out.writeInt(blocks);
+            for (int b = 0; b < blocks; b++) {
+                out.writeLong(offsets[b]);
+                out.writeInt(lengths[b]);
+                out.writeInt(Math.min(BLOCK_SIZE, sorted.size() - b * BLOCK_SIZE));
+                writeString(out, sorted.get(b * BLOCK_SIZE).getUsername());
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+            out.flush();
+        }
+    }
+
+    /** Decodes every block in parallel into the map and returns the log checkpoint. */
+    static long read(Path file, Map<String, User> users) throws IOException {
+        try (Reader reader = new Reader(file)) {
+            User[][] blocks = new User[reader.blockCount()][];
+            IntStream.range(0, blocks.length).parallel().forEach(b -> blocks[b] = reader.readBlock(b));
+            for (User[] block : blocks) {
+                for (User user : block) {
+                    users.put(user.getUsername(), user);
+                }
+            }
+            return reader.logCheckpoint();
+        }
+    }
+
+    /** Random access to a snapshot through its block index. */
+    static class Reader implements Closeable {
+        private final FileChannel channel;
+        private final int variableColumns;
+        private final long logCheckpoint;
+        private final int userCount;
+        private final String[] locations;
+        private final String[] soilTypes;
+        private final long[] blockOffsets;
+        private final int[] blockLengths;
+        private final int[] blockCounts;
+        private final String[] firstUsernames;
+
+        Reader(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                ByteBuffer footer = map(size - 12, 12);
+                long indexOffset = footer.getLong();
+                if (footer.getInt() != MAGIC) {
+                    throw new IOException("Not a user snapshot: " + file);
+                }
+
+                ByteBuffer header = map(0, (int) Math.min(indexOffset, Integer.MAX_VALUE));
+                int version = header.getInt() == MAGIC ? header.getInt() : -1;
+                if (version != 1 && version != VERSION) {
+                    throw new IOException("Unsupported user snapshot: " + file);
+                }
+                variableColumns = version == 1 ? COLUMN_PRICE_ALERTS : VARIABLE_COLUMNS;
+                logCheckpoint = header.getLong();
+                userCount = header.getInt();
+                header.getInt(); // block size
+                locations = readDictionary(header);
+                soilTypes = readDictionary(header);
+
+                ByteBuffer index = map(indexOffset, (int) (size - 12 - indexOffset));
+                int blocks = index.getInt();
+                blockOffsets = new long[blocks];
+                blockLengths = new int[blocks];
+                blockCounts = new int[blocks];
+                firstUsernames = new String[blocks];
+                for (int b = 0; b < blocks; b++) {
+                    blockOffsets[b] = index.getLong();
+                    blockLengths[b] = index.getInt();
+                    blockCounts[b] = index.getInt();
+                    firstUsernames[b] = readString(index);
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        long logCheckpoint() {
+            return logCheckpoint;
+        }
+
+        int userCount() {
+            return userCount;
+        }
+
+        int blockCount() {
+            return blockOffsets.length;
+        }
+
+        User[] readBlock(int b) {
+            ByteBuffer block = readBlockBytes(b);
+            int count = block.getInt();
+            int[] columns = new int[variableColumns];
+            for (int c = 0; c < variableColumns; c++) {
+                columns[c] = block.getInt();
+            }
+            int fixed = block.position();
+            int adminBits = fixed + count * 8;
+            int locationCodes = adminBits + (count + 7) / 8;
+            int soilCodes = locationCodes + count * 4;
+
+            ByteBuffer usernames = block.duplicate().position(columns[COLUMN_USERNAME]);
+            ByteBuffer passwords = block.duplicate().position(columns[COLUMN_PASSWORD]);
+            ByteBuffer fullNames = block.duplicate().position(columns[COLUMN_FULL_NAME]);
+            ByteBuffer applications = block.duplicate().position(columns[COLUMN_APPLICATIONS]);
+            ByteBuffer approved = block.duplicate().position(columns[COLUMN_APPROVED]);
+            ByteBuffer alerts = variableColumns > COLUMN_PRICE_ALERTS
+                    ? block.duplicate().position(columns[COLUMN_PRICE_ALERTS]) : null;
+
+            User[] users = new User[count];
+            for (int i = 0; i < count; i++) {
+                boolean isAdmin = (block.get(adminBits + (i >>> 3)) & (1 << (i & 7))) != 0;
+                User user = new User(readString(usernames), readString(passwords), readString(fullNames), isAdmin);
+                user.setLandDetails(block.getDouble(fixed + i * 8),
+                        locations[block.getInt(locationCodes + i * 4)],
+                        soilTypes[block.getInt(soilCodes + i * 4)]);
+                int apps = readVarInt(applications);
+                for (int a = 0; a < apps; a++) {
+                    user.addSubsidyApplication(readZigZag(applications));
+                }
+                int approvals = readVarInt(approved);
+                for (int a = 0; a < approvals; a++) {
+                    user.approveSubsidy(readZigZag(approved));
+                }
+                String priceAlerts = alerts == null ? "" : readString(alerts);
+                if (!priceAlerts.isEmpty()) {
+                    user.setPriceAlerts(PriceAlert.parseList(priceAlerts));
+                }
+                users[i] = user;
+            }
+            return users;
+        }
+
+        /** Finds one user by decoding only the block that can contain it. */
+        User find(String username) {
+            int low = 0;
+            int high = firstUsernames.length - 1;
+            int candidate = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (firstUsernames[mid].compareTo(username) <= 0) {
+                    candidate = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (candidate < 0) {
+                return null;
+            }
+            for (User user : readBlock(candidate)) {
+                if (user.getUsername().equals(username)) {
+                    return user;
+                }
+            }
+            return null;
+        }
+
+        /** Visits every landSize value, reading only that column of each block. */
+        void scanLandSizes(DoubleConsumer consumer) {
+            int fixed = 4 + variableColumns * 4;
+            for (int b = 0; b < blockOffsets.length; b++) {
+                int count = blockCounts[b];
+                ByteBuffer column = readRange(blockOffsets[b] + fixed, count * 8);
+                for (int i = 0; i < count; i++) {
+                    consumer.accept(column.getDouble(i * 8));
+                }
+            }
+        }
+
+        // Blocks are small, so they are read onto the heap where decoding is cheapest
+        private ByteBuffer readBlockBytes(int b) {
+            return readRange(blockOffsets[b], blockLengths[b]);
+        }
+
+        private ByteBuffer readRange(long offset, int length) {
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        throw new IOException("Truncated user snapshot");
+                    }
+                }
+                return buffer.flip();
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+        }
+
+        private ByteBuffer map(long offset, int length) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static byte[] encodeBlock(List<User> block, Map<String, Integer> locations,
+                                      Map<String, Integer> soilTypes) throws IOException {
+        int count = block.size();
+        ByteArrayOutputStream[] columns = new ByteArrayOutputStream[VARIABLE_COLUMNS];
+        DataOutputStream[] columnOut = new DataOutputStream[VARIABLE_COLUMNS];
+        for (int c = 0; c < VARIABLE_COLUMNS; c++) {
+            columns[c] = new ByteArrayOutputStream();
+            columnOut[c] = new DataOutputStream(columns[c]);
+        }
+
+        int fixedSize = 4 + VARIABLE_COLUMNS * 4 + count * 8 + (count + 7) / 8 + count * 8;
+        ByteBuffer fixed = ByteBuffer.allocate(fixedSize);
+        fixed.position(4 + VARIABLE_COLUMNS * 4);
+        byte[] adminBits = new byte[(count + 7) / 8];
+        for (int i = 0; i < count; i++) {
+            User user = block.get(i);
+            fixed.putDouble(user.getLandSize());
+            if (user.isAdmin()) {
+                adminBits[i >>> 3] |= 1 << (i & 7);
+            }
+            writeString(columnOut[COLUMN_USERNAME], user.getUsername());
+            writeString(columnOut[COLUMN_PASSWORD], user.getPassword());
+            writeString(columnOut[COLUMN_FULL_NAME], user.getFullName());
+            writeInts(columnOut[COLUMN_APPLICATIONS], user.getSubsidyApplications());
+            writeInts(columnOut[COLUMN_APPROVED], user.getApprovedSubsidies());
+            writeString(columnOut[COLUMN_PRICE_ALERTS], PriceAlert.format(user.getPriceAlerts()));
+        }
+        fixed.put(adminBits);
+        for (User user : block) {
+            fixed.putInt(code(locations, user.getLocation()));
+        }
+        for (User user : block) {
+            fixed.putInt(code(soilTypes, user.getSoilType()));
+        }
+
+        fixed.putInt(0, count);
+        int offset = fixedSize;
+        for (int c = 0; c < VARIABLE_COLUMNS; c++) {
+            fixed.putInt(4 + c * 4, offset);
+            offset += columns[c].size();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(offset);
+        bytes.write(fixed.array());
+        for (ByteArrayOutputStream column : columns) {
+            column.writeTo(bytes);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Code 0 is reserved for users without land details
+    private static int code(Map<String, Integer> dictionary, String value) {
+        if (value == null || value.equals("null")) {
+            return 0;
+        }
+        return dictionary.computeIfAbsent(value, v -> dictionary.size() + 1);
+    }
+
+    private static void writeDictionary(DataOutputStream out, Map<String, Integer> dictionary) throws IOException {
+        writeVarInt(out, dictionary.size());
+        for (String value : dictionary.keySet()) {
+            writeString(out, value);
+        }
+    }
+
+    private static String[] readDictionary(ByteBuffer in) {
+        String[] values = new String[readVarInt(in) + 1];
+        for (int i = 1; i < values.length; i++) {
+            values[i] = readString(in);
+        }
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, List<Integer> values) throws IOException {
+        writeVarInt(out, values.size());
+        for (int value : values) {
+            writeVarInt(out, (value << 1) ^ (value >> 31));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarInt(in);
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static int readZigZag(ByteBuffer in) {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,639 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of user changes, written between snapshots of user.txt.
+ *
+ * Changes are queued by the menu code and written by a single writer thread,
+ * which commits whatever has queued up as one group and fsyncs every
+ * {@code agri.wal.fsyncBatch} records or {@code agri.wal.fsyncMillis} ms,
+ * whichever comes first. {@link #awaitDurable} waits for that sync, so a
+ * change is confirmed only once it would survive a crash. If the writer
+ * fails, the log becomes unavailable: appends throw {@link UncheckedIOException}
+ * instead of queueing records that will never be written, and
+ * {@link #isWritable} tells callers to refuse changes until a restart.
+ *
+ * When the active segment grows past
+ * {@code agri.wal.compactBytes} it is sealed and a background compactor folds
+ * the sealed segments into the snapshot: text layouts write only the users
+ * changed since the last fold (see {@link UserFileAppender}), while a binary
+ * snapshot is rewritten whole from the previous one and the sealed segments. {@link #checkpoint} does the same
+ * on request, which is how the background flusher bounds how much of the
+ * log a restart has to replay; the log also tracks which users changed
+ * since the last request, so the flusher knows when one is due.
+ *
+ * Each snapshot records the last segment it contains (a "#wal-checkpoint|seq"
+ * first line in user.txt, a header field in the binary format), so a crash
+ * between writing the snapshot and deleting the folded segments never replays
+ * a change twice. The text line has fewer than four fields and is skipped by
+ * the user loader.
+ */
+class UserWriteAheadLog {
+
+    static final String CHECKPOINT_PREFIX = "#wal-checkpoint|";
+    static final int CHECKPOINT_LINE_LENGTH = CHECKPOINT_PREFIX.length() + 19;
+
+    private static final int FSYNC_BATCH = Integer.getInteger("agri.wal.fsyncBatch", 1);
+    private static final long FSYNC_MILLIS = Long.getLong("agri.wal.fsyncMillis", 50);
+    private static final long COMPACT_BYTES = Long.getLong("agri.wal.compactBytes", 8L << 20);
+
+    private static final byte OP_REGISTER = 1;
+    private static final byte OP_LAND = 2;
+    private static final byte OP_APPLY = 3;
+    private static final byte OP_APPROVE = 4;
+    private static final byte OP_REJECT = 5;
+    private static final byte OP_REMOVE_SUBSIDY = 6;
+    private static final byte OP_PASSWORD = 7;
+    private static final byte OP_PRICE_ALERTS = 8;
+
+    private static final byte[] STOP = new byte[0];
+    private static final byte[] ROLL = new byte[0];
+
+    private final Path snapshotFile;
+    private final Path directory;
+    private final String segmentPrefix;
+    private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    // Guards the counts below and is notified on each sync, so records queue in the order counted
+    private final Object progress = new Object();
+    private long appended;
+    private long durable;
+    // Why the writer stopped, once it has; records appended after that are refused
+    private IOException unavailable;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "user-wal-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Thread writer;
+    private FileChannel channel;
+    private volatile long activeSeq;
+    private volatile long snapshotSeq;
+    private boolean compacting;
+    // Usernames logged since the last checkpoint request; replaced, not cleared, on each request
+    private volatile Set<String> dirtyUsers = ConcurrentHashMap.newKeySet();
+
+    UserWriteAheadLog(Path snapshotFile) {
+        this.snapshotFile = snapshotFile.toAbsolutePath();
+        this.directory = this.snapshotFile.getParent();
+        this.segmentPrefix = this.snapshotFile.getFileName() + ".wal.";
+    }
+
+    /**
+     * Replays every segment newer than the snapshot's checkpoint on top of the
+     * loaded users, then opens a fresh segment for new changes.
+     * Returns the number of records replayed. If this fails the log is left
+     * unavailable, so changes are refused instead of queueing for a writer
+     * that never runs, and {@link #isOpen} stays false.
+     */
+    int open(Map<String, User> users, long checkpoint) throws IOException {
+        snapshotSeq = checkpoint;
+        try {
+            List<Long> segments = listSegments();
+            int replayed = 0;
+            long lastSeq = checkpoint;
+            boolean pending = false;
+
+            for (long seq : segments) {
+                Path segment = segmentPath(seq);
+                int records = seq <= checkpoint ? 0 : replay(segment, users);
+                if (records > 0) {
+                    replayed += records;
+                    pending = true;
+                } else if (seq > checkpoint && Files.size(segment) > 0) {
+                    // Not even the first record reads back; keep the bytes rather than lose what they hold
+                    Path corrupt = segment.resolveSibling(segment.getFileName() + ".corrupt");
+                    Files.move(segment, corrupt, StandardCopyOption.REPLACE_EXISTING);
+                    System.out.println("User log segment " + segment.getFileName() + " is unreadable; kept as "
+                            + corrupt.getFileName() + ".");
+                } else {
+                    // Folded into the snapshot already, or left empty by a clean exit
+                    Files.deleteIfExists(segment);
+                }
+                lastSeq = Math.max(lastSeq, seq);
+            }
+
+            activeSeq = lastSeq + 1;
+            channel = FileChannel.open(segmentPath(activeSeq),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+            if (pending) {
+                scheduleCompaction(activeSeq - 1);
+            }
+
+            writer = new Thread(this::writeLoop, "user-wal-writer");
+            writer.setDaemon(true);
+            writer.start();
+            return replayed;
+        } catch (IOException e) {
+            stopped(e);
+            throw e;
+        } catch (UncheckedIOException e) {
+            // Replay into a lazy store may have to read the whole user file
+            stopped(e.getCause());
+            throw e.getCause();
+        }
+    }
+
+    /** Whether {@link #open} succeeded; if not, the segments on disk are left for the next start. */
+    boolean isOpen() {
+        return writer != null;
+    }
+
+    void logRegister(User user) {
+        append(user.getUsername(), out -> {
+            out.writeByte(OP_REGISTER);
+            out.writeUTF(user.getUsername());
+            out.writeUTF(user.getPassword());
+            out.writeUTF(user.getFullName());
+            out.writeBoolean(user.isAdmin());
+        });
+    }
+
+    void logLandDetails(User user) {
+        append(user.getUsername(), out -> {
+            out.writeByte(OP_LAND);
+            out.writeUTF(user.getUsername());
+            out.writeDouble(user.getLandSize());
+            out.writeUTF(String.valueOf(user.getLocation()));
+            out.writeUTF(String.valueOf(user.getSoilType()));
+        });
+    }
+
+    void logPassword(User user) {
+        append(user.getUsername(), out -> {
+            out.writeByte(OP_PASSWORD);
+            out.writeUTF(user.getUsername());
+            out.writeUTF(user.getPassword());
+        });
+    }
+
+    // The whole list, captured under the user's lock so records of one user queue in the order made
+    void logPriceAlerts(User user) {
+        synchronized (user) {
+            String alerts = PriceAlert.format(user.getPriceAlerts());
+            append(user.getUsername(), out -> {
+                out.writeByte(OP_PRICE_ALERTS);
+                out.writeUTF(user.getUsername());
+                out.writeUTF(alerts);
+            });
+        }
+    }
+
+    void logApply(User user, int subsidyNumber) {
+        logSubsidyChange(OP_APPLY, user, subsidyNumber);
+    }
+
+    void logApprove(User user, int subsidyNumber) {
+        logSubsidyChange(OP_APPROVE, user, subsidyNumber);
+    }
+
+    void logReject(User user, int subsidyNumber) {
+        logSubsidyChange(OP_REJECT, user, subsidyNumber);
+    }
+
+    private void logSubsidyChange(byte op, User user, int subsidyNumber) {
+        append(user.getUsername(), out -> {
+            out.writeByte(op);
+            out.writeUTF(user.getUsername());
+            out.writeInt(subsidyNumber);
+        });
+    }
+
+    /** False once the writer has failed or the log is closed; changes should then be refused. */
+    boolean isWritable() {
+        synchronized (progress) {
+            return unavailable == null;
+        }
+    }
+
+    /** Throws if the log is unavailable; call before a change, so none is made that cannot be logged. */
+    void checkWritable() {
+        synchronized (progress) {
+            if (unavailable != null) {
+                throw unavailableException();
+            }
+        }
+    }
+
+    /**
+     * Waits until every record appended so far is synced to disk; call after
+     * a change and before confirming it. Takes at most about
+     * {@code agri.wal.fsyncMillis} ms, as other changes share the sync.
+     * Throws if the records can no longer be written.
+     */
+    void awaitDurable() {
+        synchronized (progress) {
+            long target = appended;
+            while (durable < target) {
+                if (unavailable != null) {
+                    throw unavailableException();
+                }
+                try {
+                    progress.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("interrupted waiting for the user log"));
+                }
+            }
+        }
+    }
+
+    /** Users changed since the last {@link #checkpoint}, counting each once. */
+    int dirtyUsers() {
+        return dirtyUsers.size();
+    }
+
+    /**
+     * Seals the active segment once everything queued before this call is
+     * written and has the compactor fold it into a new snapshot. Does not
+     * wait; skipped if nothing was logged or a compaction is still running,
+     * in which case the changes simply stay in the log until the next one.
+     */
+    void checkpoint() {
+        if (writer == null) {
+            return;
+        }
+        dirtyUsers = ConcurrentHashMap.newKeySet();
+        queue.add(ROLL);
+    }
+
+    /**
+     * Drains and syncs everything queued so far and stops the background
+     * threads. Returns the sequence number of the last segment written, which
+     * the final snapshot should record as its checkpoint. An empty last
+     * segment is deleted, so a run that changed nothing leaves nothing to replay.
+     */
+    long close() throws IOException {
+        if (writer == null) {
+            // Never opened: nothing was written here, and nothing newer than the snapshot is folded
+            compactor.shutdown();
+            if (channel != null) {
+                channel.close();
+            }
+            return snapshotSeq;
+        }
+        queue.add(STOP);
+        try {
+            writer.join();
+            compactor.shutdown();
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (channel.size() == 0) {
+            channel.close();
+            Files.deleteIfExists(segmentPath(activeSeq));
+        } else {
+            channel.close();
+        }
+        return activeSeq;
+    }
+
+    /** After {@link #close}: whether any segment holds changes the snapshot on disk does not. */
+    boolean hasUnsavedChanges() throws IOException {
+        return hasSegmentsAfter(snapshotSeq);
+    }
+
+    /** Whether any segment is newer than a snapshot with the given checkpoint; needs no {@link #open}. */
+    boolean hasSegmentsAfter(long checkpoint) throws IOException {
+        for (long seq : listSegments()) {
+            if (seq > checkpoint) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Removes the segments folded into a snapshot with the given checkpoint. */
+    void deleteSegmentsUpTo(long checkpoint) throws IOException {
+        for (long seq : listSegments()) {
+            if (seq <= checkpoint) {
+                Files.deleteIfExists(segmentPath(seq));
+            }
+        }
+    }
+
+    /** The first line of a text snapshot; fixed width, so it can be rewritten in place. */
+    static String checkpointLine(long checkpoint) {
+        return CHECKPOINT_PREFIX + String.format("%019d", checkpoint);
+    }
+
+    /** Reads the checkpoint line of a text snapshot, 0 if it has none. */
+    static long readCheckpoint(Path snapshot) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(snapshot, StandardCharsets.UTF_8)) {
+            String first = reader.readLine();
+            if (first != null && first.startsWith(CHECKPOINT_PREFIX)) {
+                return Long.parseLong(first.substring(CHECKPOINT_PREFIX.length()).trim());
+            }
+        } catch (NoSuchFileException e) {
+            // no snapshot yet, every segment is newer
+        }
+        return 0;
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void append(String username, RecordWriter record) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            record.write(out);
+            out.flush();
+            synchronized (progress) {
+                if (unavailable != null) {
+                    throw unavailableException();
+                }
+                queue.add(bytes.toByteArray());
+                appended++;
+            }
+            // After queueing, so a checkpoint racing this can only count the user twice, never miss them
+            dirtyUsers.add(username);
+        } catch (IOException e) {
+            // writing to a byte array cannot fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private UncheckedIOException unavailableException() {
+        String reason = unavailable.getMessage() != null ? unavailable.getMessage() : unavailable.toString();
+        return new UncheckedIOException("the user log cannot be written (" + reason
+                + "), so changes are refused until a restart", unavailable);
+    }
+
+    // Marks the records up to the count as on disk and wakes the waiters
+    private void synced(long written) {
+        synchronized (progress) {
+            durable = written;
+            progress.notifyAll();
+        }
+    }
+
+    // Refuses further records and wakes the waiters, who fail unless theirs were synced
+    private void stopped(IOException reason) {
+        synchronized (progress) {
+            unavailable = reason;
+            progress.notifyAll();
+        }
+    }
+
+    private void writeLoop() {
+        List<byte[]> batch = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        int unsynced = 0;
+        long written = 0;
+        long lastSync = System.nanoTime();
+
+        try {
+            while (true) {
+                byte[] first = unsynced > 0
+                        ? queue.poll(FSYNC_MILLIS, TimeUnit.MILLISECONDS)
+                        : queue.take();
+                boolean stop = false;
+                boolean checkpoint = false;
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    stop = batch.remove(STOP);
+                    checkpoint = batch.removeIf(payload -> payload == ROLL);
+
+                    // Group commit: one write for everything that queued up
+                    int size = 0;
+                    for (byte[] payload : batch) {
+                        size += 8 + payload.length;
+                    }
+                    ByteBuffer buffer = ByteBuffer.allocate(size);
+                    for (byte[] payload : batch) {
+                        crc.reset();
+                        crc.update(payload);
+                        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    unsynced += batch.size();
+                    written += batch.size();
+                    batch.clear();
+                }
+
+                if (unsynced > 0 && (stop || checkpoint || unsynced >= FSYNC_BATCH
+                        || System.nanoTime() - lastSync >= TimeUnit.MILLISECONDS.toNanos(FSYNC_MILLIS))) {
+                    channel.force(false);
+                    unsynced = 0;
+                    lastSync = System.nanoTime();
+                    synced(written);
+                }
+
+                if (stop) {
+                    stopped(new IOException("the user log is closed"));
+                    return;
+                }
+                if (unsynced == 0 && channel.size() >= (checkpoint ? 1 : COMPACT_BYTES)) {
+                    roll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped(new InterruptedIOException("the user log writer was interrupted"));
+        } catch (IOException e) {
+            System.out.println("Error writing to the user log, refusing changes until a restart: " + e);
+            stopped(e);
+        }
+    }
+
+    // Seals the active segment and hands it to the compactor
+    private void roll() throws IOException {
+        synchronized (this) {
+            if (compacting) {
+                return;
+            }
+        }
+        channel.close();
+        long sealed = activeSeq;
+        activeSeq = sealed + 1;
+        channel = FileChannel.open(segmentPath(activeSeq),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        scheduleCompaction(sealed);
+    }
+
+    private synchronized void scheduleCompaction(long sealedSeq) {
+        compacting = true;
+        compactor.execute(() -> {
+            long start = System.nanoTime();
+            boolean compacted = false;
+            try {
+                compact(sealedSeq);
+                snapshotSeq = sealedSeq;
+                compacted = true;
+            } catch (IOException e) {
+                System.out.println("Error compacting the user log: " + e.getMessage());
+            } finally {
+                OperationMetrics.SAVE_USERS.record(start, compacted);
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        });
+    }
+
+    // Folds all segments up to sealedSeq into a new snapshot, off the live users map (sharded and
+    // on-demand layouts: changed users only)
+    private void compact(long sealedSeq) throws IOException {
+        if (!AgricultureManagementSystem.BINARY_SNAPSHOT) {
+            // Changes up to sealedSeq are all in memory already, so only the changed users are written
+            AgricultureManagementSystem.saveChangedUsers(sealedSeq);
+            deleteSegmentsUpTo(sealedSeq);
+            return;
+        }
+        // The binary format has no room to append, so it is still rebuilt from the last snapshot and the log
+        Map<String, User> folded = new HashMap<>();
+        long checkpoint = 0;
+        try {
+            checkpoint = AgricultureManagementSystem.readSnapshot(snapshotFile, folded);
+        } catch (NoSuchFileException e) {
+            // first snapshot
+        }
+
+        for (long seq : listSegments()) {
+            if (seq > checkpoint && seq <= sealedSeq) {
+                replay(segmentPath(seq), folded);
+            }
+        }
+
+        AgricultureManagementSystem.writeSnapshot(snapshotFile, folded.values(), sealedSeq);
+        deleteSegmentsUpTo(sealedSeq);
+    }
+
+    private static int replay(Path segment, Map<String, User> users) throws IOException {
+        int count = 0;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length <= 0 || length > 1 << 20) {
+                        break;
+                    }
+                    payload = in.readNBytes(length);
+                    crc.reset();
+                    crc.update(payload);
+                    if (payload.length != length || (int) crc.getValue() != checksum) {
+                        break; // torn write at the tail of the segment
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(payload)), users);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Register, apply and approve skip changes already present, so a record is never applied twice
+    private static void apply(DataInputStream in, Map<String, User> users) throws IOException {
+        byte op = in.readByte();
+        if (op == OP_REMOVE_SUBSIDY) {
+            // No longer written: subsidies now have stable ids. Old logs still renumber.
+            AgricultureManagementSystem.removeSubsidyFromUsers(users.values(), readSubsidyId(in));
+            return;
+        }
+
+        String username = in.readUTF();
+        if (op == OP_REGISTER) {
+            String password = in.readUTF();
+            String fullName = in.readUTF();
+            boolean isAdmin = in.readBoolean();
+            users.putIfAbsent(username, new User(username, password, fullName, isAdmin));
+            return;
+        }
+
+        User user = users.get(username);
+        if (user == null) {
+            return;
+        }
+        switch (op) {
+            case OP_LAND:
+                user.setLandDetails(in.readDouble(), in.readUTF(), in.readUTF());
+                break;
+            case OP_APPLY:
+                user.addSubsidyApplication(readSubsidyId(in));
+                break;
+            case OP_APPROVE:
+                user.approveSubsidy(readSubsidyId(in));
+                break;
+            case OP_REJECT:
+                user.rejectSubsidy(readSubsidyId(in));
+                break;
+            case OP_PASSWORD:
+                user.setPassword(in.readUTF());
+                break;
+            case OP_PRICE_ALERTS:
+                user.setPriceAlerts(PriceAlert.parseList(in.readUTF()));
+                break;
+            default:
+                throw new IOException("Unknown log record type " + op);
+        }
+    }
+
+    private static int readSubsidyId(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        if (id < 0 || id > SubsidySet.MAX_NUMBER) {
+            throw new IOException("Log record has subsidy id " + id + " out of range");
+        }
+        return id;
+    }
+
+    private Path segmentPath(long seq) {
+        return directory.resolve(segmentPrefix + seq);
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, segmentPrefix + "*")) {
+            for (Path path : stream) {
+                try {
+                    segments.add(Long.parseLong(path.getFileName().toString().substring(segmentPrefix.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+}